@@ -0,0 +1,45 @@
+package de.jcm.openscad.colorhelper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URL;
+
+@State(Scope.Benchmark)
+public class ColorMapBenchmark
+{
+	@Param({"150", "5000"})
+	public int entries;
+
+	private File directory;
+	private URL colorMap;
+	private PrintStream out;
+
+	@Setup
+	public void setup() throws IOException
+	{
+		directory = Fixtures.directory();
+		colorMap = Fixtures.colorMap(directory, entries).toURI().toURL();
+		out = Fixtures.quiet();
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		Fixtures.restore(out);
+		Fixtures.delete(directory);
+	}
+
+	@Benchmark
+	public ColorMap read() throws IOException
+	{
+		return ColorMap.read(colorMap);
+	}
+}
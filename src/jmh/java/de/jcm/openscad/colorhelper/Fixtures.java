@@ -0,0 +1,248 @@
+package de.jcm.openscad.colorhelper;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * Generates synthetic inputs for the benchmarks, so they run without OpenSCAD or any real model.
+ */
+public class Fixtures
+{
+	private static final String[] NAMES = {"red", "green", "blue", "yellow", "orange", "purple", "white", "black"};
+
+	public static File directory() throws IOException
+	{
+		File directory = Files.createTempDirectory("colorhelper-jmh").toFile();
+		directory.deleteOnExit();
+		return directory;
+	}
+
+	/**
+	 * Swallows the progress output of the code under test, so it neither ends up in the results nor costs time.
+	 * Returns the previous stream for {@link #restore(PrintStream)}.
+	 */
+	public static PrintStream quiet()
+	{
+		PrintStream out = System.out;
+		System.setOut(new PrintStream(new OutputStream()
+		{
+			@Override
+			public void write(int b)
+			{
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len)
+			{
+			}
+		}));
+		return out;
+	}
+
+	public static Writer discard()
+	{
+		return new Writer()
+		{
+			@Override
+			public void write(char[] buffer, int offset, int length)
+			{
+			}
+
+			@Override
+			public void write(String string)
+			{
+			}
+
+			@Override
+			public void flush()
+			{
+			}
+
+			@Override
+			public void close()
+			{
+			}
+		};
+	}
+
+	public static void restore(PrintStream out)
+	{
+		System.setOut(out);
+	}
+
+	public static void delete(File directory)
+	{
+		File[] files = directory.listFiles();
+		if(files != null)
+		{
+			for(File file : files)
+				delete(file);
+		}
+		directory.delete();
+	}
+
+	public static File colorMap(File directory, int entries) throws IOException
+	{
+		File file = new File(directory, "colors_" + entries + ".map");
+		Random random = new Random(entries);
+		try(PrintStream print = new PrintStream(file))
+		{
+			print.println("// synthetic color map");
+			for(int i = 0; i < entries; i++)
+			{
+				int rgb = random.nextInt(0x1000000);
+				switch(i % 3)
+				{
+					case 0:
+						print.println("color" + i + " = #" + String.format("%06x", rgb));
+						break;
+					case 1:
+						print.println("color" + i + " = rgb(" + (rgb >> 16) + ", " + ((rgb >> 8) & 0xFF) + ", "
+								              + (rgb & 0xFF) + ")");
+						break;
+					default:
+						print.println("color" + i + " = " + rgb);
+				}
+			}
+		}
+		return file;
+	}
+
+	/**
+	 * A SCAD file with the given number of color() blocks, spread over a few groups. Blocks alternate between
+	 * named and rgb colors and between one-line and braced bodies.
+	 */
+	public static File scad(File directory, int blocks, int groups) throws IOException
+	{
+		File file = new File(directory, "model_" + blocks + "_" + groups + ".scad");
+		Random random = new Random(blocks);
+		try(PrintStream print = new PrintStream(new BufferedOutputStream(new FileOutputStream(file))))
+		{
+			print.println("/*extern*/ size = 10;");
+			print.println("$fn = 32;");
+
+			int perGroup = blocks / groups;
+			for(int g = 0; g < groups; g++)
+			{
+				if(g > 0)
+					print.println("/*start_group(\"group" + g + "\")*/");
+				for(int i = 0; i < perGroup; i++)
+				{
+					String color = i % 4 == 3
+							? "[" + (random.nextInt(4) / 4.0) + ", 0.5, 1]"
+							: "\"" + NAMES[random.nextInt(NAMES.length)] + "\"";
+					if(i % 2 == 0)
+					{
+						print.println("color(" + color + ") translate([" + i + ", 0, 0]) cube(size);");
+					}
+					else
+					{
+						print.println("color(" + color + ") {");
+						print.println("    translate([" + i + ", 0, 0]) sphere(2);");
+						print.println("    translate([" + i + ", 5, 0]) cylinder(r=1, h=3);");
+						print.println("}");
+					}
+				}
+				if(g > 0)
+					print.println("/*end_group(\"group" + g + "\")*/");
+			}
+		}
+		return file;
+	}
+
+	/**
+	 * A height field of roughly the given number of facets, so that most vertices are shared by six triangles
+	 * like in real OpenSCAD output.
+	 */
+	public static float[] surface(int facets)
+	{
+		int size = Math.max(1, (int) Math.sqrt(facets / 2.0));
+		float[] triangles = new float[size * size * 2 * 12];
+		int t = 0;
+		for(int x = 0; x < size; x++)
+		{
+			for(int y = 0; y < size; y++)
+			{
+				t = facet(triangles, t, x, y, x + 1, y, x + 1, y + 1);
+				t = facet(triangles, t, x, y, x + 1, y + 1, x, y + 1);
+			}
+		}
+		return triangles;
+	}
+
+	private static float height(int x, int y)
+	{
+		return (float) (Math.sin(x * 0.1) * Math.cos(y * 0.13) * 5);
+	}
+
+	private static int facet(float[] t, int i, int x0, int y0, int x1, int y1, int x2, int y2)
+	{
+		t[i++] = 0;
+		t[i++] = 0;
+		t[i++] = 1;
+		int[] xs = {x0, x1, x2};
+		int[] ys = {y0, y1, y2};
+		for(int j = 0; j < 3; j++)
+		{
+			t[i++] = xs[j] * 0.25f;
+			t[i++] = ys[j] * 0.25f;
+			t[i++] = height(xs[j], ys[j]);
+		}
+		return i;
+	}
+
+	public static File asciiSTL(File directory, int facets) throws IOException
+	{
+		File file = new File(directory, "ascii_" + facets + ".stl");
+		float[] t = surface(facets);
+		try(PrintStream print = new PrintStream(new BufferedOutputStream(new FileOutputStream(file))))
+		{
+			print.println("solid OpenSCAD_Model");
+			for(int i = 0; i < t.length; i += 12)
+			{
+				print.println("  facet normal " + t[i] + " " + t[i + 1] + " " + t[i + 2]);
+				print.println("    outer loop");
+				for(int j = 3; j < 12; j += 3)
+					print.println("      vertex " + t[i + j] + " " + t[i + j + 1] + " " + t[i + j + 2]);
+				print.println("    endloop");
+				print.println("  endfacet");
+			}
+			print.println("endsolid OpenSCAD_Model");
+		}
+		return file;
+	}
+
+	public static File binarySTL(File directory, int facets) throws IOException
+	{
+		File file = new File(directory, "binary_" + facets + ".stl");
+		float[] t = surface(facets);
+		try(OutputStream out = new BufferedOutputStream(new FileOutputStream(file)))
+		{
+			ByteBuffer header = ByteBuffer.allocate(84).order(ByteOrder.LITTLE_ENDIAN);
+			header.put("OpenSCAD Model".getBytes());
+			header.position(80);
+			header.putInt(t.length / 12);
+			out.write(header.array());
+
+			ByteBuffer record = ByteBuffer.allocate(50).order(ByteOrder.LITTLE_ENDIAN);
+			for(int i = 0; i < t.length; i += 12)
+			{
+				record.clear();
+				for(int j = 0; j < 12; j++)
+					record.putFloat(t[i + j]);
+				record.putShort((short) 0);
+				out.write(record.array());
+			}
+		}
+		return file;
+	}
+}
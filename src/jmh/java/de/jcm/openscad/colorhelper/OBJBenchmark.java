@@ -0,0 +1,91 @@
+package de.jcm.openscad.colorhelper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Welding a parsed STL, writing it as a per-color OBJ file and merging several of those into the group file.
+ */
+@State(Scope.Benchmark)
+public class OBJBenchmark
+{
+	private static final int COLORS = 8;
+
+	@Param({"10000", "500000"})
+	public int facets;
+
+	@Param({"-1", "6"})
+	public int precision;
+
+	private File directory;
+	private Mesh mesh;
+	private IndexedMesh indexed;
+	private File obj;
+	private File merged;
+	private File[] parts;
+
+	@Setup
+	public void setup() throws IOException
+	{
+		directory = Fixtures.directory();
+		mesh = new ASCIISTLReader().read(Fixtures.asciiSTL(directory, facets));
+		indexed = IndexedMesh.weld(mesh, 0);
+
+		obj = new File(directory, "color.obj");
+		merged = new File(directory, "merged.obj");
+		parts = new File[COLORS];
+		for(int i = 0; i < COLORS; i++)
+		{
+			parts[i] = new File(directory, "part" + i + ".obj");
+			write(parts[i]);
+		}
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		Fixtures.delete(directory);
+	}
+
+	private void write(File file) throws IOException
+	{
+		OBJWriter writer = new OBJWriter(file, precision);
+		writer.line("mtllib colors.mtl");
+		writer.line("usemtl color");
+		writer.line("o " + indexed.getName());
+		writer.mesh(indexed);
+		writer.close();
+	}
+
+	@Benchmark
+	public IndexedMesh weld()
+	{
+		return IndexedMesh.weld(mesh, 0);
+	}
+
+	@Benchmark
+	public void writeColor() throws IOException
+	{
+		write(obj);
+	}
+
+	@Benchmark
+	public void merge() throws IOException
+	{
+		OBJMerger merger = new OBJMerger();
+		for(int i = 0; i < COLORS; i++)
+			merger.add(parts[i], "color" + i);
+
+		OBJWriter writer = new OBJWriter(merged, precision);
+		writer.line("mtllib colors.mtl");
+		merger.merge(writer);
+		writer.close();
+	}
+}
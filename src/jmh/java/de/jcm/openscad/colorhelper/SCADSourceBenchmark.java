@@ -0,0 +1,82 @@
+package de.jcm.openscad.colorhelper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.Collections;
+
+/**
+ * Parsing the input and generating the per-color SCAD files (and digests) for every group/color combination.
+ */
+@State(Scope.Benchmark)
+public class SCADSourceBenchmark
+{
+	@Param({"100", "10000"})
+	public int blocks;
+
+	@Param({"1", "8"})
+	public int groups;
+
+	private File directory;
+	private File input;
+	private SCADSource source;
+	private PrintStream out;
+
+	@Setup
+	public void setup() throws IOException
+	{
+		directory = Fixtures.directory();
+		input = Fixtures.scad(directory, blocks, groups);
+		out = Fixtures.quiet();
+		source = SCADSource.parse(input, Collections.singletonMap("size", "12"));
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		Fixtures.restore(out);
+		Fixtures.delete(directory);
+	}
+
+	@Benchmark
+	public SCADSource parse() throws IOException
+	{
+		return SCADSource.parse(input, Collections.singletonMap("size", "12"));
+	}
+
+	@Benchmark
+	public void write() throws IOException
+	{
+		Writer writer = Fixtures.discard();
+		for(int g = 0; g < source.getGroups().size(); g++)
+		{
+			for(int c = 0; c < source.getColors().size(); c++)
+			{
+				if(source.hasGeometry(g, c))
+					source.write(writer, g, c);
+			}
+		}
+	}
+
+	@Benchmark
+	public void digest(Blackhole blackhole)
+	{
+		for(int g = 0; g < source.getGroups().size(); g++)
+		{
+			for(int c = 0; c < source.getColors().size(); c++)
+			{
+				if(source.hasGeometry(g, c))
+					blackhole.consume(source.digest(g, c));
+			}
+		}
+	}
+}
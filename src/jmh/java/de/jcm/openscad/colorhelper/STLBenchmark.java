@@ -0,0 +1,57 @@
+package de.jcm.openscad.colorhelper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * STL parsing throughput, with the old Scanner based parser as a baseline for the ASCII reader.
+ */
+@State(Scope.Benchmark)
+public class STLBenchmark
+{
+	@Param({"10000", "500000"})
+	public int facets;
+
+	private File directory;
+	private File ascii;
+	private File binary;
+
+	@Setup
+	public void setup() throws IOException
+	{
+		directory = Fixtures.directory();
+		ascii = Fixtures.asciiSTL(directory, facets);
+		binary = Fixtures.binarySTL(directory, facets);
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		Fixtures.delete(directory);
+	}
+
+	@Benchmark
+	public Mesh ascii() throws IOException
+	{
+		return new ASCIISTLReader().read(ascii);
+	}
+
+	@Benchmark
+	public Mesh asciiScanner() throws IOException
+	{
+		return new ScannerSTLReader().read(ascii);
+	}
+
+	@Benchmark
+	public Mesh binary() throws IOException
+	{
+		return new BinarySTLReader().read(binary);
+	}
+}
@@ -0,0 +1,278 @@
+package de.jcm.openscad.colorhelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+public class ASCIISTLReader implements STLReader
+{
+	private static final byte[] SOLID = bytes("solid");
+	private static final byte[] FACET = bytes("facet");
+	private static final byte[] VERTEX = bytes("vertex");
+	private static final byte[] ENDFACET = bytes("endfacet");
+
+	private static final double[] POWERS_OF_TEN = new double[23];
+
+	static
+	{
+		POWERS_OF_TEN[0] = 1;
+		for(int i = 1; i < POWERS_OF_TEN.length; i++)
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+	}
+
+	private static byte[] bytes(String keyword)
+	{
+		return keyword.getBytes(StandardCharsets.US_ASCII);
+	}
+
+	private boolean singlePrecision;
+	private boolean offHeap;
+
+	// allocated once per reader, meshes are read through it whether they come from a file or a stream
+	private ByteBuffer buffer;
+	private ReadableByteChannel channel;
+
+	private byte[] token = new byte[64];
+	private int length;
+
+	public ASCIISTLReader()
+	{
+		this(false, false);
+	}
+
+	/**
+	 * @param singlePrecision store the mesh as float, losing the digits OpenSCAD prints beyond that
+	 * @param offHeap         store the mesh outside the Java heap
+	 */
+	public ASCIISTLReader(boolean singlePrecision, boolean offHeap)
+	{
+		this.singlePrecision = singlePrecision;
+		this.offHeap = offHeap;
+	}
+
+	@Override
+	public Mesh read(File file) throws IOException
+	{
+		// not mapped, a mapping keeps the file locked on Windows until it is garbage collected
+		try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+		{
+			return read(channel);
+		}
+	}
+
+	@Override
+	public Mesh read(ReadableByteChannel channel) throws IOException
+	{
+		if(buffer == null)
+			buffer = ByteBuffer.allocateDirect(1 << 16);
+		buffer.clear();
+		buffer.flip();
+		this.channel = channel;
+		return parse();
+	}
+
+	private Mesh parse() throws IOException
+	{
+		Mesh mesh = new Mesh("", 16, singlePrecision, offHeap);
+
+		double nx = 0, ny = 0, nz = 0;
+		double[] points = new double[9];
+		int vertices = 0;
+
+		while(next())
+		{
+			if(is(SOLID))
+			{
+				mesh.setName(restOfLine());
+			}
+			else if(is(FACET))
+			{
+				next(); // "normal"
+				nx = nextDouble();
+				ny = nextDouble();
+				nz = nextDouble();
+				vertices = 0;
+			}
+			else if(is(VERTEX))
+			{
+				if(vertices < 3)
+				{
+					points[vertices * 3] = nextDouble();
+					points[vertices * 3 + 1] = nextDouble();
+					points[vertices * 3 + 2] = nextDouble();
+				}
+				vertices++;
+			}
+			else if(is(ENDFACET))
+			{
+				if(vertices == 3)
+				{
+					mesh.addTriangle(nx, ny, nz,
+					                 points[0], points[1], points[2],
+					                 points[3], points[4], points[5],
+					                 points[6], points[7], points[8]);
+				}
+				vertices = 0;
+			}
+		}
+
+		channel = null;
+		return mesh;
+	}
+
+	private int read() throws IOException
+	{
+		if(!buffer.hasRemaining())
+		{
+			buffer.clear();
+			int read;
+			do
+			{
+				read = channel.read(buffer);
+			}
+			while(read == 0);
+			buffer.flip();
+
+			if(read < 0)
+				return -1;
+		}
+		return buffer.get();
+	}
+
+	private static boolean isWhitespace(int b)
+	{
+		return b == ' ' || b == '\t' || b == '\n' || b == '\r' || b == '\f';
+	}
+
+	private boolean next() throws IOException
+	{
+		int b;
+		do
+		{
+			b = read();
+		}
+		while(isWhitespace(b));
+
+		length = 0;
+		while(b >= 0 && !isWhitespace(b))
+		{
+			if(length == token.length)
+				token = Arrays.copyOf(token, token.length * 2);
+			token[length++] = (byte) b;
+			b = read();
+		}
+		return length > 0;
+	}
+
+	private boolean is(byte[] keyword)
+	{
+		if(length != keyword.length)
+			return false;
+		for(int i = 0; i < length; i++)
+		{
+			if(token[i] != keyword[i])
+				return false;
+		}
+		return true;
+	}
+
+	private String restOfLine() throws IOException
+	{
+		int b = read();
+		while(b == ' ' || b == '\t')
+			b = read();
+
+		length = 0;
+		while(b >= 0 && b != '\n' && b != '\r')
+		{
+			if(length == token.length)
+				token = Arrays.copyOf(token, token.length * 2);
+			token[length++] = (byte) b;
+			b = read();
+		}
+		return new String(token, 0, length, StandardCharsets.US_ASCII).trim();
+	}
+
+	private double nextDouble() throws IOException
+	{
+		if(!next())
+			throw new IOException("Unexpected end of STL file");
+
+		int i = 0;
+		boolean negative = false;
+		if(token[0] == '-' || token[0] == '+')
+		{
+			negative = token[0] == '-';
+			i++;
+		}
+
+		long mantissa = 0;
+		int exponent = 0;
+		boolean digits = false;
+		boolean exact = true;
+
+		for(; i < length && token[i] >= '0' && token[i] <= '9'; i++)
+		{
+			digits = true;
+			if(mantissa < 1L << 53)
+				mantissa = mantissa * 10 + (token[i] - '0');
+			else
+				exact = false;
+		}
+		if(i < length && token[i] == '.')
+		{
+			for(i++; i < length && token[i] >= '0' && token[i] <= '9'; i++)
+			{
+				digits = true;
+				if(mantissa < 1L << 53)
+				{
+					mantissa = mantissa * 10 + (token[i] - '0');
+					exponent--;
+				}
+				else
+					exact = false;
+			}
+		}
+		if(digits && i < length && (token[i] == 'e' || token[i] == 'E'))
+		{
+			i++;
+			boolean negativeExponent = false;
+			if(i < length && (token[i] == '-' || token[i] == '+'))
+			{
+				negativeExponent = token[i] == '-';
+				i++;
+			}
+
+			int e = 0;
+			if(i == length)
+				digits = false;
+			for(; i < length && token[i] >= '0' && token[i] <= '9'; i++)
+			{
+				if(e < 10000)
+					e = e * 10 + (token[i] - '0');
+			}
+			exponent += negativeExponent ? -e : e;
+		}
+
+		// m * 10^e is correctly rounded as long as both factors are exact doubles
+		if(digits && exact && i == length && mantissa <= 1L << 53)
+		{
+			double value;
+			if(mantissa == 0)
+				value = 0;
+			else if(exponent >= 0 && exponent < POWERS_OF_TEN.length)
+				value = mantissa * POWERS_OF_TEN[exponent];
+			else if(exponent < 0 && -exponent < POWERS_OF_TEN.length)
+				value = mantissa / POWERS_OF_TEN[-exponent];
+			else
+				return Double.parseDouble(new String(token, 0, length, StandardCharsets.US_ASCII));
+			return negative ? -value : value;
+		}
+		return Double.parseDouble(new String(token, 0, length, StandardCharsets.US_ASCII));
+	}
+}
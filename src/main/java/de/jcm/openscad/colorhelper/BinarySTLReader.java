@@ -0,0 +1,119 @@
+package de.jcm.openscad.colorhelper;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+public class BinarySTLReader implements STLReader
+{
+	private static final int HEADER = 80;
+	private static final int RECORD = 50;
+
+	// read whole facet records only, so a record never straddles two buffer fills
+	private static final int BUFFER_RECORDS = 4096;
+
+	private boolean offHeap;
+
+	public BinarySTLReader()
+	{
+		this(false);
+	}
+
+	/**
+	 * @param offHeap store the mesh outside the Java heap
+	 */
+	public BinarySTLReader(boolean offHeap)
+	{
+		this.offHeap = offHeap;
+	}
+
+	@Override
+	public Mesh read(File file) throws IOException
+	{
+		try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+		{
+			// a truncated file must not make us allocate for a count it cannot hold
+			long available = (channel.size() - HEADER - 4) / RECORD;
+			return read(channel, available);
+		}
+	}
+
+	@Override
+	public Mesh read(ReadableByteChannel channel) throws IOException
+	{
+		// a stream has no size to check the count against, so grow the mesh as facets actually arrive
+		return read(channel, -1);
+	}
+
+	/**
+	 * @param available number of facets the channel can hold, or -1 if unknown
+	 */
+	private Mesh read(ReadableByteChannel channel, long available) throws IOException
+	{
+		ByteBuffer header = ByteBuffer.allocate(HEADER + 4).order(ByteOrder.LITTLE_ENDIAN);
+		fill(channel, header);
+		header.flip();
+
+		byte[] name = new byte[HEADER];
+		header.get(name);
+		long count = header.getInt() & 0xFFFFFFFFL;
+
+		if(available >= 0 && count > available)
+			throw new EOFException("STL file declares " + count + " facets, but only contains " + available);
+
+		// binary STL only holds floats, so storing them as such loses nothing
+		Mesh mesh = new Mesh(name(name), (int) (available >= 0 ? count : Math.min(count, BUFFER_RECORDS)), true,
+		                     offHeap);
+
+		ByteBuffer buffer = ByteBuffer.allocateDirect(RECORD * BUFFER_RECORDS).order(ByteOrder.LITTLE_ENDIAN);
+		long remaining = count;
+		while(remaining > 0)
+		{
+			int records = (int) Math.min(remaining, BUFFER_RECORDS);
+			buffer.clear();
+			buffer.limit(records * RECORD);
+			fill(channel, buffer);
+			buffer.flip();
+
+			for(int i = 0; i < records; i++)
+			{
+				mesh.addTriangle(buffer.getFloat(), buffer.getFloat(), buffer.getFloat(),
+				                 buffer.getFloat(), buffer.getFloat(), buffer.getFloat(),
+				                 buffer.getFloat(), buffer.getFloat(), buffer.getFloat(),
+				                 buffer.getFloat(), buffer.getFloat(), buffer.getFloat());
+				buffer.getShort(); // attribute byte count
+			}
+			remaining -= records;
+		}
+
+		return mesh;
+	}
+
+	private static void fill(ReadableByteChannel channel, ByteBuffer buffer) throws IOException
+	{
+		while(buffer.hasRemaining())
+		{
+			if(channel.read(buffer) < 0)
+				throw new EOFException("Unexpected end of STL file");
+		}
+	}
+
+	private static String name(byte[] header)
+	{
+		String name = new String(header, StandardCharsets.US_ASCII);
+		int end = name.indexOf('\0');
+		if(end >= 0)
+			name = name.substring(0, end);
+		name = name.trim();
+
+		if(name.startsWith("solid "))
+			name = name.substring(6);
+		return name;
+	}
+}
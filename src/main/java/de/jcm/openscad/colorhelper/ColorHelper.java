@@ -1,36 +1,24 @@
 package de.jcm.openscad.colorhelper;
 
-import de.jcm.math.geo.Triangle3D;
-import de.jcm.math.geo.vector.Vector3D;
-
-import java.awt.Color;
 import java.io.File;
-import java.io.FileWriter;
-import java.io.PrintStream;
+import java.io.IOException;
+import java.net.InetAddress;
 import java.net.URL;
-import java.text.DecimalFormat;
-import java.text.DecimalFormatSymbols;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.Locale;
-import java.util.Scanner;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 
 public class ColorHelper
 {
-	private static HashMap<String, Color> colorMap = new HashMap<>();
-	
-	private static int maxColor = "FINAL".length();
-	
-	public static String color(String color)
-	{
-		StringBuilder c = new StringBuilder("[" + color + "]");
-		while(c.length() - 2 < maxColor)
-			c.append(" ");
-		return c.toString();
-	}
-	
 	public static void printHelp()
 	{
 		System.out.println("java -jar ColorHelper.jar [options] [input-file]");
@@ -41,6 +29,10 @@ public class ColorHelper
 				"--output-dir [dir]\t\t-o [dir]\t\tDirectory to output temporary files to.\t\t\tColorHelper_{input}");
 		System.out.println(
 				"--merge-output [file]\t\t-m [file]\t\tPattern for merged OBJ files.\t\t\t{input}_{group}.obj");
+		System.out.println(
+				"--glb-output [file]\t\t--glb [file]\t\tAlso write each group as binary glTF, e.g. {input}_{group}.glb.");
+		System.out.println(
+				"--3mf-output [file]\t\t--3mf [file]\t\tAlso write each group as 3MF package, e.g. {input}_{group}.3mf.");
 		System.out.println(
 				"--mtl-output [file]\t\t--mtl [file]\t\tFinal output file for MTL file (MaterialLibrary).\t{input}.mtl");
 		System.out.println(
@@ -52,7 +44,33 @@ public class ColorHelper
 		System.out.println("--material-pattern [pattern]\t\t\t\tPattern for material names.\t\t\t\t{color}");
 		System.out.println(
 				"--exe [file]\t\t\t\t\t\tOpenSCAD executable.\t\t\t\t\tC:\\Program Files\\OpenSCAD\\openscad.exe OR C:\\Program Files (x86)\\OpenSCAD\\openscad.exe");
+		System.out.println("--renderer [name]\t\t\t\t\topenscad, stub[:n] to emit n x n cubes instead of rendering, or remote:host:port,... to use workers.\topenscad");
+		System.out.println("--timeout [seconds]\t\t\t\t\tKill OpenSCAD renders that take longer than this.\t0 (none)");
 		System.out.println("--color-map [file]\t\t--colors\t\tFile containing color definitions.\t\t\tcolors.map");
+		System.out.println("--jobs [n]\t\t\t-j [n]\t\t\tNumber of OpenSCAD renders to run in parallel.\t\tnumber of CPU cores");
+		System.out.println("--no-cache\t\t\t\t\t\tAlways run OpenSCAD, even if the SCAD file did not change.");
+		System.out.println("--cache-size [MB]\t\t\t\t\tMaximum size of the render cache.\t\t\t512");
+		System.out.println("--binary-stl\t\t\t\t\t\tLet OpenSCAD export binary instead of ASCII STL files.");
+		System.out.println("--weld-tolerance [distance]\t\t\t\tMerge OBJ vertices closer than this distance.\t\t0 (identical only)");
+		System.out.println("--decimate [ratio]\t\t\t\t\tSimplify meshes down to this fraction of their faces.\t1 (off)");
+		System.out.println("--decimate-error [distance]\t\t\t\tStop simplifying before the surface moves further than this (RMS).\t0 (no limit)");
+		System.out.println("--remove-internal\t\t\t\t\tRemove the hidden faces where parts of different colors touch from the merged OBJ.");
+		System.out.println("--internal-tolerance [distance]\t\t\t\tLargest gap between faces --remove-internal treats as touching.\t0 (identical only)");
+		System.out.println("--precision [digits]\t\t\t\t\tNumber of decimal places in OBJ and MTL files.\t\tshortest exact representation");
+		System.out.println("--stream\t\t\t\t\t\tParse the STL output of OpenSCAD as it arrives, without SCAD and STL files in the output directory.");
+		System.out.println("--keep-intermediate\t\t\t\t\tWrite SCAD and STL files in --stream mode anyway.");
+		System.out.println("--single-precision\t\t\t\t\tKeep ASCII STL meshes as float in memory (binary STL always is).");
+		System.out.println("--off-heap\t\t\t\t\t\tKeep STL meshes outside the Java heap.");
+		System.out.println("--quantize [named|n]\t\t\t\t\tMap rgb() colors to the nearest color map entry, or cluster them down to n colors.");
+		System.out.println("--quantize-tolerance [delta E]\t\t\t\tLargest color change quantization may make.\t\t10");
+		System.out.println("--progressive\t\t\t\t\t\tPublish a low resolution preview first, then replace it at full quality.");
+		System.out.println("--preview-set [key]=[value]\t\t\t\tSet an unquoted property for the preview (multiple allowed).\t$fn=0 $fa=30 $fs=4");
+		System.out.println("--worker [port]\t\t\t\t\t\tServe renders for --renderer remote on this port, with --jobs renders at a time.");
+		System.out.println("--worker-bind [address]\t\t\t\t\tAddress the worker listens on. Anyone who can reach it can render, and read files through include.\t127.0.0.1");
+		System.out.println("--render-all\t\t\t\t\t\tAlso render group/color combinations without a color() block.");
+		System.out.println("--watch\t\t\t\t-w\t\t\tKeep running and convert again whenever the input or color map changes.");
+		System.out.println("--batch [dir]\t\t\t-b [dir]\t\tConvert all SCAD files in a directory, sharing one render pool.");
+		System.out.println("--report [file]\t\t\t\t\tWrite timings per stage, group and color as JSON or CSV (*.csv), {input} allowed.");
 		System.out.println("--set [key]=[value]\t\t-s\t\t\tSet a property (multiple allowed).");
 		System.out.println("--help\t\t\t\t-h\t\t\tPrint this help message and exit.");
 		System.out.println("--version\t\t\t-v\t\t\tPrint version and exit.");
@@ -70,24 +88,59 @@ public class ColorHelper
 		System.out.println("OpenSCAD ColorHelper v1.0 by JCM");
 	}
 	
+	private static void watch(WatchService watcher, File file) throws IOException
+	{
+		file.getAbsoluteFile().getParentFile().toPath()
+				.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+	}
+	
+	private static void waitForChange(WatchService watcher, File... files) throws InterruptedException
+	{
+		List<Path> watched = new ArrayList<>();
+		for(File file : files)
+		{
+			if(file != null)
+				watched.add(file.getAbsoluteFile().toPath().normalize());
+		}
+		
+		while(true)
+		{
+			WatchKey key = watcher.take();
+			boolean changed = false;
+			for(WatchEvent<?> event : key.pollEvents())
+			{
+				if(event.context() instanceof Path)
+				{
+					Path path = ((Path) key.watchable()).resolve((Path) event.context()).normalize();
+					if(watched.contains(path))
+						changed = true;
+				}
+			}
+			key.reset();
+			
+			if(changed)
+			{
+				// editors often save in several steps, so wait for them to settle
+				Thread.sleep(200);
+				while((key = watcher.poll()) != null)
+				{
+					key.pollEvents();
+					key.reset();
+				}
+				return;
+			}
+		}
+	}
+	
 	public static void main(String[] args) throws Exception
 	{
+		Configuration configuration = new Configuration();
 		File input = null;
-		File output = null;
-		File mtlOutput = null;
+		File batch = null;
 		URL colorMapFile = ColorHelper.class.getResource("/colors.map");
-		
-		String outputPatternSCAD = "{number}_{input}_{group}_{color}.scad";
-		String outputPatternSTL = "{number}_{input}_{group}_{color}.stl";
-		String outputPatternOBJ = "{number}_{input}_{group}_{color}.obj";
-		String outputPatternMerge = "{input}_{group}.obj";
-		String materialPattern = "{color}";
-		
-		HashMap<String, String> properties = new HashMap<>();
-		
-		File openSCAD = new File("C:\\Program Files\\OpenSCAD\\openscad.exe");
-		if(!openSCAD.exists())
-			openSCAD = new File("C:\\Program Files (x86)\\OpenSCAD\\openscad.exe");
+		boolean watch = false;
+		int workerPort = -1;
+		String workerBind = null;
 		
 		Iterator<String> iterator = Arrays.asList(args).iterator();
 		while(iterator.hasNext())
@@ -95,40 +148,155 @@ public class ColorHelper
 			String arg = iterator.next();
 			if(arg.equals("--output-dir") || arg.equals("-o"))
 			{
-				output = new File(iterator.next());
+				configuration.setOutput(new File(iterator.next()));
 			}
 			else if(arg.equals("--merge-output") || arg.equals("-m"))
 			{
-				outputPatternMerge = iterator.next();
+				configuration.setMergePattern(iterator.next());
+			}
+			else if(arg.equals("--glb-output") || arg.equals("--glb"))
+			{
+				configuration.setGlbPattern(iterator.next());
+			}
+			else if(arg.equals("--3mf-output") || arg.equals("--3mf"))
+			{
+				configuration.setThreeMFPattern(iterator.next());
 			}
 			else if(arg.equals("--mtl-output") || arg.equals("--mtl"))
 			{
-				mtlOutput = new File(iterator.next());
+				configuration.setMtlOutput(new File(iterator.next()));
 			}
 			else if(arg.equals("--scad-pattern"))
 			{
-				outputPatternSCAD = iterator.next();
+				configuration.setScadPattern(iterator.next());
 			}
 			else if(arg.equals("--stl-pattern"))
 			{
-				outputPatternSTL = iterator.next();
+				configuration.setStlPattern(iterator.next());
 			}
 			else if(arg.equals("--obj-pattern"))
 			{
-				outputPatternOBJ = iterator.next();
+				configuration.setObjPattern(iterator.next());
 			}
 			else if(arg.equals("--material-pattern"))
 			{
-				materialPattern = iterator.next();
+				configuration.setMaterialPattern(iterator.next());
 			}
 			else if(arg.equals("--exe"))
 			{
-				openSCAD = new File(iterator.next());
+				configuration.setOpenSCAD(new File(iterator.next()));
+			}
+			else if(arg.equals("--renderer"))
+			{
+				configuration.setRenderer(iterator.next());
+			}
+			else if(arg.equals("--timeout"))
+			{
+				configuration.setTimeout(Double.parseDouble(iterator.next()));
 			}
 			else if(arg.equals("--color-map") || arg.equals("--colors"))
 			{
 				colorMapFile = new File(iterator.next()).toURI().toURL();
 			}
+			else if(arg.equals("--jobs") || arg.equals("-j"))
+			{
+				configuration.setJobs(Math.max(1, Integer.parseInt(iterator.next())));
+			}
+			else if(arg.equals("--no-cache"))
+			{
+				configuration.setUseCache(false);
+			}
+			else if(arg.equals("--cache-size"))
+			{
+				configuration.setCacheSize(Long.parseLong(iterator.next()));
+			}
+			else if(arg.equals("--binary-stl"))
+			{
+				configuration.setBinarySTL(true);
+			}
+			else if(arg.equals("--weld-tolerance"))
+			{
+				configuration.setWeldTolerance(Double.parseDouble(iterator.next()));
+			}
+			else if(arg.equals("--decimate"))
+			{
+				configuration.setDecimateRatio(Double.parseDouble(iterator.next()));
+			}
+			else if(arg.equals("--decimate-error"))
+			{
+				configuration.setDecimateError(Double.parseDouble(iterator.next()));
+			}
+			else if(arg.equals("--remove-internal"))
+			{
+				configuration.setRemoveInternal(true);
+			}
+			else if(arg.equals("--internal-tolerance"))
+			{
+				configuration.setInternalTolerance(Double.parseDouble(iterator.next()));
+			}
+			else if(arg.equals("--precision"))
+			{
+				configuration.setPrecision(Integer.parseInt(iterator.next()));
+			}
+			else if(arg.equals("--stream"))
+			{
+				configuration.setStreamSTL(true);
+			}
+			else if(arg.equals("--keep-intermediate"))
+			{
+				configuration.setKeepIntermediate(true);
+			}
+			else if(arg.equals("--single-precision"))
+			{
+				configuration.setSinglePrecision(true);
+			}
+			else if(arg.equals("--off-heap"))
+			{
+				configuration.setOffHeap(true);
+			}
+			else if(arg.equals("--quantize"))
+			{
+				configuration.setQuantize(iterator.next());
+			}
+			else if(arg.equals("--quantize-tolerance"))
+			{
+				configuration.setQuantizeTolerance(Double.parseDouble(iterator.next()));
+			}
+			else if(arg.equals("--progressive"))
+			{
+				configuration.setProgressive(true);
+			}
+			else if(arg.equals("--preview-set"))
+			{
+				String prop = iterator.next();
+				int split = prop.indexOf('=');
+
+				configuration.getPreviewProperties().putIfAbsent(prop.substring(0, split), prop.substring(split + 1));
+			}
+			else if(arg.equals("--worker"))
+			{
+				workerPort = Integer.parseInt(iterator.next());
+			}
+			else if(arg.equals("--worker-bind"))
+			{
+				workerBind = iterator.next();
+			}
+			else if(arg.equals("--render-all"))
+			{
+				configuration.setRenderAll(true);
+			}
+			else if(arg.equals("--watch") || arg.equals("-w"))
+			{
+				watch = true;
+			}
+			else if(arg.equals("--batch") || arg.equals("-b"))
+			{
+				batch = new File(iterator.next());
+			}
+			else if(arg.equals("--report"))
+			{
+				configuration.setReportPattern(iterator.next());
+			}
 			else if(arg.equals("--set") || arg.equals("-s"))
 			{
 				String prop = iterator.next();
@@ -137,7 +305,7 @@ public class ColorHelper
 				String key = o[0];
 				String value = o[1];
 				
-				properties.putIfAbsent(key, value);
+				configuration.getProperties().putIfAbsent(key, value);
 			}
 			else if(arg.equals("--help") || arg.equals("-h"))
 			{
@@ -160,557 +328,179 @@ public class ColorHelper
 			}
 		}
 		
-		if(input == null)
+		if(workerPort >= 0)
 		{
-			System.out.println("No input file!");
-			System.exit(2);
+			// MARK: Serve renders for a coordinator
+			// without an explicit address only this machine can send SCAD code to render
+			InetAddress bind = workerBind == null ? InetAddress.getLoopbackAddress()
+					: InetAddress.getByName(workerBind);
+			RenderWorker worker = new RenderWorker(Converter.createRenderer(configuration), bind, workerPort,
+			                                       configuration.getJobs());
+			System.out.println("Waiting for render jobs on " + bind.getHostAddress() + ":" + worker.getPort()
+					                   + "...");
+			worker.run();
+			return;
 		}
 		
-		String inputName = input.getName().substring(0, input.getName().lastIndexOf('.'));
-		
-		if(output == null)
-			output = new File(input.getParentFile(), "ColorHelper_" + inputName);
-		output.mkdirs();
-		
-		if(mtlOutput == null)
-			mtlOutput = new File(output, inputName + ".mtl");
-		
-		materialPattern = materialPattern.replace("{input}", inputName);
-		outputPatternSCAD = outputPatternSCAD.replace("{input}", inputName);
-		outputPatternSTL = outputPatternSTL.replace("{input}", inputName);
-		outputPatternOBJ = outputPatternOBJ.replace("{input}", inputName);
-		outputPatternMerge = outputPatternMerge.replace("{input}", inputName);
-		
-		DecimalFormat df = new DecimalFormat("0", DecimalFormatSymbols.getInstance(Locale.ENGLISH));
-		df.setMaximumFractionDigits(340); // 340 =
-											// DecimalFormat.DOUBLE_FRACTION_DIGITS
-		
-		Scanner scanner = new Scanner(colorMapFile.openStream());
-		
-		// MARK: Read color map
-		while(scanner.hasNextLine())
+		List<File> inputs = new ArrayList<>();
+		if(batch != null)
 		{
-			String line = scanner.nextLine();
-			if(!line.isEmpty() && !line.startsWith("//"))
+			File[] files = batch.listFiles((directory, name) -> name.toLowerCase().endsWith(".scad"));
+			if(files == null || files.length == 0)
 			{
-				String[] parts = line.split("=");
-				String name = parts[0].trim().toLowerCase();
-				String definition = parts[1].trim();
-				
-				if(definition.startsWith("#"))
-				{
-					String hex = definition.substring(1);
-					if(hex.length() == 3)
-					{
-						String part1 = hex.substring(0, 1);
-						part1 += part1;
-						String part2 = hex.substring(1, 2);
-						part2 += part2;
-						String part3 = hex.substring(2, 3);
-						part3 += part3;
-						
-						int r = Integer.parseInt(part1, 16);
-						int g = Integer.parseInt(part2, 16);
-						int b = Integer.parseInt(part3, 16);
-						
-						Color color = new Color(r, g, b);
-						colorMap.putIfAbsent(name, color);
-						
-						System.out.println("Defined color: [" + name + "] = " + color.toString());
-					}
-					if(hex.length() == 6)
-					{
-						String part1 = hex.substring(0, 2);
-						String part2 = hex.substring(2, 4);
-						String part3 = hex.substring(4, 6);
-						
-						int r = Integer.parseInt(part1, 16);
-						int g = Integer.parseInt(part2, 16);
-						int b = Integer.parseInt(part3, 16);
-						
-						Color color = new Color(r, g, b);
-						colorMap.putIfAbsent(name, color);
-						
-						System.out.println("Defined color: [" + name + "] = " + color.toString());
-					}
-				}
-				else if(definition.startsWith("rgb("))
-				{
-					String sub = definition.substring(4, definition.lastIndexOf(')'));
-					String[] partss = sub.split(",");
-					
-					int r = Integer.parseInt(partss[0].trim());
-					int g = Integer.parseInt(partss[1].trim());
-					int b = Integer.parseInt(partss[2].trim());
-					
-					Color color = new Color(r, g, b);
-					colorMap.putIfAbsent(name, color);
-					
-					System.out.println("Defined color: [" + name + "] = " + color.toString());
-				}
-				else
-				{
-					int rgb = Integer.parseInt(definition);
-					Color color = new Color(rgb);
-					colorMap.putIfAbsent(name, color);
-					
-					System.out.println("Defined color: [" + name + "] = " + color.toString());
-				}
+				System.out.println("No SCAD files in " + batch.getAbsolutePath() + "!");
+				System.exit(2);
 			}
+			Arrays.sort(files);
+			inputs.addAll(Arrays.asList(files));
+		}
+		else if(input != null)
+		{
+			inputs.add(input);
+		}
+		else
+		{
+			System.out.println("No input file!");
+			System.exit(2);
 		}
 		
-		scanner.close();
+		File colorMapSource = colorMapFile.getProtocol().equals("file") ? new File(colorMapFile.toURI()) : null;
+		long colorMapModified = colorMapSource == null ? 0 : colorMapSource.lastModified();
 		
-		LinkedList<String> colors = new LinkedList<>();
-		LinkedList<Group> groups = new LinkedList<>();
-		LinkedList<String> allLines = new LinkedList<>();
+		Converter converter;
+		try
+		{
+			converter = new Converter(configuration, ColorMap.read(colorMapFile));
+		}
+		catch(IllegalArgumentException e)
+		{
+			System.out.println(e.getMessage());
+			System.exit(2);
+			return;
+		}
 		
-		// MARK: Search for colors, extern variables and groups
-		scanner = new Scanner(input);
-		int lineNumber = 0;
-		while(scanner.hasNextLine())
+		WatchService watcher = null;
+		if(watch)
 		{
-			String line = scanner.nextLine();
-			if(line.toLowerCase().startsWith("/*start_group(\""))
-			{
-				int start = line.indexOf('"') + 1;
-				int end = line.indexOf('"', start);
-				String name = line.substring(start, end).toLowerCase();
-				
-				groups.add(new Group(name, lineNumber, -1));
-				
-				System.out.println("Found new group: [" + name + "]");
-				if(name.length() > maxColor)
-					maxColor = name.length();
-			}
-			else if(line.toLowerCase().startsWith("/*end_group(\""))
+			watcher = FileSystems.getDefault().newWatchService();
+			for(File file : inputs)
+				watch(watcher, file);
+			if(colorMapSource != null)
+				watch(watcher, colorMapSource);
+		}
+		
+		int failed = 0;
+		// the files the inputs include or use, as found by the last conversion
+		Set<File> dependencies = new LinkedHashSet<>();
+		while(true)
+		{
+			try
 			{
-				int start = line.indexOf('"') + 1;
-				int end = line.indexOf('"', start);
-				String name = line.substring(start, end).toLowerCase();
-				
-				for(Group group : groups)
+				// MARK: Read color map
+				long modified = colorMapSource == null ? 0 : colorMapSource.lastModified();
+				if(modified != colorMapModified)
 				{
-					if(group.getName().equals(name))
-						group.setLineEnd(lineNumber);
+					converter.setColorMap(ColorMap.read(colorMapFile));
+					colorMapModified = modified;
 				}
+				
+				dependencies.clear();
+				failed = convert(converter, inputs, dependencies);
 			}
-			if(line.toLowerCase().startsWith("/*extern*/"))
+			catch(Exception e)
 			{
-				String def = line.substring(10);
-				String[] parts = def.split("=");
-				
-				String key = parts[0].trim();
-				
-				if(properties.containsKey(key))
-				{
-					String value = properties.get(key);
-					
-					allLines.add("/* prop */" + key + " = \"" + value + "\";");
-					System.out.println("Set value for property " + key + " to " + value);
-				}
-				else
-				{
-					allLines.add(line);
-					System.out.println("Ignored property " + key);
-				}
+				if(!watch)
+					throw e;
+				System.out.println("Could not convert " + (batch != null ? batch : input).getAbsolutePath() + ": "
+						                   + e);
 			}
-			else
+			
+			if(!watch)
+				break;
+			
+			System.out.println("Waiting for changes to " + (batch != null ? batch : input).getAbsolutePath() + "...");
+			List<File> watched = new ArrayList<>(inputs);
+			watched.add(colorMapSource);
+			for(File file : dependencies)
 			{
-				allLines.add(line);
-				if(line.trim().startsWith("color(\""))
-				{
-					int start = line.indexOf('"') + 1;
-					int end = line.indexOf('"', start);
-					String color = line.substring(start, end).toLowerCase();
-					if(!colors.contains(color))
-					{
-						colors.add(color);
-						System.out.println("Found new color: [" + color + "]");
-						if(color.length() > maxColor)
-							maxColor = color.length();
-					}
-				}
-				else if(line.trim().startsWith("color([") || line.trim().startsWith("color( ["))
-				{
-					int start = line.indexOf('[') + 1;
-					int end = line.indexOf(']', start);
-					String c = line.substring(start, end);
-					
-					String[] parts = c.split(",");
-					
-					double r = Double.parseDouble(parts[0].trim());
-					double g = Double.parseDouble(parts[1].trim());
-					double b = Double.parseDouble(parts[2].trim());
-					
-					String color = "rgb(" + r + "," + g + "," + b + ")";
-					if(!colors.contains(color))
-					{
-						colors.add(color);
-						System.out.println("Found new color: [" + color + "]");
-						if(color.length() > maxColor)
-							maxColor = color.length();
-					}
-				}
+				// libraries may be anywhere, so their directories are watched as well
+				watch(watcher, file);
+				watched.add(file);
 			}
-			lineNumber++;
+			waitForChange(watcher, watched.toArray(new File[0]));
 		}
-		scanner.close();
-		
-		groups.addFirst(new Group("main", 0, lineNumber - 1));
+		converter.close();
 		
-		// MARK: Build group map
-		int[] groupMap = new int[lineNumber];
-		for(int i = 0; i < groups.size(); i++)
+		if(batch != null)
 		{
-			Group group = groups.get(i);
-			Arrays.fill(groupMap, group.getLineStart(), group.getLineEnd() + 1, i);
+			System.out.println("Converted " + (inputs.size() - failed) + " of " + inputs.size() + " files.");
+			if(failed > 0)
+				System.exit(1);
 		}
 		
-		PrintStream mtl = new PrintStream(mtlOutput);
-
-		for(Group activeGroup : groups)
+		System.out.println("Cave Johnson, we're done here.");
+	}
+	
+	/**
+	 * Converts the inputs in order. The next input is already planned and queued while the renders of the
+	 * current one are collected, so the render pool does not run dry between inputs.
+	 *
+	 * @param dependencies receives the files the inputs include or use
+	 * @return number of inputs that could not be converted completely
+	 */
+	private static int convert(Converter converter, List<File> inputs, Set<File> dependencies) throws Exception
+	{
+		int failed = 0;
+		ConversionPlan[] plans = new ConversionPlan[inputs.size()];
+		for(int i = 0; i < inputs.size(); i++)
 		{
-			LinkedList<String> lines = new LinkedList<>();
-
-			for(int i = 0; i < allLines.size(); i++)
+			if(i == 0)
+				plans[0] = submit(converter, inputs, 0);
+			if(i + 1 < inputs.size())
+				plans[i + 1] = submit(converter, inputs, i + 1);
+			
+			if(plans[i] == null)
 			{
-				String line = allLines.get(i);
-				if(line.trim().startsWith("color(\""))
-				{
-					Group group = groups.get(groupMap[i]);
-					if(group == activeGroup)
-						lines.add(allLines.get(i));
-					else
-					{
-						int open = 0;
-						while(true)
-						{
-							lines.add("//" + line);
-							if(line.contains("{"))
-								open++;
-							if(line.contains("}"))
-								open--;
-							if(line.contains(";") && open <= 0)
-								break;
-
-							i++;
-							line = allLines.get(i);
-						}
-					}
-				}
-				else
-				{
-					lines.add(line);
-				}
-			}
-			HashMap<String, LinkedList<Triangle3D>> allTriangles = new HashMap<>();
-
-			for(int i = 0; i < colors.size(); i++)
-			{
-				String activeColor = colors.get(i);
-				File scad = new File(output,
-				                     outputPatternSCAD.replace("{number}", Integer.toString(i))
-						                     .replace("{color}", activeColor)
-						                     .replace("{group}", activeGroup.getName()));
-				File stl = new File(output,
-				                    outputPatternSTL.replace("{number}", Integer.toString(i))
-						                    .replace("{color}", activeColor).replace("{group}", activeGroup.getName()));
-				File obj = new File(output,
-				                    outputPatternOBJ.replace("{number}", Integer.toString(i))
-						                    .replace("{color}", activeColor).replace("{group}", activeGroup.getName()));
-
-				System.out.println(color(activeGroup.getName()) + " " + color(activeColor)
-						                   + " Generating SCAD file... => " + scad.getAbsolutePath());
-
-				FileWriter writer = new FileWriter(scad);
-				for(int j = 0; j < lines.size(); j++)
-				{
-					String line = lines.get(j);
-					if(line.trim().startsWith("color(\""))
-					{
-						int start = line.indexOf('"') + 1;
-						int end = line.indexOf('"', start);
-						String color = line.substring(start, end).toLowerCase();
-						if(color.equals(activeColor))
-							writer.write(line + "\n");
-						else
-						{
-							int open = 0;
-							while(true)
-							{
-								writer.write("//" + line + "\n");
-								if(line.contains("{"))
-									open++;
-								if(line.contains("}"))
-									open--;
-								if(line.contains(";") && open <= 0)
-									break;
-
-								j++;
-								line = lines.get(j);
-							}
-						}
-					}
-					else if(line.trim().startsWith("color([") || line.trim().startsWith("color( ["))
-					{
-						int start = line.indexOf('[') + 1;
-						int end = line.indexOf(']', start);
-						String c = line.substring(start, end);
-
-						String[] parts = c.split(",");
-
-						double r = Double.parseDouble(parts[0].trim());
-						double g = Double.parseDouble(parts[1].trim());
-						double b = Double.parseDouble(parts[2].trim());
-
-						String color = "rgb(" + r + "," + g + "," + b + ")";
-						if(color.equals(activeColor))
-							writer.write(line + "\n");
-						else
-						{
-							int open = 0;
-							do
-							{
-								writer.write("//" + line + "\n");
-								j++;
-								line = lines.get(j);
-
-								if(line.contains("{"))
-									open++;
-								if(line.contains("}"))
-									open--;
-							}
-							while(!line.contains(";") || open != 0);
-						}
-					}
-					else
-						writer.write(line + "\n");
-				}
-				writer.close();
-
-				System.out.println(color(activeGroup.getName()) + " " + color(activeColor)
-						                   + " Generating STL  file... => " + stl.getAbsolutePath());
-				Process proc = Runtime.getRuntime().exec("\"" + openSCAD.getAbsolutePath() + "\" -o\""
-						                                         + stl.getAbsolutePath() + "\" \"" + scad
-						.getAbsolutePath() + "\"");
-				int exit = proc.waitFor();
-				String material = materialPattern.replace("{number}", Integer.toString(i))
-						.replace("{color}", activeColor);
-				if(exit == 0)
-				{
-					System.out.println(color(activeGroup.getName()) + " " + color(activeColor)
-							                   + " Generating OBJ  file... => " + obj.getAbsolutePath());
-
-					Scanner scan = new Scanner(stl);
-
-					LinkedList<Triangle3D> triangles = new LinkedList<>();
-					String solidName = "";
-					while(scan.hasNextLine())
-					{
-						String line = scan.nextLine();
-						if(line.startsWith("solid "))
-						{
-							solidName = line.substring(6);
-						}
-						else if(line.startsWith("  facet normal "))
-						{
-							String n = line.substring(15);
-							String[] coords = n.split(" ");
-
-							double x = Double.parseDouble(coords[0]);
-							double y = Double.parseDouble(coords[1]);
-							double z = Double.parseDouble(coords[2]);
-
-							Vector3D normal = new Vector3D(x, y, z);
-
-							line = scan.nextLine();
-							if(line.equals("    outer loop"))
-							{
-								String[] vertices = new String[3];
-								vertices[0] = scan.nextLine();
-								vertices[1] = scan.nextLine();
-								vertices[2] = scan.nextLine();
-
-								Vector3D[] points = new Vector3D[3];
-
-								for(int j = 0; j < 3; j++)
-								{
-									String string = vertices[j];
-									if(string.startsWith("      vertex "))
-									{
-										String v = string.substring(13);
-										coords = v.split(" ");
-
-										x = Double.parseDouble(coords[0]);
-										y = Double.parseDouble(coords[1]);
-										z = Double.parseDouble(coords[2]);
-
-										points[j] = new Vector3D(x, y, z);
-									}
-								}
-								triangles.add(new Triangle3D(points[0], points[1], points[2], normal));
-							}
-						}
-					}
-					scan.close();
-
-					allTriangles.put(activeColor, triangles);
-
-					PrintStream print = new PrintStream(obj);
-
-					print.println("mtllib " + mtlOutput.getAbsolutePath());
-					print.println("usemtl "
-							              + material.replace("{group}", activeGroup.getName()));
-
-					print.println("o " + solidName);
-
-					for(Triangle3D triangle : triangles)
-					{
-						for(int j = 0; j < 3; j++)
-						{
-							double x = triangle.getVertex(j).getX();
-							double y = triangle.getVertex(j).getY();
-							double z = triangle.getVertex(j).getZ();
-
-							print.println("v " + df.format(x) + " " + df.format(y) + " " + df.format(z));
-						}
-					}
-					for(Triangle3D triangle : triangles)
-					{
-						double x = triangle.getNormal().getX();
-						double y = triangle.getNormal().getY();
-						double z = triangle.getNormal().getZ();
-
-						print.println("vn " + df.format(x) + " " + df.format(y) + " " + df.format(z));
-					}
-					for(int j = 0; j < triangles.size(); j++)
-					{
-						int base = (j * 3) + 1;
-
-						print.println("f " + base + "//" + (j + 1) + " " + (base + 1) + "//" + (j + 1) + " "
-								              + (base + 2) + "//" + (j + 1));
-					}
-
-					print.close();
-
-					System.out.println(color(activeGroup.getName()) + " " + color(activeColor)
-							                   + " Generating MTL entry... => " + mtlOutput.getAbsolutePath());
-
-					if(activeColor.startsWith("rgb("))
-					{
-						String sub = activeColor.substring(4, activeColor.lastIndexOf(')'));
-						String[] parts = sub.split(",");
-
-						double r = Double.parseDouble(parts[0]);
-						double g = Double.parseDouble(parts[1]);
-						double b = Double.parseDouble(parts[2]);
-
-						mtl.println("newmtl " + material);
-						mtl.println("Kd " + r + " " + g + " " + b);
-					}
-					else
-					{
-						Color color = colorMap.get(activeColor);
-
-						double r = color.getRed();
-						double g = color.getGreen();
-						double b = color.getBlue();
-
-						r /= 255;
-						g /= 255;
-						b /= 255;
-
-						mtl.println("newmtl " + material);
-						mtl.println("Kd " + df.format(r) + " " + df.format(g) + " " + df.format(b));
-					}
-				}
-				else
-				{
-					System.out.println(color(activeGroup.getName()) + " " + color(activeColor)
-							                   + " OpenSCAD returned exit code " + exit);
-
-					System.out.println(color(activeGroup.getName()) + " " + color(activeColor)
-							                   + " Creating   STL  file... => " + stl.getAbsolutePath());
-					PrintStream print = new PrintStream(stl);
-
-					print.println("solid " + "empty");
-					print.println("endsolid " + "empty");
-
-					print.close();
-
-					System.out.println(color(activeGroup.getName()) + " " + color(activeColor)
-							                   + " Creating   OBJ  file... => " + obj.getAbsolutePath());
-					print = new PrintStream(obj);
-					print.println("mtllib " + mtlOutput.getAbsolutePath());
-					print.println("usemtl "
-							              + material.replace("{group}", activeGroup.getName()));
-
-					print.println("o " + "empty");
-					print.close();
-
-					allTriangles.put(activeColor, new LinkedList<>());
-				}
+				failed++;
+				continue;
 			}
-
-			File mergeOBJ = new File(output,
-			                         outputPatternMerge.replace("{group}", activeGroup.getName()));
-			System.out.println(color(activeGroup
-					                         .getName()) + " " + color("FINAL") + " Merging OBJ models... => " + mergeOBJ
-					.getAbsolutePath());
-			PrintStream print = new PrintStream(mergeOBJ);
-
-			print.println("mtllib " + mtlOutput.getAbsolutePath());
-
-			for(String activeColor : colors)
+			dependencies.addAll(plans[i].getSource().getFiles());
+			try
 			{
-				LinkedList<Triangle3D> triangles = allTriangles.get(activeColor);
-				for(Triangle3D triangle : triangles)
-				{
-					for(int j = 0; j < 3; j++)
-					{
-						double x = triangle.getVertex(j).getX();
-						double y = triangle.getVertex(j).getY();
-						double z = triangle.getVertex(j).getZ();
-
-						print.println("v " + df.format(x) + " " + df.format(y) + " " + df.format(z));
-					}
-				}
-				for(Triangle3D triangle : triangles)
-				{
-					double x = triangle.getNormal().getX();
-					double y = triangle.getNormal().getY();
-					double z = triangle.getNormal().getZ();
-
-					print.println("vn " + df.format(x) + " " + df.format(y) + " " + df.format(z));
-				}
+				ConversionResult result = converter.collect(plans[i]);
+				if(result.getFailures() > 0)
+					failed++;
 			}
-
-			int vertex = 1;
-			int normal = 1;
-
-			for(int i = 0; i < colors.size(); i++)
+			catch(Exception e)
 			{
-				String activeColor = colors.get(i);
-
-				print.println("usemtl "
-						              + materialPattern.replace("{number}", Integer.toString(i))
-						.replace("{color}", activeColor));
-
-				LinkedList<Triangle3D> triangles = allTriangles.get(activeColor);
-				for(int j = 0; j < triangles.size(); j++)
-				{
-					print.println("f " + (vertex) + "//" + (normal) + " " + (vertex + 1) + "//" + (normal) + " "
-							              + (vertex + 2) + "//" + (normal));
-					vertex += 3;
-					normal += 1;
-				}
+				if(inputs.size() == 1)
+					throw e;
+				System.out.println("Could not convert " + inputs.get(i).getAbsolutePath() + ": " + e);
+				failed++;
 			}
-			print.close();
+			plans[i] = null;
+		}
+		return failed;
+	}
+	
+	private static ConversionPlan submit(Converter converter, List<File> inputs, int index) throws Exception
+	{
+		File input = inputs.get(index);
+		try
+		{
+			if(inputs.size() > 1)
+				System.out.println("Converting " + input.getAbsolutePath() + "...");
+			ConversionPlan plan = converter.plan(input);
+			converter.submit(plan);
+			return plan;
+		}
+		catch(Exception e)
+		{
+			if(inputs.size() == 1)
+				throw e;
+			System.out.println("Could not convert " + input.getAbsolutePath() + ": " + e);
+			return null;
 		}
-		mtl.close();
-		
-		System.out.println("Cave Johnson, we're done here.");
 	}
 	
 }
@@ -0,0 +1,126 @@
+package de.jcm.openscad.colorhelper;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Scanner;
+import java.util.Set;
+
+/**
+ * Color names and their RGB values, as read from a color map file. The first definition of a name wins.
+ */
+public class ColorMap
+{
+	private HashMap<String, Color> colors = new HashMap<>();
+
+	public static ColorMap read(URL colorMapFile) throws IOException
+	{
+		ColorMap colorMap = new ColorMap();
+
+		Scanner scanner = new Scanner(colorMapFile.openStream());
+		while(scanner.hasNextLine())
+		{
+			String line = scanner.nextLine();
+			if(!line.isEmpty() && !line.startsWith("//"))
+			{
+				String[] parts = line.split("=");
+				String name = parts[0].trim().toLowerCase();
+				String definition = parts[1].trim();
+				
+				if(definition.startsWith("#"))
+				{
+					String hex = definition.substring(1);
+					if(hex.length() == 3)
+					{
+						String part1 = hex.substring(0, 1);
+						part1 += part1;
+						String part2 = hex.substring(1, 2);
+						part2 += part2;
+						String part3 = hex.substring(2, 3);
+						part3 += part3;
+						
+						int r = Integer.parseInt(part1, 16);
+						int g = Integer.parseInt(part2, 16);
+						int b = Integer.parseInt(part3, 16);
+						
+						colorMap.define(name, new Color(r, g, b));
+					}
+					if(hex.length() == 6)
+					{
+						String part1 = hex.substring(0, 2);
+						String part2 = hex.substring(2, 4);
+						String part3 = hex.substring(4, 6);
+						
+						int r = Integer.parseInt(part1, 16);
+						int g = Integer.parseInt(part2, 16);
+						int b = Integer.parseInt(part3, 16);
+						
+						colorMap.define(name, new Color(r, g, b));
+					}
+				}
+				else if(definition.startsWith("rgb("))
+				{
+					String sub = definition.substring(4, definition.lastIndexOf(')'));
+					String[] partss = sub.split(",");
+					
+					int r = Integer.parseInt(partss[0].trim());
+					int g = Integer.parseInt(partss[1].trim());
+					int b = Integer.parseInt(partss[2].trim());
+					
+					colorMap.define(name, new Color(r, g, b));
+				}
+				else
+				{
+					int rgb = Integer.parseInt(definition);
+					colorMap.define(name, new Color(rgb));
+				}
+			}
+		}
+		scanner.close();
+
+		return colorMap;
+	}
+
+	public void define(String name, Color color)
+	{
+		colors.putIfAbsent(name, color);
+		System.out.println("Defined color: [" + name + "] = " + color.toString());
+	}
+
+	/**
+	 * @return the components of a "rgb(r,g,b)" color name, from 0 to 1
+	 */
+	public static double[] parseRGB(String color)
+	{
+		String sub = color.substring(4, color.lastIndexOf(')'));
+		String[] parts = sub.split(",");
+
+		return new double[]{Double.parseDouble(parts[0]), Double.parseDouble(parts[1]),
+				Double.parseDouble(parts[2])};
+	}
+
+	public Set<String> getNames()
+	{
+		return colors.keySet();
+	}
+
+	public Color get(String name)
+	{
+		return colors.get(name);
+	}
+
+	/**
+	 * @return the sRGB components of a color name or "rgb(r,g,b)" value, from 0 to 1
+	 */
+	public double[] rgb(String color)
+	{
+		if(color.startsWith("rgb("))
+			return parseRGB(color);
+
+		Color c = colors.get(color);
+		if(c == null)
+			throw new IllegalArgumentException("Color [" + color + "] is not defined in the color map");
+		return new double[]{c.getRed() / 255.0, c.getGreen() / 255.0, c.getBlue() / 255.0};
+	}
+}
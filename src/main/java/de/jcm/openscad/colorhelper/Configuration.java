@@ -0,0 +1,438 @@
+package de.jcm.openscad.colorhelper;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * All options of a conversion. Patterns may use the variables listed by {@link ColorHelper#printHelp()}.
+ */
+public class Configuration
+{
+	private File output;
+	private File mtlOutput;
+	private String scadPattern = "{number}_{input}_{group}_{color}.scad";
+	private String stlPattern = "{number}_{input}_{group}_{color}.stl";
+	private String objPattern = "{number}_{input}_{group}_{color}.obj";
+	private String mergePattern = "{input}_{group}.obj";
+	private String materialPattern = "{color}";
+	private String glbPattern;
+	private String threeMFPattern;
+	private String reportPattern;
+	private Map<String, String> properties = new HashMap<>();
+	private Map<String, String> previewProperties = new LinkedHashMap<>();
+	private boolean progressive = false;
+	private File openSCAD = defaultOpenSCAD();
+	private String renderer = "openscad";
+	private double timeout = 0;
+	private int jobs = Runtime.getRuntime().availableProcessors();
+	private boolean useCache = true;
+	private long cacheSize = 512;
+	private boolean binarySTL = false;
+	private double weldTolerance = 0;
+	private double decimateRatio = 1;
+	private double decimateError = 0;
+	private boolean removeInternal = false;
+	private double internalTolerance = 0;
+	private int precision = OBJWriter.SHORTEST;
+	private boolean renderAll = false;
+	private boolean streamSTL = false;
+	private boolean keepIntermediate = false;
+	private boolean singlePrecision = false;
+	private boolean offHeap = false;
+	private String quantize;
+	private double quantizeTolerance = 10;
+
+	private static File defaultOpenSCAD()
+	{
+		File openSCAD = new File("C:\\Program Files\\OpenSCAD\\openscad.exe");
+		if(!openSCAD.exists())
+			openSCAD = new File("C:\\Program Files (x86)\\OpenSCAD\\openscad.exe");
+		return openSCAD;
+	}
+
+	/**
+	 * @return directory for the per-color files, or null for ColorHelper_{input} next to the input
+	 */
+	public File getOutput()
+	{
+		return output;
+	}
+
+	public void setOutput(File output)
+	{
+		this.output = output;
+	}
+
+	/**
+	 * @return MTL file, or null for {input}.mtl in the output directory
+	 */
+	public File getMtlOutput()
+	{
+		return mtlOutput;
+	}
+
+	public void setMtlOutput(File mtlOutput)
+	{
+		this.mtlOutput = mtlOutput;
+	}
+
+	public String getScadPattern()
+	{
+		return scadPattern;
+	}
+
+	public void setScadPattern(String scadPattern)
+	{
+		this.scadPattern = scadPattern;
+	}
+
+	public String getStlPattern()
+	{
+		return stlPattern;
+	}
+
+	public void setStlPattern(String stlPattern)
+	{
+		this.stlPattern = stlPattern;
+	}
+
+	public String getObjPattern()
+	{
+		return objPattern;
+	}
+
+	public void setObjPattern(String objPattern)
+	{
+		this.objPattern = objPattern;
+	}
+
+	public String getMergePattern()
+	{
+		return mergePattern;
+	}
+
+	public void setMergePattern(String mergePattern)
+	{
+		this.mergePattern = mergePattern;
+	}
+
+	public String getMaterialPattern()
+	{
+		return materialPattern;
+	}
+
+	public void setMaterialPattern(String materialPattern)
+	{
+		this.materialPattern = materialPattern;
+	}
+
+	/**
+	 * @return pattern for GLB files, or null to write none
+	 */
+	public String getGlbPattern()
+	{
+		return glbPattern;
+	}
+
+	public void setGlbPattern(String glbPattern)
+	{
+		this.glbPattern = glbPattern;
+	}
+
+	/**
+	 * @return pattern for 3MF files, or null to write none
+	 */
+	public String getThreeMFPattern()
+	{
+		return threeMFPattern;
+	}
+
+	public void setThreeMFPattern(String threeMFPattern)
+	{
+		this.threeMFPattern = threeMFPattern;
+	}
+
+	/**
+	 * @return pattern for run reports, or null to write none
+	 */
+	public String getReportPattern()
+	{
+		return reportPattern;
+	}
+
+	public void setReportPattern(String reportPattern)
+	{
+		this.reportPattern = reportPattern;
+	}
+
+	public Map<String, String> getProperties()
+	{
+		return properties;
+	}
+
+	public void setProperties(Map<String, String> properties)
+	{
+		this.properties = properties;
+	}
+
+	/**
+	 * @return values for the preview pass, written into the SCAD code unquoted, or empty for coarse $fn, $fa and $fs
+	 */
+	public Map<String, String> getPreviewProperties()
+	{
+		return previewProperties;
+	}
+
+	public void setPreviewProperties(Map<String, String> previewProperties)
+	{
+		this.previewProperties = previewProperties;
+	}
+
+	/**
+	 * @return whether to publish low resolution outputs first and replace them with full quality ones
+	 */
+	public boolean isProgressive()
+	{
+		return progressive;
+	}
+
+	public void setProgressive(boolean progressive)
+	{
+		this.progressive = progressive;
+	}
+
+	public File getOpenSCAD()
+	{
+		return openSCAD;
+	}
+
+	public void setOpenSCAD(File openSCAD)
+	{
+		this.openSCAD = openSCAD;
+	}
+
+	public String getRenderer()
+	{
+		return renderer;
+	}
+
+	public void setRenderer(String renderer)
+	{
+		this.renderer = renderer;
+	}
+
+	/**
+	 * @return render timeout in seconds, 0 for none
+	 */
+	public double getTimeout()
+	{
+		return timeout;
+	}
+
+	public void setTimeout(double timeout)
+	{
+		this.timeout = timeout;
+	}
+
+	public int getJobs()
+	{
+		return jobs;
+	}
+
+	public void setJobs(int jobs)
+	{
+		this.jobs = jobs;
+	}
+
+	public boolean isUseCache()
+	{
+		return useCache;
+	}
+
+	public void setUseCache(boolean useCache)
+	{
+		this.useCache = useCache;
+	}
+
+	/**
+	 * @return maximum render cache size in MB
+	 */
+	public long getCacheSize()
+	{
+		return cacheSize;
+	}
+
+	public void setCacheSize(long cacheSize)
+	{
+		this.cacheSize = cacheSize;
+	}
+
+	public boolean isBinarySTL()
+	{
+		return binarySTL;
+	}
+
+	public void setBinarySTL(boolean binarySTL)
+	{
+		this.binarySTL = binarySTL;
+	}
+
+	public double getWeldTolerance()
+	{
+		return weldTolerance;
+	}
+
+	public void setWeldTolerance(double weldTolerance)
+	{
+		this.weldTolerance = weldTolerance;
+	}
+
+	/**
+	 * @return fraction of faces decimation keeps, 1 to not decimate (unless an error limit is set)
+	 */
+	public double getDecimateRatio()
+	{
+		return decimateRatio;
+	}
+
+	public void setDecimateRatio(double decimateRatio)
+	{
+		this.decimateRatio = decimateRatio;
+	}
+
+	/**
+	 * @return largest distance decimation may move the surface, 0 for no limit
+	 */
+	public double getDecimateError()
+	{
+		return decimateError;
+	}
+
+	public void setDecimateError(double decimateError)
+	{
+		this.decimateError = decimateError;
+	}
+
+	public boolean isDecimate()
+	{
+		return decimateRatio < 1 || decimateError > 0;
+	}
+
+	/**
+	 * @return whether coincident faces where parts of different colors touch are removed from the outputs
+	 */
+	public boolean isRemoveInternal()
+	{
+		return removeInternal;
+	}
+
+	public void setRemoveInternal(boolean removeInternal)
+	{
+		this.removeInternal = removeInternal;
+	}
+
+	/**
+	 * @return largest distance between corners of faces that count as coincident, 0 for identical only
+	 */
+	public double getInternalTolerance()
+	{
+		return internalTolerance;
+	}
+
+	public void setInternalTolerance(double internalTolerance)
+	{
+		this.internalTolerance = internalTolerance;
+	}
+
+	public int getPrecision()
+	{
+		return precision;
+	}
+
+	public void setPrecision(int precision)
+	{
+		this.precision = precision;
+	}
+
+	public boolean isRenderAll()
+	{
+		return renderAll;
+	}
+
+	public void setRenderAll(boolean renderAll)
+	{
+		this.renderAll = renderAll;
+	}
+
+	public boolean isStreamSTL()
+	{
+		return streamSTL;
+	}
+
+	public void setStreamSTL(boolean streamSTL)
+	{
+		this.streamSTL = streamSTL;
+	}
+
+	public boolean isKeepIntermediate()
+	{
+		return keepIntermediate;
+	}
+
+	public void setKeepIntermediate(boolean keepIntermediate)
+	{
+		this.keepIntermediate = keepIntermediate;
+	}
+
+	/**
+	 * @return whether meshes read from ASCII STL are stored as float instead of double
+	 */
+	public boolean isSinglePrecision()
+	{
+		return singlePrecision;
+	}
+
+	public void setSinglePrecision(boolean singlePrecision)
+	{
+		this.singlePrecision = singlePrecision;
+	}
+
+	public boolean isOffHeap()
+	{
+		return offHeap;
+	}
+
+	public void setOffHeap(boolean offHeap)
+	{
+		this.offHeap = offHeap;
+	}
+
+	/**
+	 * @return "named" to snap rgb() colors to the color map, a number to cluster them down to that many colors,
+	 * or null to keep them as they are
+	 */
+	public String getQuantize()
+	{
+		return quantize;
+	}
+
+	public void setQuantize(String quantize)
+	{
+		this.quantize = quantize;
+	}
+
+	/**
+	 * @return largest CIELAB delta E by which quantization may change a color
+	 */
+	public double getQuantizeTolerance()
+	{
+		return quantizeTolerance;
+	}
+
+	public void setQuantizeTolerance(double quantizeTolerance)
+	{
+		this.quantizeTolerance = quantizeTolerance;
+	}
+}
@@ -0,0 +1,227 @@
+package de.jcm.openscad.colorhelper;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.Future;
+
+/**
+ * What a conversion of one input will do: its output files and, for every group/color combination, the render
+ * job and whether it has to run at all. Created by {@link Converter#plan(File)}.
+ */
+public class ConversionPlan
+{
+	public enum Action
+	{
+		/** run OpenSCAD for this combination */
+		RENDER,
+		/** the SCAD code did not change since the last conversion in this JVM, keep its result */
+		KEEP,
+		/** no color() block ends up in this combination, write empty files without running OpenSCAD */
+		SKIP
+	}
+
+	private File input;
+	private String name;
+	private File output;
+	private File mtlOutput;
+	private SCADSource source;
+	private RunReport report;
+	private boolean preview;
+	private int width;
+
+	// low resolution pass to collect before this one, or null
+	private ConversionPlan previewPlan;
+
+	private Entry[][] entries;
+
+	ConversionPlan(File input, String name, File output, File mtlOutput, SCADSource source, RunReport report,
+	               boolean preview)
+	{
+		this.input = input;
+		this.name = name;
+		this.output = output;
+		this.mtlOutput = mtlOutput;
+		this.source = source;
+		this.report = report;
+		this.preview = preview;
+
+		width = "FINAL".length();
+		for(Group group : source.getGroups())
+			width = Math.max(width, group.getName().length());
+		for(String color : source.getColors())
+			width = Math.max(width, color.length());
+
+		entries = new Entry[source.getGroups().size()][source.getColors().size()];
+	}
+
+	public File getInput()
+	{
+		return input;
+	}
+
+	/**
+	 * @return file name of the input without extension, the {input} variable of all patterns
+	 */
+	public String getName()
+	{
+		return name;
+	}
+
+	public File getOutput()
+	{
+		return output;
+	}
+
+	public File getMtlOutput()
+	{
+		return mtlOutput;
+	}
+
+	public SCADSource getSource()
+	{
+		return source;
+	}
+
+	public List<Group> getGroups()
+	{
+		return source.getGroups();
+	}
+
+	public List<String> getColors()
+	{
+		return source.getColors();
+	}
+
+	public RunReport getReport()
+	{
+		return report;
+	}
+
+	/**
+	 * @return whether this is the low resolution pass of a progressive conversion
+	 */
+	public boolean isPreview()
+	{
+		return preview;
+	}
+
+	public ConversionPlan getPreview()
+	{
+		return previewPlan;
+	}
+
+	void setPreview(ConversionPlan previewPlan)
+	{
+		this.previewPlan = previewPlan;
+	}
+
+	/**
+	 * @return whether any combination has to be rendered
+	 */
+	public boolean needsRender()
+	{
+		for(Entry[] group : entries)
+		{
+			for(Entry entry : group)
+			{
+				if(entry.getAction() == Action.RENDER)
+					return true;
+			}
+		}
+		return false;
+	}
+
+	public Entry get(int group, int color)
+	{
+		return entries[group][color];
+	}
+
+	void set(int group, int color, Entry entry)
+	{
+		entries[group][color] = entry;
+	}
+
+	/**
+	 * Pads a group or color name, so the progress lines of this input line up.
+	 */
+	public String label(String name)
+	{
+		StringBuilder c = new StringBuilder("[" + name + "]");
+		while(c.length() - 2 < width)
+			c.append(" ");
+		return c.toString();
+	}
+
+	/**
+	 * @return the start of every progress line about this group and color (or "FINAL")
+	 */
+	public String prefix(String group, String color)
+	{
+		return label(group) + " " + label(color) + (preview ? " (preview)" : "");
+	}
+
+	public static class Entry
+	{
+		private Action action;
+		private String material;
+		private File scad;
+		private File obj;
+		private byte[] digest;
+		private RenderJob job;
+
+		private Future<RenderResult> future;
+
+		Entry(Action action, String material, File scad, File obj, byte[] digest, RenderJob job)
+		{
+			this.action = action;
+			this.material = material;
+			this.scad = scad;
+			this.obj = obj;
+			this.digest = digest;
+			this.job = job;
+		}
+
+		public Action getAction()
+		{
+			return action;
+		}
+
+		public String getMaterial()
+		{
+			return material;
+		}
+
+		public File getScad()
+		{
+			return scad;
+		}
+
+		public File getObj()
+		{
+			return obj;
+		}
+
+		/**
+		 * @return hash of the SCAD code that is rendered, null for skipped combinations
+		 */
+		public byte[] getDigest()
+		{
+			return digest;
+		}
+
+		public RenderJob getJob()
+		{
+			return job;
+		}
+
+		Future<RenderResult> getFuture()
+		{
+			return future;
+		}
+
+		void setFuture(Future<RenderResult> future)
+		{
+			this.future = future;
+		}
+	}
+}
@@ -0,0 +1,79 @@
+package de.jcm.openscad.colorhelper;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The outcome of converting one input: the render result of every group/color combination and the files
+ * written for each group.
+ */
+public class ConversionResult
+{
+	private File input;
+	private RunReport report;
+
+	private LinkedHashMap<String, List<RenderResult>> results = new LinkedHashMap<>();
+	private ArrayList<File> outputs = new ArrayList<>();
+
+	ConversionResult(File input, RunReport report)
+	{
+		this.input = input;
+		this.report = report;
+	}
+
+	void add(String group, RenderResult result)
+	{
+		results.computeIfAbsent(group, g -> new ArrayList<>()).add(result);
+	}
+
+	void addOutput(File file)
+	{
+		outputs.add(file);
+	}
+
+	public File getInput()
+	{
+		return input;
+	}
+
+	public RunReport getReport()
+	{
+		return report;
+	}
+
+	/**
+	 * @return render results by group name, in the order of the input's colors
+	 */
+	public Map<String, List<RenderResult>> getResults()
+	{
+		return results;
+	}
+
+	/**
+	 * @return merged OBJ, MTL, GLB and 3MF files
+	 */
+	public List<File> getOutputs()
+	{
+		return outputs;
+	}
+
+	/**
+	 * @return number of renders that failed or timed out
+	 */
+	public int getFailures()
+	{
+		int failures = 0;
+		for(List<RenderResult> group : results.values())
+		{
+			for(RenderResult result : group)
+			{
+				if(result.getExitCode() != 0 && result.getExitCode() != RenderResult.SKIPPED)
+					failures++;
+			}
+		}
+		return failures;
+	}
+}
@@ -0,0 +1,596 @@
+package de.jcm.openscad.colorhelper;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Converts SCAD files into per-group OBJ (and optionally GLB and 3MF) files. One converter can process any
+ * number of inputs, which then share its color map, render pool, renderer and caches. Renders are skipped for
+ * SCAD code that has not changed since an earlier conversion by the same converter.
+ */
+public class Converter implements Closeable
+{
+	// never finer than OpenSCAD's defaults, and at most 12 fragments per circle
+	private static final Map<String, String> DEFAULT_PREVIEW = new LinkedHashMap<>();
+
+	static
+	{
+		DEFAULT_PREVIEW.put("$fn", "0");
+		DEFAULT_PREVIEW.put("$fa", "30");
+		DEFAULT_PREVIEW.put("$fs", "4");
+	}
+
+	private Configuration configuration;
+	private ColorMap colorMap;
+
+	private ExecutorService pool;
+	private boolean ownPool;
+	private Renderer renderer;
+
+	private HashMap<File, RenderCache> caches = new HashMap<>();
+	private HashMap<File, LibraryCache> libraries = new HashMap<>();
+	private HashMap<File, byte[]> digests = new HashMap<>();
+	// without meshes, which would otherwise pile up over all inputs of a batch
+	private HashMap<File, RenderResult> results = new HashMap<>();
+
+	// SCAD files that are only needed while OpenSCAD reads them go to the local temp directory
+	private File scratch;
+
+	public Converter(Configuration configuration, ColorMap colorMap)
+	{
+		this(configuration, colorMap, Executors.newFixedThreadPool(Math.max(1, configuration.getJobs())));
+		ownPool = true;
+	}
+
+	/**
+	 * @param pool runs the render jobs, is not shut down by {@link #close()}
+	 */
+	public Converter(Configuration configuration, ColorMap colorMap, ExecutorService pool)
+	{
+		this.configuration = configuration;
+		this.colorMap = colorMap;
+		this.pool = pool;
+		this.renderer = createRenderer(configuration);
+		// fail early on invalid options
+		palette();
+	}
+
+	static Renderer createRenderer(Configuration configuration)
+	{
+		String name = configuration.getRenderer();
+		if(name.equals("stub") || name.startsWith("stub:"))
+		{
+			int resolution = name.length() > 5 ? Integer.parseInt(name.substring(5)) : 1;
+			return new StubRenderer(resolution);
+		}
+		else if(name.startsWith("remote:"))
+		{
+			return RemoteRenderer.parse(name.substring(7));
+		}
+		else if(name.equals("openscad"))
+		{
+			return new ProcessRenderer(configuration.getOpenSCAD(), (long) (configuration.getTimeout() * 1000));
+		}
+		throw new IllegalArgumentException("Unknown renderer: " + name);
+	}
+
+	/**
+	 * Replaces the color map for all following conversions, e.g. after the color map file changed.
+	 */
+	public void setColorMap(ColorMap colorMap)
+	{
+		this.colorMap = colorMap;
+	}
+
+	public ConversionResult convert(File input) throws IOException, InterruptedException, ExecutionException
+	{
+		ConversionPlan plan = plan(input);
+		submit(plan);
+		return collect(plan);
+	}
+
+	/**
+	 * Parses the input and decides what to do for every group/color combination, without writing anything yet.
+	 * In progressive mode, a preview plan with the preview properties is attached if anything has to be rendered.
+	 */
+	public ConversionPlan plan(File input) throws IOException
+	{
+		String inputName = input.getName();
+		if(inputName.lastIndexOf('.') > 0)
+			inputName = inputName.substring(0, inputName.lastIndexOf('.'));
+
+		File output = configuration.getOutput();
+		if(output == null)
+			output = new File(input.getParentFile(), "ColorHelper_" + inputName);
+		output.mkdirs();
+
+		File mtlOutput = configuration.getMtlOutput();
+		if(mtlOutput == null)
+			mtlOutput = new File(output, inputName + ".mtl");
+		else
+			mtlOutput = new File(mtlOutput.getPath().replace("{input}", inputName));
+
+		RunReport report = new RunReport(input);
+		RunReport.Measurement parse = report.start(null, null, Stage.PARSE_SOURCE);
+		LibraryCache libraries = libraries(output);
+		SCADSource source = SCADSource.parse(input, configuration.getProperties(), palette(), libraries);
+		libraries.save();
+		parse.end(input.length(), 0);
+
+		ConversionPlan plan = new ConversionPlan(input, inputName, output, mtlOutput, source, report, false);
+		schedule(plan, output);
+
+		if(configuration.isProgressive() && plan.needsRender())
+		{
+			Map<String, String> overrides = configuration.getPreviewProperties();
+			SCADSource previewSource = source.override(overrides.isEmpty() ? DEFAULT_PREVIEW : overrides);
+			ConversionPlan preview = new ConversionPlan(input, inputName, output, mtlOutput, previewSource,
+			                                            new RunReport(input), true);
+			// the final outputs are shared, but the per-color files of both passes must not overwrite each other
+			schedule(preview, new File(output, ".preview"));
+			plan.setPreview(preview);
+		}
+		return plan;
+	}
+
+	/**
+	 * Creates the render job of every group/color combination, with its intermediate files in the given directory.
+	 */
+	private void schedule(ConversionPlan plan, File directory) throws IOException
+	{
+		String inputName = plan.getName();
+		SCADSource source = plan.getSource();
+		RunReport report = plan.getReport();
+		File mtlOutput = plan.getMtlOutput();
+		RenderCache cache = cache(plan.getOutput());
+
+		directory.mkdirs();
+		File scadDirectory = directory;
+		if(configuration.isStreamSTL() && !configuration.isKeepIntermediate())
+		{
+			scadDirectory = plan.isPreview() ? new File(scratch(), "preview") : scratch();
+			scadDirectory.mkdirs();
+		}
+
+		List<Group> groups = source.getGroups();
+		List<String> colors = source.getColors();
+		for(int g = 0; g < groups.size(); g++)
+		{
+			String group = groups.get(g).getName();
+			for(int i = 0; i < colors.size(); i++)
+			{
+				String color = colors.get(i);
+				File scad = new File(scadDirectory, pattern(configuration.getScadPattern(), inputName, group, i, color));
+				File stl = new File(directory, pattern(configuration.getStlPattern(), inputName, group, i, color));
+				File obj = new File(directory, pattern(configuration.getObjPattern(), inputName, group, i, color));
+				String material = pattern(configuration.getMaterialPattern(), inputName, group, i, color);
+
+				RenderJob job = new RenderJob(configuration, plan.prefix(group, color), group, color, material,
+				                               scad, stl, obj, mtlOutput, renderer, cache, report);
+
+				if(!configuration.isRenderAll() && !source.hasGeometry(g, i))
+				{
+					plan.set(g, i, new ConversionPlan.Entry(ConversionPlan.Action.SKIP, material, scad, obj,
+					                                        null, job));
+					continue;
+				}
+
+				byte[] digest = source.digest(g, i);
+				job.setDigest(digest);
+
+				// meshes are not kept between conversions, so outputs written from them need a render (or cache hit)
+				RenderResult previous = results.get(obj);
+				boolean unchanged = previous != null && !RenderJob.retainsMesh(configuration)
+						&& Arrays.equals(digest, digests.get(obj)) && obj.exists();
+				plan.set(g, i, new ConversionPlan.Entry(unchanged ? ConversionPlan.Action.KEEP
+						                                        : ConversionPlan.Action.RENDER,
+				                                        material, scad, obj, digest, job));
+			}
+		}
+	}
+
+	private Palette palette()
+	{
+		String quantize = configuration.getQuantize();
+		if(quantize == null)
+			return null;
+		if(quantize.equals("named"))
+			return Palette.named(colorMap, configuration.getQuantizeTolerance());
+		try
+		{
+			return Palette.clusters(Integer.parseInt(quantize), configuration.getQuantizeTolerance());
+		}
+		catch(NumberFormatException e)
+		{
+			throw new IllegalArgumentException("Unknown quantization: " + quantize);
+		}
+	}
+
+	private static String pattern(String pattern, String input, String group, int number, String color)
+	{
+		return pattern.replace("{input}", input).replace("{number}", Integer.toString(number))
+				.replace("{color}", color).replace("{group}", group);
+	}
+
+	private synchronized RenderCache cache(File output) throws IOException
+	{
+		if(!configuration.isUseCache())
+			return null;
+
+		File directory = new File(output, ".cache");
+		RenderCache cache = caches.get(directory);
+		if(cache == null)
+		{
+			cache = new RenderCache(directory, configuration.getCacheSize() * 1024 * 1024);
+			caches.put(directory, cache);
+		}
+		return cache;
+	}
+
+	/**
+	 * Library files are cached next to the renders, or only for the lifetime of the converter without a cache.
+	 */
+	private synchronized LibraryCache libraries(File output) throws IOException
+	{
+		File directory = configuration.isUseCache() ? new File(output, ".cache") : null;
+		LibraryCache cache = libraries.get(directory);
+		if(cache == null)
+		{
+			cache = new LibraryCache(directory, LibraryCache.defaultSearchPath(configuration.getOpenSCAD()));
+			libraries.put(directory, cache);
+		}
+		return cache;
+	}
+
+	private synchronized File scratch() throws IOException
+	{
+		if(scratch == null)
+		{
+			scratch = Files.createTempDirectory("colorhelper").toFile();
+			scratch.deleteOnExit();
+		}
+		return scratch;
+	}
+
+	/**
+	 * Writes the SCAD files of the plan and queues its renders. Returns without waiting for them, so the
+	 * renders of several inputs can overlap.
+	 */
+	public void submit(ConversionPlan plan) throws IOException
+	{
+		// the pool runs jobs in order, so the full renders only start as preview renders finish
+		if(plan.getPreview() != null)
+		{
+			System.out.println("Rendering preview of " + plan.getInput().getName() + " first...");
+			submit(plan.getPreview());
+		}
+
+		List<Group> groups = plan.getGroups();
+		List<String> colors = plan.getColors();
+		for(int g = 0; g < groups.size(); g++)
+		{
+			String group = groups.get(g).getName();
+			for(int i = 0; i < colors.size(); i++)
+			{
+				String color = colors.get(i);
+				ConversionPlan.Entry entry = plan.get(g, i);
+				String prefix = plan.prefix(group, color);
+
+				switch(entry.getAction())
+				{
+					case SKIP:
+						entry.setFuture(CompletableFuture.completedFuture(entry.getJob().skip()));
+						break;
+					case KEEP:
+						System.out.println(prefix + " SCAD file unchanged, keeping " + entry.getObj().getAbsolutePath());
+						entry.setFuture(CompletableFuture.completedFuture(results.get(entry.getObj())));
+						break;
+					case RENDER:
+						// recorded when the render succeeded, so a failed one is tried again next time
+						digests.remove(entry.getObj());
+						results.remove(entry.getObj());
+
+						System.out.println(prefix + " Generating SCAD file... => " + entry.getScad().getAbsolutePath());
+
+						RunReport.Measurement generate = plan.getReport().start(group, color, Stage.GENERATE_SCAD);
+						Writer writer = new BufferedWriter(new FileWriter(entry.getScad()));
+						plan.getSource().write(writer, g, i);
+						writer.close();
+						generate.end(entry.getScad().length(), 0);
+
+						entry.setFuture(pool.submit(entry.getJob()));
+						break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Waits for the renders of a submitted plan and writes the MTL file and the merged outputs of every group.
+	 * Every output replaces the old one in a single move once it is complete. A preview plan is collected (and its
+	 * outputs published) first, to be replaced by the full quality ones.
+	 */
+	public ConversionResult collect(ConversionPlan plan) throws IOException, InterruptedException,
+			ExecutionException
+	{
+		if(plan.getPreview() != null)
+		{
+			collect(plan.getPreview());
+			System.out.println("Preview of " + plan.getInput().getName() + " is ready, rendering at full quality...");
+		}
+
+		ConversionResult conversion = new ConversionResult(plan.getInput(), plan.getReport());
+		RunReport report = plan.getReport();
+		List<String> colors = plan.getColors();
+		File mtlOutput = plan.getMtlOutput();
+		int precision = configuration.getPrecision();
+
+		File mtlStaged = staging(mtlOutput);
+		OBJWriter mtl = new OBJWriter(mtlStaged, precision);
+
+		// MARK: Collect render results in order
+		for(int g = 0; g < plan.getGroups().size(); g++)
+		{
+			String group = plan.getGroups().get(g).getName();
+			OBJMerger merger = new OBJMerger();
+			GLBWriter glb = configuration.getGlbPattern() == null ? null : new GLBWriter();
+			long faces = 0;
+
+			// objects are streamed into the package as their renders finish
+			ThreeMFWriter threeMF = null;
+			if(configuration.getThreeMFPattern() != null)
+			{
+				File threeMFFile = output(plan, configuration.getThreeMFPattern(), group);
+				System.out.println(plan.prefix(group, "FINAL")
+						                   + " Writing 3MF model... => " + threeMFFile.getAbsolutePath());
+				threeMF = new ThreeMFWriter(staging(threeMFFile), precision);
+				conversion.addOutput(threeMFFile);
+
+				ArrayList<String> names = new ArrayList<>();
+				ArrayList<double[]> rgbs = new ArrayList<>();
+				for(int i = 0; i < colors.size(); i++)
+				{
+					names.add(plan.get(g, i).getMaterial());
+					rgbs.add(colorMap.rgb(colors.get(i)));
+				}
+				threeMF.materials(names, rgbs);
+			}
+
+			if(configuration.isDecimate())
+				decimate(plan, g);
+			List<IndexedMesh> meshes = configuration.isRemoveInternal() ? removeInternal(plan, g) : null;
+			List<File> culled = new ArrayList<>();
+			long removed = 0;
+
+			for(int i = 0; i < colors.size(); i++)
+			{
+				String color = colors.get(i);
+				ConversionPlan.Entry entry = plan.get(g, i);
+				RenderResult result = entry.getFuture().get();
+				// the mesh is only needed by the writers of this group, so it is not kept beyond them
+				results.put(result.getObj(), result.withoutMesh());
+				conversion.add(group, result.withoutMesh());
+				if(entry.getAction() == ConversionPlan.Action.RENDER && result.getExitCode() == 0)
+					digests.put(result.getObj(), entry.getDigest());
+
+				String material = entry.getMaterial();
+				IndexedMesh mesh = result.getMesh();
+				if(meshes != null && meshes.get(i) != mesh)
+				{
+					// only the merged OBJ is culled: the per-color file stays complete for when the neighbours
+					// change, and 3MF and GLB get the closed meshes
+					File obj = staging(result.getObj());
+					OBJWriter writer = new OBJWriter(obj, precision);
+					writer.mesh(meshes.get(i));
+					writer.close();
+					culled.add(obj);
+
+					merger.add(obj, material);
+					removed += result.getFaceCount() - meshes.get(i).getFaceCount();
+				}
+				else
+				{
+					merger.add(result.getObj(), material);
+				}
+				faces += result.getFaceCount();
+				if(result.getExitCode() == 0)
+				{
+					RunReport.Measurement write = report.start(group, color, Stage.WRITE_MTL);
+					long mtlSize = mtl.size();
+					System.out.println(plan.prefix(group, color)
+							                   + " Generating MTL entry... => " + mtlOutput.getAbsolutePath());
+
+					double[] rgb = colorMap.rgb(color);
+					mtl.line("newmtl " + material);
+					// rgb() colors have always been written the way Java prints doubles, e.g. 1.0
+					if(color.startsWith("rgb(") && precision == OBJWriter.SHORTEST)
+						mtl.line("Kd " + rgb[0] + " " + rgb[1] + " " + rgb[2]);
+					else
+						mtl.color(rgb[0], rgb[1], rgb[2]);
+					write.end(mtl.size() - mtlSize, 0);
+				}
+				if(threeMF != null && mesh != null)
+				{
+					RunReport.Measurement write = report.start(group, color, Stage.WRITE_3MF);
+					long size = threeMF.size();
+					threeMF.add(material, i, mesh);
+					write.end(threeMF.size() - size, mesh.getFaceCount());
+				}
+				if(glb != null && mesh != null)
+				{
+					double[] rgb = colorMap.rgb(color);
+					glb.add(material, rgb[0], rgb[1], rgb[2], mesh);
+				}
+			}
+
+			File mergeOBJ = output(plan, configuration.getMergePattern(), group);
+			System.out.println(plan.prefix(group, "FINAL") + " Merging OBJ models... => "
+					                   + mergeOBJ.getAbsolutePath());
+			RunReport.Measurement merge = report.start(group, null, Stage.MERGE);
+			File mergeStaged = staging(mergeOBJ);
+			OBJWriter writer = new OBJWriter(mergeStaged, precision);
+
+			writer.line("mtllib " + mtlOutput.getAbsolutePath());
+
+			merger.merge(writer);
+			writer.close();
+			for(File obj : culled)
+				obj.delete();
+			publish(mergeStaged, mergeOBJ);
+			merge.end(mergeOBJ.length(), faces - removed);
+			conversion.addOutput(mergeOBJ);
+
+			if(threeMF != null)
+			{
+				threeMF.close();
+				File threeMFFile = output(plan, configuration.getThreeMFPattern(), group);
+				publish(staging(threeMFFile), threeMFFile);
+			}
+
+			if(glb != null)
+			{
+				File glbFile = output(plan, configuration.getGlbPattern(), group);
+				System.out.println(plan.prefix(group, "FINAL")
+						                   + " Writing GLB model... => " + glbFile.getAbsolutePath());
+				RunReport.Measurement write = report.start(group, null, Stage.WRITE_GLB);
+				File glbStaged = staging(glbFile);
+				glb.write(glbStaged, group);
+				publish(glbStaged, glbFile);
+				write.end(glbFile.length(), faces);
+				conversion.addOutput(glbFile);
+			}
+		}
+		mtl.close();
+		publish(mtlStaged, mtlOutput);
+		conversion.addOutput(mtlOutput);
+
+		RenderCache cache = cache(plan.getOutput());
+		if(cache != null)
+			cache.save();
+
+		report.finish();
+		if(configuration.getReportPattern() != null && !plan.isPreview())
+		{
+			File reportFile = new File(configuration.getReportPattern().replace("{input}", plan.getName()));
+			System.out.println("Writing report... => " + reportFile.getAbsolutePath());
+			report.write(reportFile);
+		}
+
+		return conversion;
+	}
+
+	/**
+	 * Waits for all renders of a group, then decimates the rendered meshes without moving the vertices they share
+	 * with each other and writes their OBJ files.
+	 */
+	private void decimate(ConversionPlan plan, int g) throws IOException, InterruptedException, ExecutionException
+	{
+		List<IndexedMesh> meshes = new ArrayList<>();
+		for(int i = 0; i < plan.getColors().size(); i++)
+		{
+			ConversionPlan.Entry entry = plan.get(g, i);
+			RenderResult result = entry.getFuture().get();
+			boolean rendered = entry.getAction() == ConversionPlan.Action.RENDER && result.getExitCode() == 0;
+			meshes.add(rendered ? result.getMesh() : null);
+		}
+
+		boolean[][] seams = IndexedMesh.seams(meshes, configuration.getWeldTolerance());
+		int[] color = new int[1];
+		OrderedTasks.run(meshes.size(), i -> {
+			if(meshes.get(i) == null)
+				return null;
+			return plan.get(g, i).getJob().decimate(meshes.get(i), seams[i]);
+		}, result -> {
+			if(result != null)
+				plan.get(g, color[0]).setFuture(CompletableFuture.completedFuture(result));
+			color[0]++;
+		});
+	}
+
+	/**
+	 * Waits for all renders of a group and removes the faces where parts of different colors touch.
+	 *
+	 * @return the mesh of every color, null for colors without one
+	 */
+	private List<IndexedMesh> removeInternal(ConversionPlan plan, int g) throws InterruptedException,
+			ExecutionException
+	{
+		String group = plan.getGroups().get(g).getName();
+		List<IndexedMesh> meshes = new ArrayList<>();
+		int before = 0;
+		for(int i = 0; i < plan.getColors().size(); i++)
+		{
+			RenderResult result = plan.get(g, i).getFuture().get();
+			meshes.add(result.getMesh());
+			before += result.getMesh() == null ? 0 : result.getMesh().getFaceCount();
+		}
+
+		RunReport.Measurement cull = plan.getReport().start(group, null, Stage.CULL);
+		meshes = new FaceCuller(configuration.getInternalTolerance()).cull(meshes);
+		int after = 0;
+		for(IndexedMesh mesh : meshes)
+			after += mesh == null ? 0 : mesh.getFaceCount();
+		cull.end(0, after);
+
+		System.out.println(plan.prefix(group, "FINAL") + " Removed " + (before - after) + " internal faces");
+		return meshes;
+	}
+
+	private static File output(ConversionPlan plan, String pattern, String group)
+	{
+		return new File(plan.getOutput(), pattern.replace("{input}", plan.getName()).replace("{group}", group));
+	}
+
+	/**
+	 * @return the file an output is written to before {@link #publish(File, File)} moves it into place
+	 */
+	private static File staging(File output)
+	{
+		return new File(output.getAbsoluteFile().getParentFile(), "." + output.getName() + ".tmp");
+	}
+
+	/**
+	 * Replaces an output in one step, so a viewer watching it never reads a half written file.
+	 */
+	private static void publish(File staged, File output) throws IOException
+	{
+		try
+		{
+			Files.move(staged.toPath(), output.toPath(), StandardCopyOption.ATOMIC_MOVE,
+			           StandardCopyOption.REPLACE_EXISTING);
+		}
+		catch(AtomicMoveNotSupportedException e)
+		{
+			Files.move(staged.toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Stops the render pool if the converter created it and removes temporary files.
+	 */
+	@Override
+	public void close()
+	{
+		if(ownPool)
+			pool.shutdown();
+		if(scratch != null)
+			scratch.delete();
+	}
+}
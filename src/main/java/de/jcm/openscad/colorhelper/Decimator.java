@@ -0,0 +1,514 @@
+package de.jcm.openscad.colorhelper;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+/**
+ * Simplifies a welded mesh by quadric error edge collapse (Garland and Heckbert). Vertices on open or non-manifold
+ * edges never move, and neither do the vertices the caller marks as seam, the ones a color mesh shares with the
+ * other colors of its group. So the outlines where colors meet stay put and neighbouring colors neither drift apart
+ * nor overlap.
+ * <p>
+ * The cost of a collapse is the mean squared distance of the new vertex to the planes of the faces around the
+ * vertices it replaces, so its square root is a distance that does not grow with the number of faces merged.
+ */
+public class Decimator
+{
+	// a collapse must not turn any face further than this, measured as the cosine between old and new normal
+	private static final double MIN_NORMAL_DOT = 0.2;
+
+	private double ratio;
+	private double maxError;
+
+	private double[] positions;
+	private int[] faces;
+	private boolean[] faceAlive;
+	private int liveFaces;
+
+	private boolean[] vertexAlive;
+	private boolean[] locked;
+	private int[] stamps;
+	// symmetric 4x4 quadric per vertex, upper triangle: aa ab ac ad bb bc bd cc cd dd
+	private double[] quadrics;
+	// number of planes summed up in the quadric of each vertex
+	private int[] planes;
+
+	private int[][] vertexFaces;
+	private int[] vertexFaceCount;
+
+	private PriorityQueue<Candidate> queue;
+
+	/**
+	 * @param ratio    fraction of faces to keep, 0 to only stop at the error limit
+	 * @param maxError largest root mean square distance of a collapsed vertex to the planes of the faces it
+	 *                 replaces, or 0 for no limit
+	 */
+	public Decimator(double ratio, double maxError)
+	{
+		this.ratio = ratio;
+		this.maxError = maxError;
+	}
+
+	public IndexedMesh decimate(IndexedMesh mesh)
+	{
+		return decimate(mesh, null);
+	}
+
+	/**
+	 * @param seam vertices that must not move, or null
+	 */
+	public IndexedMesh decimate(IndexedMesh mesh, boolean[] seam)
+	{
+		int vertexCount = mesh.getVertexCount();
+		int faceCount = mesh.getFaceCount();
+
+		positions = new double[vertexCount * 3];
+		for(int i = 0; i < vertexCount; i++)
+		{
+			for(int axis = 0; axis < 3; axis++)
+				positions[i * 3 + axis] = mesh.getVertex(i, axis);
+		}
+		faces = new int[faceCount * 3];
+		for(int i = 0; i < faceCount; i++)
+		{
+			for(int corner = 0; corner < 3; corner++)
+				faces[i * 3 + corner] = mesh.getFaceVertex(i, corner);
+		}
+
+		faceAlive = new boolean[faceCount];
+		vertexAlive = new boolean[vertexCount];
+		locked = new boolean[vertexCount];
+		stamps = new int[vertexCount];
+		quadrics = new double[vertexCount * 10];
+		planes = new int[vertexCount];
+		vertexFaces = new int[vertexCount][];
+		vertexFaceCount = new int[vertexCount];
+		liveFaces = 0;
+		queue = new PriorityQueue<>();
+
+		for(int i = 0; i < faceCount; i++)
+		{
+			int a = faces[i * 3], b = faces[i * 3 + 1], c = faces[i * 3 + 2];
+			if(a == b || b == c || c == a)
+				continue;
+
+			faceAlive[i] = true;
+			liveFaces++;
+			for(int corner = 0; corner < 3; corner++)
+			{
+				int vertex = faces[i * 3 + corner];
+				vertexAlive[vertex] = true;
+				attach(vertex, i);
+			}
+			addPlane(i);
+		}
+
+		lockBoundaries();
+		if(seam != null)
+		{
+			for(int i = 0; i < vertexCount; i++)
+				locked[i] |= seam[i];
+		}
+
+		for(int i = 0; i < faceCount; i++)
+		{
+			if(!faceAlive[i])
+				continue;
+			for(int corner = 0; corner < 3; corner++)
+			{
+				int a = faces[i * 3 + corner];
+				int b = faces[i * 3 + (corner + 1) % 3];
+				// interior edges show up once in each direction
+				if(a < b)
+					push(a, b);
+			}
+		}
+
+		int target = (int) Math.ceil(liveFaces * ratio);
+		double limit = maxError > 0 ? maxError * maxError : Double.POSITIVE_INFINITY;
+		while(liveFaces > target && !queue.isEmpty())
+		{
+			Candidate candidate = queue.poll();
+			if(candidate.cost > limit)
+				break;
+			if(!vertexAlive[candidate.keep] || !vertexAlive[candidate.remove]
+					|| stamps[candidate.keep] != candidate.keepStamp || stamps[candidate.remove] != candidate.removeStamp)
+				continue;
+			if(!canCollapse(candidate))
+				continue;
+
+			collapse(candidate);
+		}
+
+		return build(mesh.getName());
+	}
+
+	private void attach(int vertex, int face)
+	{
+		int[] list = vertexFaces[vertex];
+		if(list == null)
+			list = vertexFaces[vertex] = new int[8];
+		else if(vertexFaceCount[vertex] == list.length)
+			list = vertexFaces[vertex] = Arrays.copyOf(list, list.length * 2);
+		list[vertexFaceCount[vertex]++] = face;
+	}
+
+	/**
+	 * Locks both ends of every edge that does not have exactly two faces, counting each edge from its smaller
+	 * vertex.
+	 */
+	private void lockBoundaries()
+	{
+		int[] neighbours = new int[16];
+		int[] uses = new int[16];
+		for(int v = 0; v < vertexAlive.length; v++)
+		{
+			if(!vertexAlive[v])
+				continue;
+
+			int count = 0;
+			for(int k = 0; k < vertexFaceCount[v]; k++)
+			{
+				int face = vertexFaces[v][k];
+				for(int corner = 0; corner < 3; corner++)
+				{
+					int w = faces[face * 3 + corner];
+					if(w <= v)
+						continue;
+
+					int j = 0;
+					while(j < count && neighbours[j] != w)
+						j++;
+					if(j == count)
+					{
+						if(count == neighbours.length)
+						{
+							neighbours = Arrays.copyOf(neighbours, count * 2);
+							uses = Arrays.copyOf(uses, count * 2);
+						}
+						neighbours[count] = w;
+						uses[count] = 0;
+						count++;
+					}
+					uses[j]++;
+				}
+			}
+
+			for(int j = 0; j < count; j++)
+			{
+				if(uses[j] != 2)
+				{
+					locked[v] = true;
+					locked[neighbours[j]] = true;
+				}
+			}
+		}
+	}
+
+	private void addPlane(int face)
+	{
+		double[] normal = normal(face, -1, 0, 0, 0);
+		double length = Math.sqrt(normal[0] * normal[0] + normal[1] * normal[1] + normal[2] * normal[2]);
+		if(length == 0)
+			return;
+
+		double a = normal[0] / length, b = normal[1] / length, c = normal[2] / length;
+		int p = faces[face * 3] * 3;
+		double d = -(a * positions[p] + b * positions[p + 1] + c * positions[p + 2]);
+
+		double[] plane = {a * a, a * b, a * c, a * d, b * b, b * c, b * d, c * c, c * d, d * d};
+		for(int corner = 0; corner < 3; corner++)
+		{
+			int vertex = faces[face * 3 + corner];
+			for(int i = 0; i < 10; i++)
+				quadrics[vertex * 10 + i] += plane[i];
+			planes[vertex]++;
+		}
+	}
+
+	/**
+	 * @return the (unnormalized) normal of a face, with one of its vertices optionally moved to (x, y, z)
+	 */
+	private double[] normal(int face, int moved, double x, double y, double z)
+	{
+		double[] p = new double[9];
+		for(int corner = 0; corner < 3; corner++)
+		{
+			int vertex = faces[face * 3 + corner];
+			if(vertex == moved)
+			{
+				p[corner * 3] = x;
+				p[corner * 3 + 1] = y;
+				p[corner * 3 + 2] = z;
+			}
+			else
+			{
+				System.arraycopy(positions, vertex * 3, p, corner * 3, 3);
+			}
+		}
+
+		double ux = p[3] - p[0], uy = p[4] - p[1], uz = p[5] - p[2];
+		double vx = p[6] - p[0], vy = p[7] - p[1], vz = p[8] - p[2];
+		return new double[]{uy * vz - uz * vy, uz * vx - ux * vz, ux * vy - uy * vx};
+	}
+
+	private void push(int a, int b)
+	{
+		if(locked[a] && locked[b])
+			return;
+
+		double[] q = new double[10];
+		for(int i = 0; i < 10; i++)
+			q[i] = quadrics[a * 10 + i] + quadrics[b * 10 + i];
+
+		// a locked vertex stays where it is, so the edge can only collapse onto it
+		int keep = locked[b] ? b : a;
+		int remove = keep == a ? b : a;
+
+		double[] target;
+		if(locked[keep])
+		{
+			target = position(keep);
+		}
+		else
+		{
+			target = optimum(q);
+			if(target == null)
+			{
+				double[] pa = position(a), pb = position(b);
+				double[] middle = {(pa[0] + pb[0]) / 2, (pa[1] + pb[1]) / 2, (pa[2] + pb[2]) / 2};
+				target = pa;
+				for(double[] option : new double[][]{pb, middle})
+				{
+					if(error(q, option) < error(q, target))
+						target = option;
+				}
+			}
+		}
+
+		int count = planes[a] + planes[b];
+		double cost = count == 0 ? 0 : Math.max(error(q, target), 0) / count;
+		queue.add(new Candidate(keep, remove, stamps[keep], stamps[remove], target, cost));
+	}
+
+	private double[] position(int vertex)
+	{
+		return new double[]{positions[vertex * 3], positions[vertex * 3 + 1], positions[vertex * 3 + 2]};
+	}
+
+	/**
+	 * Solves for the point of least error, or returns null if the quadric has no unique minimum (flat or straight
+	 * neighbourhoods).
+	 */
+	private static double[] optimum(double[] q)
+	{
+		double a = q[0], b = q[1], c = q[2], e = q[4], f = q[5], h = q[7];
+		double det = a * (e * h - f * f) - b * (b * h - f * c) + c * (b * f - e * c);
+		double scale = Math.abs(a) + Math.abs(e) + Math.abs(h);
+		if(Math.abs(det) <= 1e-12 * scale * scale * scale)
+			return null;
+
+		double rx = -q[3], ry = -q[6], rz = -q[8];
+		double x = (rx * (e * h - f * f) - b * (ry * h - f * rz) + c * (ry * f - e * rz)) / det;
+		double y = (a * (ry * h - f * rz) - rx * (b * h - f * c) + c * (b * rz - ry * c)) / det;
+		double z = (a * (e * rz - ry * f) - b * (b * rz - ry * c) + rx * (b * f - e * c)) / det;
+		return new double[]{x, y, z};
+	}
+
+	private static double error(double[] q, double[] p)
+	{
+		double x = p[0], y = p[1], z = p[2];
+		return q[0] * x * x + 2 * q[1] * x * y + 2 * q[2] * x * z + 2 * q[3] * x
+				+ q[4] * y * y + 2 * q[5] * y * z + 2 * q[6] * y
+				+ q[7] * z * z + 2 * q[8] * z
+				+ q[9];
+	}
+
+	private boolean canCollapse(Candidate candidate)
+	{
+		int keep = candidate.keep;
+		int remove = candidate.remove;
+
+		// link condition: the ends may only share the vertices opposite the edge, else the collapse pinches the mesh
+		int shared = 0;
+		int opposite = 0;
+		int[] neighbours = neighbours(keep);
+		for(int w : neighbours(remove))
+		{
+			if(w == keep)
+				continue;
+			for(int n : neighbours)
+			{
+				if(n == w)
+				{
+					shared++;
+					break;
+				}
+			}
+		}
+		for(int k = 0; k < vertexFaceCount[remove]; k++)
+		{
+			int face = vertexFaces[remove][k];
+			if(faceAlive[face] && contains(face, keep))
+				opposite++;
+		}
+		if(shared != opposite)
+			return false;
+
+		double[] t = candidate.target;
+		return !flips(keep, remove, t) && !flips(remove, keep, t);
+	}
+
+	/**
+	 * @return whether moving the vertex to t turns one of its faces that survive the collapse over or flat
+	 */
+	private boolean flips(int vertex, int other, double[] t)
+	{
+		for(int k = 0; k < vertexFaceCount[vertex]; k++)
+		{
+			int face = vertexFaces[vertex][k];
+			if(!faceAlive[face] || contains(face, other))
+				continue;
+
+			double[] before = normal(face, -1, 0, 0, 0);
+			double[] after = normal(face, vertex, t[0], t[1], t[2]);
+			double lengthBefore = Math.sqrt(before[0] * before[0] + before[1] * before[1] + before[2] * before[2]);
+			double lengthAfter = Math.sqrt(after[0] * after[0] + after[1] * after[1] + after[2] * after[2]);
+			if(lengthBefore == 0)
+				continue;
+			if(lengthAfter == 0)
+				return true;
+
+			double dot = (before[0] * after[0] + before[1] * after[1] + before[2] * after[2]) / (lengthBefore * lengthAfter);
+			if(dot < MIN_NORMAL_DOT)
+				return true;
+		}
+		return false;
+	}
+
+	private boolean contains(int face, int vertex)
+	{
+		return faces[face * 3] == vertex || faces[face * 3 + 1] == vertex || faces[face * 3 + 2] == vertex;
+	}
+
+	private int[] neighbours(int vertex)
+	{
+		int[] result = new int[vertexFaceCount[vertex] * 2];
+		int count = 0;
+		for(int k = 0; k < vertexFaceCount[vertex]; k++)
+		{
+			int face = vertexFaces[vertex][k];
+			if(!faceAlive[face])
+				continue;
+			for(int corner = 0; corner < 3; corner++)
+			{
+				int w = faces[face * 3 + corner];
+				if(w == vertex)
+					continue;
+
+				int j = 0;
+				while(j < count && result[j] != w)
+					j++;
+				if(j == count)
+					result[count++] = w;
+			}
+		}
+		return Arrays.copyOf(result, count);
+	}
+
+	private void collapse(Candidate candidate)
+	{
+		int keep = candidate.keep;
+		int remove = candidate.remove;
+
+		System.arraycopy(candidate.target, 0, positions, keep * 3, 3);
+		for(int i = 0; i < 10; i++)
+			quadrics[keep * 10 + i] += quadrics[remove * 10 + i];
+		planes[keep] += planes[remove];
+
+		for(int k = 0; k < vertexFaceCount[remove]; k++)
+		{
+			int face = vertexFaces[remove][k];
+			if(!faceAlive[face])
+				continue;
+
+			if(contains(face, keep))
+			{
+				faceAlive[face] = false;
+				liveFaces--;
+				continue;
+			}
+			for(int corner = 0; corner < 3; corner++)
+			{
+				if(faces[face * 3 + corner] == remove)
+					faces[face * 3 + corner] = keep;
+			}
+			attach(keep, face);
+		}
+
+		vertexAlive[remove] = false;
+		vertexFaces[remove] = null;
+		vertexFaceCount[remove] = 0;
+
+		// everything queued for the kept vertex used its old position and quadric
+		stamps[keep]++;
+		for(int w : neighbours(keep))
+			push(keep, w);
+	}
+
+	private IndexedMesh build(String name)
+	{
+		int[] remap = new int[vertexAlive.length];
+		Arrays.fill(remap, -1);
+
+		double[] vertices = new double[positions.length];
+		int vertexCount = 0;
+		int[] triangles = new int[liveFaces * 3];
+		int faceCount = 0;
+		for(int i = 0; i < faceAlive.length; i++)
+		{
+			if(!faceAlive[i])
+				continue;
+			for(int corner = 0; corner < 3; corner++)
+			{
+				int vertex = faces[i * 3 + corner];
+				if(remap[vertex] < 0)
+				{
+					remap[vertex] = vertexCount;
+					System.arraycopy(positions, vertex * 3, vertices, vertexCount * 3, 3);
+					vertexCount++;
+				}
+				triangles[faceCount * 3 + corner] = remap[vertex];
+			}
+			faceCount++;
+		}
+
+		return IndexedMesh.of(name, vertices, vertexCount, triangles, faceCount);
+	}
+
+	private static class Candidate implements Comparable<Candidate>
+	{
+		private int keep;
+		private int remove;
+		private int keepStamp;
+		private int removeStamp;
+		private double[] target;
+		private double cost;
+
+		private Candidate(int keep, int remove, int keepStamp, int removeStamp, double[] target, double cost)
+		{
+			this.keep = keep;
+			this.remove = remove;
+			this.keepStamp = keepStamp;
+			this.removeStamp = removeStamp;
+			this.target = target;
+			this.cost = cost;
+		}
+
+		@Override
+		public int compareTo(Candidate other)
+		{
+			return Double.compare(cost, other.cost);
+		}
+	}
+}
@@ -0,0 +1,205 @@
+package de.jcm.openscad.colorhelper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Removes the faces where parts of different colors touch. Each color is rendered on its own, so both parts keep
+ * their face at the interface and the merged model has two coincident, opposing triangles there, which are hidden
+ * inside the model and make viewers flicker. Only meant for visual outputs: the culled meshes are open, which
+ * printable formats like 3MF do not allow. Triangles are found through a spatial hash of their centroids and
+ * removed in pairs if their corners coincide (within the tolerance) and their normals point in opposite directions.
+ * Interfaces that OpenSCAD triangulated differently on both sides are kept.
+ */
+public class FaceCuller
+{
+	// normals of opposing faces, allowing for the rounding of nearly degenerate triangles
+	private static final double MAX_NORMAL_DOT = -0.99;
+
+	private double tolerance;
+
+	/**
+	 * @param tolerance largest distance between corners of faces that count as coincident, 0 for identical only
+	 */
+	public FaceCuller(double tolerance)
+	{
+		this.tolerance = tolerance;
+	}
+
+	/**
+	 * @param meshes the meshes of one group, null for colors without one
+	 * @return the meshes without their internal faces, the same mesh if it has none
+	 */
+	public List<IndexedMesh> cull(List<IndexedMesh> meshes)
+	{
+		int count = 0;
+		for(IndexedMesh mesh : meshes)
+		{
+			if(mesh != null)
+				count += mesh.getFaceCount();
+		}
+
+		Faces faces = new Faces(count, tolerance);
+		for(int m = 0; m < meshes.size(); m++)
+		{
+			IndexedMesh mesh = meshes.get(m);
+			if(mesh == null)
+				continue;
+			for(int f = 0; f < mesh.getFaceCount(); f++)
+				faces.add(m, f, mesh);
+		}
+
+		boolean[][] removed = new boolean[meshes.size()][];
+		for(int m = 0; m < meshes.size(); m++)
+			removed[m] = meshes.get(m) == null ? null : new boolean[meshes.get(m).getFaceCount()];
+
+		boolean[] any = new boolean[meshes.size()];
+		int reach = tolerance > 0 ? 1 : 0;
+		for(int i = 0; i < faces.size; i++)
+		{
+			if(removed[faces.mesh[i]][faces.face[i]])
+				continue;
+
+			long kx = faces.key(i, 0), ky = faces.key(i, 1), kz = faces.key(i, 2);
+			search:
+			for(long x = kx - reach; x <= kx + reach; x++)
+			{
+				for(long y = ky - reach; y <= ky + reach; y++)
+				{
+					for(long z = kz - reach; z <= kz + reach; z++)
+					{
+						for(int j = faces.head[IndexedMesh.gridHash(x, y, z) & faces.mask]; j >= 0; j = faces.next[j])
+						{
+							if(j == i || faces.mesh[j] == faces.mesh[i] || removed[faces.mesh[j]][faces.face[j]])
+								continue;
+							if(!opposing(faces, i, j) || !coincident(meshes, faces, i, j))
+								continue;
+
+							removed[faces.mesh[i]][faces.face[i]] = true;
+							removed[faces.mesh[j]][faces.face[j]] = true;
+							any[faces.mesh[i]] = true;
+							any[faces.mesh[j]] = true;
+							break search;
+						}
+					}
+				}
+			}
+		}
+
+		List<IndexedMesh> culled = new ArrayList<>(meshes.size());
+		for(int m = 0; m < meshes.size(); m++)
+			culled.add(any[m] ? meshes.get(m).without(removed[m]) : meshes.get(m));
+		return culled;
+	}
+
+	private static boolean opposing(Faces faces, int i, int j)
+	{
+		double dot = faces.normals[i * 3] * faces.normals[j * 3]
+				+ faces.normals[i * 3 + 1] * faces.normals[j * 3 + 1]
+				+ faces.normals[i * 3 + 2] * faces.normals[j * 3 + 2];
+		return dot < MAX_NORMAL_DOT;
+	}
+
+	/**
+	 * Every corner of one face has a corner of the other within the tolerance.
+	 */
+	private boolean coincident(List<IndexedMesh> meshes, Faces faces, int i, int j)
+	{
+		IndexedMesh a = meshes.get(faces.mesh[i]);
+		IndexedMesh b = meshes.get(faces.mesh[j]);
+		double limit = tolerance * tolerance;
+		for(int c = 0; c < 3; c++)
+		{
+			int va = a.getFaceVertex(faces.face[i], c);
+			boolean found = false;
+			for(int d = 0; d < 3 && !found; d++)
+			{
+				int vb = b.getFaceVertex(faces.face[j], d);
+				double dx = a.getVertex(va, 0) - b.getVertex(vb, 0);
+				double dy = a.getVertex(va, 1) - b.getVertex(vb, 1);
+				double dz = a.getVertex(va, 2) - b.getVertex(vb, 2);
+				found = dx * dx + dy * dy + dz * dz <= limit;
+			}
+			if(!found)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * The faces of all meshes with their centroid and normal, chained into buckets by the grid cell their centroid
+	 * is in. Without a tolerance, cells are single points, so only faces with identical centroids meet.
+	 */
+	private static class Faces
+	{
+		private double tolerance;
+
+		private int[] mesh;
+		private int[] face;
+		private double[] centroids;
+		private double[] normals;
+		private int size;
+
+		private int[] head;
+		private int[] next;
+		private int mask;
+
+		private Faces(int capacity, double tolerance)
+		{
+			this.tolerance = tolerance;
+			this.mesh = new int[capacity];
+			this.face = new int[capacity];
+			this.centroids = new double[capacity * 3];
+			this.normals = new double[capacity * 3];
+			this.next = new int[capacity];
+
+			int buckets = Integer.highestOneBit(Math.max(capacity, 8) - 1) << 1;
+			this.head = new int[buckets];
+			Arrays.fill(head, -1);
+			this.mask = buckets - 1;
+		}
+
+		private void add(int m, int f, IndexedMesh indexed)
+		{
+			int i = size++;
+			mesh[i] = m;
+			face[i] = f;
+
+			int a = indexed.getFaceVertex(f, 0), b = indexed.getFaceVertex(f, 1), c = indexed.getFaceVertex(f, 2);
+			for(int axis = 0; axis < 3; axis++)
+			{
+				// summed in the same order whatever the winding, so identical faces get identical centroids
+				double p = indexed.getVertex(a, axis), q = indexed.getVertex(b, axis), r = indexed.getVertex(c, axis);
+				double min = Math.min(p, Math.min(q, r)), max = Math.max(p, Math.max(q, r));
+				double median = Math.max(Math.min(p, q), Math.min(Math.max(p, q), r));
+				centroids[i * 3 + axis] = (min + median + max) / 3;
+			}
+
+			// from the corners, since welding may have merged the normals of several faces
+			double ux = indexed.getVertex(b, 0) - indexed.getVertex(a, 0);
+			double uy = indexed.getVertex(b, 1) - indexed.getVertex(a, 1);
+			double uz = indexed.getVertex(b, 2) - indexed.getVertex(a, 2);
+			double vx = indexed.getVertex(c, 0) - indexed.getVertex(a, 0);
+			double vy = indexed.getVertex(c, 1) - indexed.getVertex(a, 1);
+			double vz = indexed.getVertex(c, 2) - indexed.getVertex(a, 2);
+			double nx = uy * vz - uz * vy, ny = uz * vx - ux * vz, nz = ux * vy - uy * vx;
+			double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+			if(length > 0)
+			{
+				normals[i * 3] = nx / length;
+				normals[i * 3 + 1] = ny / length;
+				normals[i * 3 + 2] = nz / length;
+			}
+
+			int bucket = IndexedMesh.gridHash(key(i, 0), key(i, 1), key(i, 2)) & mask;
+			next[i] = head[bucket];
+			head[bucket] = i;
+		}
+
+		private long key(int i, int axis)
+		{
+			return IndexedMesh.gridKey(centroids[i * 3 + axis], tolerance);
+		}
+	}
+}
@@ -0,0 +1,388 @@
+package de.jcm.openscad.colorhelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Writes a group as binary glTF 2.0: one mesh with one primitive per color, each with indexed float32 positions
+ * and normals and its own material.
+ */
+public class GLBWriter
+{
+	private static final int MAGIC = 0x46546C67;
+	private static final int VERSION = 2;
+	private static final int CHUNK_JSON = 0x4E4F534A;
+	private static final int CHUNK_BIN = 0x004E4942;
+
+	private static final int ARRAY_BUFFER = 34962;
+	private static final int ELEMENT_ARRAY_BUFFER = 34963;
+	private static final int FLOAT = 5126;
+	private static final int UNSIGNED_SHORT = 5123;
+	private static final int UNSIGNED_INT = 5125;
+
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private ArrayList<Primitive> primitives = new ArrayList<>();
+
+	/**
+	 * @param r red in sRGB, 0 to 1
+	 * @param g green in sRGB, 0 to 1
+	 * @param b blue in sRGB, 0 to 1
+	 */
+	public void add(String material, double r, double g, double b, IndexedMesh mesh)
+	{
+		if(mesh.getFaceCount() > 0)
+			primitives.add(new Primitive(material, r, g, b, mesh));
+	}
+
+	public void write(File file, String name) throws IOException
+	{
+		// lay out the binary chunk: indices, positions and normals of every primitive, each 4 byte aligned
+		long offset = 0;
+		for(Primitive primitive : primitives)
+		{
+			primitive.indexOffset = offset;
+			offset += align(primitive.indexBytes());
+			primitive.positionOffset = offset;
+			offset += primitive.vertexCount * 12L;
+			primitive.normalOffset = offset;
+			offset += primitive.vertexCount * 12L;
+		}
+		long binLength = offset;
+		if(binLength > Integer.MAX_VALUE)
+			throw new IOException("Group " + name + " is too large for a GLB file");
+
+		byte[] json = json(name, binLength).getBytes(StandardCharsets.UTF_8);
+		int jsonLength = (int) align(json.length);
+		long total = 12 + 8 + jsonLength + (binLength > 0 ? 8 + binLength : 0);
+
+		try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE,
+		                                           StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING))
+		{
+			ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			buffer.putInt(MAGIC);
+			buffer.putInt(VERSION);
+			buffer.putInt((int) total);
+
+			buffer.putInt(jsonLength);
+			buffer.putInt(CHUNK_JSON);
+			flush(channel, buffer);
+			ByteBuffer data = ByteBuffer.wrap(json);
+			while(data.hasRemaining())
+				channel.write(data);
+			for(int i = json.length; i < jsonLength; i++)
+				buffer.put((byte) ' ');
+
+			if(binLength > 0)
+			{
+				buffer.putInt((int) binLength);
+				buffer.putInt(CHUNK_BIN);
+				for(Primitive primitive : primitives)
+				{
+					for(int i = 0; i < primitive.indices.length; i++)
+					{
+						ensure(channel, buffer, 4);
+						if(primitive.shortIndices())
+							buffer.putShort((short) primitive.indices[i]);
+						else
+							buffer.putInt(primitive.indices[i]);
+					}
+					for(long i = primitive.indexBytes(); i < align(primitive.indexBytes()); i++)
+						buffer.put((byte) 0);
+
+					for(float value : primitive.positions)
+					{
+						ensure(channel, buffer, 4);
+						buffer.putFloat(value);
+					}
+					for(float value : primitive.normals)
+					{
+						ensure(channel, buffer, 4);
+						buffer.putFloat(value);
+					}
+				}
+			}
+			flush(channel, buffer);
+		}
+	}
+
+	private String json(String name, long binLength)
+	{
+		StringBuilder json = new StringBuilder();
+		json.append("{\"asset\":{\"version\":\"2.0\",\"generator\":\"OpenSCAD ColorHelper\"}");
+		json.append(",\"scene\":0");
+		if(primitives.isEmpty())
+		{
+			// a mesh needs at least one primitive, so an empty group is an empty scene
+			json.append(",\"scenes\":[{\"name\":").append(string(name)).append(",\"nodes\":[]}]}");
+			return json.toString();
+		}
+
+		json.append(",\"scenes\":[{\"name\":").append(string(name)).append(",\"nodes\":[0]}]");
+		// OpenSCAD is Z up, glTF is Y up
+		json.append(",\"nodes\":[{\"name\":").append(string(name))
+				.append(",\"mesh\":0,\"rotation\":[-0.7071068,0,0,0.7071068]}]");
+
+		json.append(",\"meshes\":[{\"name\":").append(string(name)).append(",\"primitives\":[");
+		for(int i = 0; i < primitives.size(); i++)
+		{
+			if(i > 0)
+				json.append(',');
+			json.append("{\"attributes\":{\"POSITION\":").append(i * 3 + 1).append(",\"NORMAL\":").append(i * 3 + 2)
+					.append("},\"indices\":").append(i * 3).append(",\"material\":").append(i).append('}');
+		}
+		json.append("]}]");
+
+		json.append(",\"materials\":[");
+		for(int i = 0; i < primitives.size(); i++)
+		{
+			Primitive primitive = primitives.get(i);
+			if(i > 0)
+				json.append(',');
+			json.append("{\"name\":").append(string(primitive.material))
+					.append(",\"pbrMetallicRoughness\":{\"baseColorFactor\":[")
+					.append(number(linear(primitive.r))).append(',')
+					.append(number(linear(primitive.g))).append(',')
+					.append(number(linear(primitive.b))).append(",1]")
+					.append(",\"metallicFactor\":0,\"roughnessFactor\":1}}");
+		}
+		json.append(']');
+
+		json.append(",\"accessors\":[");
+		for(int i = 0; i < primitives.size(); i++)
+		{
+			Primitive primitive = primitives.get(i);
+			if(i > 0)
+				json.append(',');
+			json.append("{\"bufferView\":").append(i * 3)
+					.append(",\"componentType\":").append(primitive.shortIndices() ? UNSIGNED_SHORT : UNSIGNED_INT)
+					.append(",\"count\":").append(primitive.indices.length).append(",\"type\":\"SCALAR\"}");
+			json.append(",{\"bufferView\":").append(i * 3 + 1).append(",\"componentType\":").append(FLOAT)
+					.append(",\"count\":").append(primitive.vertexCount).append(",\"type\":\"VEC3\"")
+					.append(",\"min\":").append(vector(primitive.min)).append(",\"max\":")
+					.append(vector(primitive.max)).append('}');
+			json.append(",{\"bufferView\":").append(i * 3 + 2).append(",\"componentType\":").append(FLOAT)
+					.append(",\"count\":").append(primitive.vertexCount).append(",\"type\":\"VEC3\"}");
+		}
+		json.append(']');
+
+		json.append(",\"bufferViews\":[");
+		for(int i = 0; i < primitives.size(); i++)
+		{
+			Primitive primitive = primitives.get(i);
+			if(i > 0)
+				json.append(',');
+			view(json, primitive.indexOffset, primitive.indexBytes(), ELEMENT_ARRAY_BUFFER);
+			json.append(',');
+			view(json, primitive.positionOffset, primitive.vertexCount * 12L, ARRAY_BUFFER);
+			json.append(',');
+			view(json, primitive.normalOffset, primitive.vertexCount * 12L, ARRAY_BUFFER);
+		}
+		json.append(']');
+
+		json.append(",\"buffers\":[{\"byteLength\":").append(binLength).append("}]}");
+		return json.toString();
+	}
+
+	private static void view(StringBuilder json, long offset, long length, int target)
+	{
+		json.append("{\"buffer\":0,\"byteOffset\":").append(offset).append(",\"byteLength\":").append(length)
+				.append(",\"target\":").append(target).append('}');
+	}
+
+	private static String vector(float[] v)
+	{
+		return "[" + number(v[0]) + "," + number(v[1]) + "," + number(v[2]) + "]";
+	}
+
+	private static String number(double value)
+	{
+		String s = String.format(Locale.ROOT, "%.7g", value);
+		if(s.contains("e"))
+			return s;
+		if(s.contains("."))
+		{
+			s = s.replaceAll("0+$", "");
+			if(s.endsWith("."))
+				s = s.substring(0, s.length() - 1);
+		}
+		return s;
+	}
+
+	private static String string(String value)
+	{
+		StringBuilder builder = new StringBuilder("\"");
+		for(int i = 0; i < value.length(); i++)
+		{
+			char c = value.charAt(i);
+			if(c == '"' || c == '\\')
+				builder.append('\\').append(c);
+			else if(c < 0x20)
+				builder.append(String.format("\\u%04x", (int) c));
+			else
+				builder.append(c);
+		}
+		return builder.append('"').toString();
+	}
+
+	/**
+	 * glTF colors are linear, OBJ/MTL and OpenSCAD colors are sRGB.
+	 */
+	private static double linear(double srgb)
+	{
+		if(srgb <= 0.04045)
+			return srgb / 12.92;
+		return Math.pow((srgb + 0.055) / 1.055, 2.4);
+	}
+
+	private static long align(long length)
+	{
+		return (length + 3) & ~3L;
+	}
+
+	private static void ensure(FileChannel channel, ByteBuffer buffer, int bytes) throws IOException
+	{
+		if(buffer.remaining() < bytes)
+			flush(channel, buffer);
+	}
+
+	private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException
+	{
+		buffer.flip();
+		while(buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+	}
+
+	/**
+	 * glTF has one index per vertex for all attributes, so every distinct vertex/normal pair of the mesh becomes
+	 * one vertex.
+	 */
+	private static class Primitive
+	{
+		private String material;
+		private double r, g, b;
+
+		private int vertexCount;
+		private float[] positions;
+		private float[] normals;
+		private int[] indices;
+		private float[] min = {Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE};
+		private float[] max = {-Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE};
+
+		private long indexOffset;
+		private long positionOffset;
+		private long normalOffset;
+
+		private Primitive(String material, double r, double g, double b, IndexedMesh mesh)
+		{
+			this.material = material;
+			this.r = r;
+			this.g = g;
+			this.b = b;
+
+			int faces = mesh.getFaceCount();
+			indices = new int[faces * 3];
+			positions = new float[Math.max(mesh.getVertexCount(), 4) * 3];
+			normals = new float[positions.length];
+
+			// open addressing from (vertex << 32 | normal) to the new vertex index
+			int capacity = Integer.highestOneBit(Math.max(mesh.getVertexCount() * 2, 8) - 1) << 2;
+			long[] keys = new long[capacity];
+			int[] slots = new int[capacity];
+			Arrays.fill(slots, -1);
+			int mask = capacity - 1;
+
+			for(int f = 0; f < faces; f++)
+			{
+				int normal = mesh.getFaceNormal(f);
+				for(int c = 0; c < 3; c++)
+				{
+					int vertex = mesh.getFaceVertex(f, c);
+					long key = (long) vertex << 32 | normal;
+
+					int slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+					while(slots[slot] >= 0 && keys[slot] != key)
+						slot = (slot + 1) & mask;
+
+					if(slots[slot] < 0)
+					{
+						if(vertexCount * 2 >= capacity)
+						{
+							// rehash into a table twice the size
+							long[] oldKeys = keys;
+							int[] oldSlots = slots;
+							capacity *= 2;
+							keys = new long[capacity];
+							slots = new int[capacity];
+							Arrays.fill(slots, -1);
+							mask = capacity - 1;
+							for(int i = 0; i < oldSlots.length; i++)
+							{
+								if(oldSlots[i] < 0)
+									continue;
+								int s = (int) ((oldKeys[i] * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+								while(slots[s] >= 0)
+									s = (s + 1) & mask;
+								keys[s] = oldKeys[i];
+								slots[s] = oldSlots[i];
+							}
+							slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+							while(slots[slot] >= 0)
+								slot = (slot + 1) & mask;
+						}
+
+						if(vertexCount * 3 == positions.length)
+						{
+							positions = Arrays.copyOf(positions, positions.length * 2);
+							normals = Arrays.copyOf(normals, normals.length * 2);
+						}
+						// glTF requires unit normals, STL normals are only roughly normalized
+						double nx = mesh.getNormal(normal, 0);
+						double ny = mesh.getNormal(normal, 1);
+						double nz = mesh.getNormal(normal, 2);
+						double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+						if(length == 0)
+							length = 1;
+						normals[vertexCount * 3] = (float) (nx / length);
+						normals[vertexCount * 3 + 1] = (float) (ny / length);
+						normals[vertexCount * 3 + 2] = (float) (nz / length);
+
+						for(int axis = 0; axis < 3; axis++)
+						{
+							float p = (float) mesh.getVertex(vertex, axis);
+							positions[vertexCount * 3 + axis] = p;
+							min[axis] = Math.min(min[axis], p);
+							max[axis] = Math.max(max[axis], p);
+						}
+
+						keys[slot] = key;
+						slots[slot] = vertexCount++;
+					}
+					indices[f * 3 + c] = slots[slot];
+				}
+			}
+
+			positions = Arrays.copyOf(positions, vertexCount * 3);
+			normals = Arrays.copyOf(normals, vertexCount * 3);
+		}
+
+		private boolean shortIndices()
+		{
+			return vertexCount <= 0xFFFF;
+		}
+
+		private long indexBytes()
+		{
+			return indices.length * (shortIndices() ? 2L : 4L);
+		}
+	}
+}
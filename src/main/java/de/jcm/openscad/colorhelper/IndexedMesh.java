@@ -0,0 +1,397 @@
+package de.jcm.openscad.colorhelper;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class IndexedMesh
+{
+	private String name;
+
+	private double[] vertices;
+	private int vertexCount;
+	private double[] normals;
+	private int normalCount;
+
+	// three vertex indices and one normal index per face, all zero based
+	private int[] faces;
+	private int faceCount;
+
+	private IndexedMesh(String name, int faceCount)
+	{
+		this.name = name;
+		this.faces = new int[faceCount * 4];
+		this.faceCount = faceCount;
+	}
+
+	/**
+	 * Builds a mesh from welded vertices and triangles, with one flat normal per face.
+	 */
+	static IndexedMesh of(String name, double[] vertices, int vertexCount, int[] triangles, int faceCount)
+	{
+		IndexedMesh indexed = new IndexedMesh(name, faceCount);
+		indexed.vertices = vertices;
+		indexed.vertexCount = vertexCount;
+
+		Index normalIndex = new Index(faceCount, 0);
+		for(int i = 0; i < faceCount; i++)
+		{
+			int a = triangles[i * 3] * 3, b = triangles[i * 3 + 1] * 3, c = triangles[i * 3 + 2] * 3;
+			double ux = vertices[b] - vertices[a], uy = vertices[b + 1] - vertices[a + 1], uz = vertices[b + 2] - vertices[a + 2];
+			double vx = vertices[c] - vertices[a], vy = vertices[c + 1] - vertices[a + 1], vz = vertices[c + 2] - vertices[a + 2];
+			double nx = uy * vz - uz * vy, ny = uz * vx - ux * vz, nz = ux * vy - uy * vx;
+			double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+			if(length > 0)
+			{
+				nx /= length;
+				ny /= length;
+				nz /= length;
+			}
+
+			indexed.faces[i * 4] = triangles[i * 3];
+			indexed.faces[i * 4 + 1] = triangles[i * 3 + 1];
+			indexed.faces[i * 4 + 2] = triangles[i * 3 + 2];
+			indexed.faces[i * 4 + 3] = normalIndex.add(nx, ny, nz);
+		}
+
+		indexed.normals = normalIndex.coordinates;
+		indexed.normalCount = normalIndex.size;
+		return indexed;
+	}
+
+	/**
+	 * Merges the vertices of the triangles that are no further apart than the tolerance, and identical normals.
+	 * Triangles with corners merged into one are left out.
+	 */
+	public static IndexedMesh weld(Mesh mesh, double tolerance)
+	{
+		IndexedMesh indexed = new IndexedMesh(mesh.getName(), mesh.size());
+
+		Index vertexIndex = new Index(mesh.size() * 3, tolerance);
+		Index normalIndex = new Index(mesh.size(), 0);
+
+		int face = 0;
+		for(int i = 0; i < mesh.size(); i++)
+		{
+			for(int j = 0; j < 3; j++)
+			{
+				indexed.faces[face * 4 + j] = vertexIndex.add(mesh.getVertex(i, j, 0),
+				                                              mesh.getVertex(i, j, 1),
+				                                              mesh.getVertex(i, j, 2));
+			}
+
+			// welding collapses slivers thinner than the tolerance into lines or points, which are no faces
+			int a = indexed.faces[face * 4], b = indexed.faces[face * 4 + 1], c = indexed.faces[face * 4 + 2];
+			if(a == b || b == c || a == c)
+				continue;
+
+			indexed.faces[face * 4 + 3] = normalIndex.add(mesh.getNormal(i, 0),
+			                                              mesh.getNormal(i, 1),
+			                                              mesh.getNormal(i, 2));
+			face++;
+		}
+		indexed.faceCount = face;
+
+		indexed.vertices = vertexIndex.coordinates;
+		indexed.vertexCount = vertexIndex.size;
+		indexed.normals = normalIndex.coordinates;
+		indexed.normalCount = normalIndex.size;
+
+		return indexed;
+	}
+
+	/**
+	 * @param removed faces to leave out
+	 * @return a copy without those faces and without the vertices and normals only they used
+	 */
+	IndexedMesh without(boolean[] removed)
+	{
+		int count = 0;
+		for(boolean r : removed)
+		{
+			if(!r)
+				count++;
+		}
+
+		IndexedMesh mesh = new IndexedMesh(name, count);
+		int[] vertexMap = new int[vertexCount];
+		int[] normalMap = new int[normalCount];
+		Arrays.fill(vertexMap, -1);
+		Arrays.fill(normalMap, -1);
+		mesh.vertices = new double[vertexCount * 3];
+		mesh.normals = new double[normalCount * 3];
+
+		int face = 0;
+		for(int i = 0; i < faceCount; i++)
+		{
+			if(removed[i])
+				continue;
+
+			for(int j = 0; j < 3; j++)
+			{
+				int v = faces[i * 4 + j];
+				if(vertexMap[v] < 0)
+				{
+					vertexMap[v] = mesh.vertexCount++;
+					System.arraycopy(vertices, v * 3, mesh.vertices, vertexMap[v] * 3, 3);
+				}
+				mesh.faces[face * 4 + j] = vertexMap[v];
+			}
+			int n = faces[i * 4 + 3];
+			if(normalMap[n] < 0)
+			{
+				normalMap[n] = mesh.normalCount++;
+				System.arraycopy(normals, n * 3, mesh.normals, normalMap[n] * 3, 3);
+			}
+			mesh.faces[face * 4 + 3] = normalMap[n];
+			face++;
+		}
+		return mesh;
+	}
+
+	/**
+	 * Finds the vertices that meshes share, by welding the positions of all of them with the given tolerance.
+	 *
+	 * @param meshes meshes of one group, null for colors without one
+	 * @return for every mesh (null for missing ones) and vertex, whether another mesh has a vertex there too
+	 */
+	static boolean[][] seams(List<IndexedMesh> meshes, double tolerance)
+	{
+		int count = 0;
+		for(IndexedMesh mesh : meshes)
+			count += mesh == null ? 0 : mesh.vertexCount;
+
+		Index index = new Index(count * 2, tolerance);
+		int[][] ids = new int[meshes.size()][];
+		// the mesh a welded position occurs in, or -2 if it occurs in several
+		int[] owner = new int[Math.max(count, 1)];
+		Arrays.fill(owner, -1);
+		for(int m = 0; m < meshes.size(); m++)
+		{
+			IndexedMesh mesh = meshes.get(m);
+			if(mesh == null)
+				continue;
+
+			ids[m] = new int[mesh.vertexCount];
+			for(int v = 0; v < mesh.vertexCount; v++)
+			{
+				int id = index.add(mesh.vertices[v * 3], mesh.vertices[v * 3 + 1], mesh.vertices[v * 3 + 2]);
+				ids[m][v] = id;
+				if(owner[id] == -1)
+					owner[id] = m;
+				else if(owner[id] != m)
+					owner[id] = -2;
+			}
+		}
+
+		boolean[][] seams = new boolean[meshes.size()][];
+		for(int m = 0; m < meshes.size(); m++)
+		{
+			if(ids[m] == null)
+				continue;
+			seams[m] = new boolean[ids[m].length];
+			for(int v = 0; v < ids[m].length; v++)
+				seams[m][v] = owner[ids[m][v]] == -2;
+		}
+		return seams;
+	}
+
+	public String getName()
+	{
+		return name;
+	}
+
+	public int getVertexCount()
+	{
+		return vertexCount;
+	}
+
+	public double getVertex(int vertex, int axis)
+	{
+		return vertices[vertex * 3 + axis];
+	}
+
+	public int getNormalCount()
+	{
+		return normalCount;
+	}
+
+	public double getNormal(int normal, int axis)
+	{
+		return normals[normal * 3 + axis];
+	}
+
+	public int getFaceCount()
+	{
+		return faceCount;
+	}
+
+	public int getFaceVertex(int face, int corner)
+	{
+		return faces[face * 4 + corner];
+	}
+
+	public int getFaceNormal(int face)
+	{
+		return faces[face * 4 + 3];
+	}
+
+	/**
+	 * @return the cell of a grid with cells of the tolerance a coordinate is in, or with no tolerance the exact
+	 * coordinate
+	 */
+	static long gridKey(double value, double tolerance)
+	{
+		if(tolerance > 0)
+			return (long) Math.floor(value / tolerance);
+		// +0.0 and -0.0 are the same point
+		return Double.doubleToLongBits(value + 0.0);
+	}
+
+	static int gridHash(long x, long y, long z)
+	{
+		long h = x * 0x9E3779B97F4A7C15L;
+		h = (h ^ y) * 0xC2B2AE3D27D4EB4FL;
+		h = (h ^ z) * 0x165667B19E3779F9L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	/**
+	 * Hash from a point to its index. Without a tolerance only identical points share an index. With one, points
+	 * are sorted into a grid of cells of that size, and a point gets the index of the nearest point seen before it
+	 * that is no further away than the tolerance, searched in its own and the 26 neighbouring cells. Each index
+	 * keeps the coordinates of the first point that got it.
+	 */
+	private static class Index
+	{
+		private double tolerance;
+		private int reach;
+
+		// open addressing from a cell to the last point added in it
+		private long[] keys;
+		private int[] cells;
+		private int mask;
+		private int cellCount;
+
+		// per point: the point added before it in the same cell, or -1
+		private int[] next;
+		private double[] coordinates;
+		private int size;
+
+		private Index(int expected, double tolerance)
+		{
+			this.tolerance = tolerance;
+			this.reach = tolerance > 0 ? 1 : 0;
+
+			// closed meshes share each vertex between about six triangles, so start well below the worst case
+			int capacity = Integer.highestOneBit(Math.max(expected / 2, 8) - 1) << 1;
+			this.keys = new long[capacity * 3];
+			this.cells = new int[capacity];
+			Arrays.fill(cells, -1);
+			this.mask = capacity - 1;
+
+			this.next = new int[capacity / 2];
+			this.coordinates = new double[capacity / 2 * 3];
+		}
+
+		private long key(double value)
+		{
+			return gridKey(value, tolerance);
+		}
+
+		private int add(double x, double y, double z)
+		{
+			long kx = key(x);
+			long ky = key(y);
+			long kz = key(z);
+
+			int nearest = -1;
+			double best = tolerance * tolerance;
+			for(long cx = kx - reach; cx <= kx + reach; cx++)
+			{
+				for(long cy = ky - reach; cy <= ky + reach; cy++)
+				{
+					for(long cz = kz - reach; cz <= kz + reach; cz++)
+					{
+						for(int p = cells[find(cx, cy, cz)]; p >= 0; p = next[p])
+						{
+							double dx = coordinates[p * 3] - x;
+							double dy = coordinates[p * 3 + 1] - y;
+							double dz = coordinates[p * 3 + 2] - z;
+							double distance = dx * dx + dy * dy + dz * dz;
+							if(distance <= best && (nearest < 0 || distance < best))
+							{
+								nearest = p;
+								best = distance;
+							}
+						}
+					}
+				}
+			}
+			if(nearest >= 0)
+				return nearest;
+
+			if(size == next.length)
+			{
+				next = Arrays.copyOf(next, next.length * 2);
+				coordinates = Arrays.copyOf(coordinates, coordinates.length * 2);
+			}
+			coordinates[size * 3] = x;
+			coordinates[size * 3 + 1] = y;
+			coordinates[size * 3 + 2] = z;
+
+			int slot = find(kx, ky, kz);
+			if(cells[slot] < 0)
+			{
+				keys[slot * 3] = kx;
+				keys[slot * 3 + 1] = ky;
+				keys[slot * 3 + 2] = kz;
+				cellCount++;
+			}
+			next[size] = cells[slot];
+			cells[slot] = size;
+
+			if(cellCount > cells.length / 2)
+				grow();
+			return size++;
+		}
+
+		private int find(long kx, long ky, long kz)
+		{
+			int slot = gridHash(kx, ky, kz) & mask;
+			while(cells[slot] >= 0)
+			{
+				if(keys[slot * 3] == kx && keys[slot * 3 + 1] == ky && keys[slot * 3 + 2] == kz)
+					break;
+				slot = (slot + 1) & mask;
+			}
+			return slot;
+		}
+
+		private void grow()
+		{
+			long[] oldKeys = keys;
+			int[] oldCells = cells;
+
+			keys = new long[oldKeys.length * 2];
+			cells = new int[oldCells.length * 2];
+			Arrays.fill(cells, -1);
+			mask = cells.length - 1;
+
+			for(int i = 0; i < oldCells.length; i++)
+			{
+				if(oldCells[i] < 0)
+					continue;
+
+				long kx = oldKeys[i * 3];
+				long ky = oldKeys[i * 3 + 1];
+				long kz = oldKeys[i * 3 + 2];
+
+				int slot = find(kx, ky, kz);
+				keys[slot * 3] = kx;
+				keys[slot * 3 + 1] = ky;
+				keys[slot * 3 + 2] = kz;
+				cells[slot] = oldCells[i];
+			}
+		}
+	}
+}
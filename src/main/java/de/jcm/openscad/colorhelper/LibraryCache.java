@@ -0,0 +1,424 @@
+package de.jcm.openscad.colorhelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Scanner;
+
+/**
+ * Reads the SCAD files an input pulls in with include&lt;&gt; and use&lt;&gt; and keeps what it found in them: the
+ * content hash, the include and use statements and whether the file has any color() blocks. Files are looked up by
+ * path and only read again if their modification time or size changed, and even then keep their entry if the hash
+ * did not. The entries are saved to an index file, so unchanged libraries are not read at all in later runs unless
+ * their lines are needed for an include. Entries do not keep the lines, those are handed to the caller from the same
+ * read as the hash of the entry, so an entry never describes other content than them.
+ */
+public class LibraryCache
+{
+	private static final String INDEX = "libraries";
+	// first line of the index, entries written by another version may have been parsed differently
+	private static final String FORMAT = "libraries 2";
+
+	// null to keep the entries in memory only
+	private File directory;
+	private List<File> searchPath;
+	private boolean modified;
+
+	private HashMap<File, Library> libraries = new HashMap<>();
+
+	/**
+	 * @param directory  directory the index file is kept in, or null to not keep it across runs
+	 * @param searchPath directories that library paths are resolved in if they are not next to the file using them
+	 */
+	public LibraryCache(File directory, List<File> searchPath) throws IOException
+	{
+		this.directory = directory;
+		this.searchPath = searchPath;
+
+		if(directory != null)
+		{
+			directory.mkdirs();
+			load();
+		}
+	}
+
+	/**
+	 * The directories OpenSCAD searches for libraries: those in OPENSCADPATH, the user library directory and the
+	 * one of the installation.
+	 */
+	public static List<File> defaultSearchPath(File openSCAD)
+	{
+		List<File> path = new ArrayList<>();
+		String variable = System.getenv("OPENSCADPATH");
+		if(variable != null)
+		{
+			for(String entry : variable.split(File.pathSeparator))
+			{
+				if(!entry.isEmpty())
+					path.add(new File(entry));
+			}
+		}
+
+		String home = System.getProperty("user.home");
+		path.add(new File(home, "Documents" + File.separator + "OpenSCAD" + File.separator + "libraries"));
+		path.add(new File(home, ".local" + File.separator + "share" + File.separator + "OpenSCAD"
+				+ File.separator + "libraries"));
+		if(openSCAD != null && openSCAD.getAbsoluteFile().getParentFile() != null)
+			path.add(new File(openSCAD.getAbsoluteFile().getParentFile(), "libraries"));
+		return path;
+	}
+
+	private void load() throws IOException
+	{
+		File index = new File(directory, INDEX);
+		if(!index.exists())
+			return;
+
+		Scanner scanner = new Scanner(index, "UTF-8");
+		if(!scanner.hasNextLine() || !scanner.nextLine().equals(FORMAT))
+		{
+			scanner.close();
+			return;
+		}
+
+		Library library = null;
+		while(scanner.hasNextLine())
+		{
+			String line = scanner.nextLine();
+			String[] parts = line.split(" ", 6);
+			if(parts[0].equals("file") && parts.length == 6)
+			{
+				library = new Library(new File(parts[5]), Long.parseLong(parts[1]), Long.parseLong(parts[2]),
+				                      parts[3], parts[4].equals("1"), new ArrayList<>());
+				libraries.put(library.file, library);
+			}
+			else if((parts[0].equals("include") || parts[0].equals("use")) && library != null)
+			{
+				parts = line.split(" ", 3);
+				library.directives.add(new Directive(Integer.parseInt(parts[1]), parts[0].equals("include"),
+				                                     parts[2]));
+			}
+		}
+		scanner.close();
+	}
+
+	/**
+	 * Writes the index file if any entry changed since it was loaded.
+	 */
+	public synchronized void save() throws IOException
+	{
+		if(directory == null || !modified)
+			return;
+
+		// a run stopped while writing must not leave half an index behind
+		File temporary = File.createTempFile(INDEX, ".tmp", directory);
+		try
+		{
+			PrintStream print = new PrintStream(temporary, "UTF-8");
+			print.println(FORMAT);
+			for(Library library : libraries.values())
+			{
+				print.println("file " + library.modified + " " + library.size + " " + library.hash + " "
+						              + (library.colors ? 1 : 0) + " " + library.file.getPath());
+				for(Directive directive : library.directives)
+				{
+					print.println((directive.include ? "include " : "use ") + directive.line + " "
+							              + directive.target);
+				}
+			}
+			print.close();
+			if(print.checkError())
+				throw new IOException("Could not write " + temporary);
+
+			Files.move(temporary.toPath(), new File(directory, INDEX).toPath(), StandardCopyOption.REPLACE_EXISTING,
+			           StandardCopyOption.ATOMIC_MOVE);
+		}
+		finally
+		{
+			temporary.delete();
+		}
+		modified = false;
+	}
+
+	/**
+	 * Finds the file an include or use statement refers to, next to the file it is in or in the search path.
+	 *
+	 * @return the canonical file, or null if it does not exist
+	 */
+	public File resolve(File from, String target) throws IOException
+	{
+		File file = new File(target);
+		if(!file.isAbsolute())
+		{
+			file = new File(from.getAbsoluteFile().getParentFile(), target);
+			for(int i = 0; !file.isFile() && i < searchPath.size(); i++)
+				file = new File(searchPath.get(i), target);
+		}
+		return file.isFile() ? file.getCanonicalFile() : null;
+	}
+
+	/**
+	 * @return the entry of a file, read again only if it changed on disk
+	 */
+	public synchronized Library get(File file) throws IOException
+	{
+		file = file.getCanonicalFile();
+		long lastModified = file.lastModified();
+		long size = file.length();
+
+		Library library = libraries.get(file);
+		if(library != null && library.modified == lastModified && library.size == size)
+			return library;
+
+		return update(file, lastModified, size, Files.readAllBytes(file.toPath()), null);
+	}
+
+	/**
+	 * Like {@link #get(File)}, but always reads the file, as its lines are needed too.
+	 *
+	 * @param lines receives the lines of the file, from the same read the returned entry describes
+	 */
+	public synchronized Library read(File file, List<String> lines) throws IOException
+	{
+		file = file.getCanonicalFile();
+		// checked before reading, so a change during the read is noticed next time
+		long lastModified = file.lastModified();
+		long size = file.length();
+		byte[] bytes = Files.readAllBytes(file.toPath());
+
+		List<String> read = lines(bytes);
+		Library library = update(file, lastModified, size, bytes, read);
+		lines.addAll(read);
+		return library;
+	}
+
+	/**
+	 * Keeps the entry of a file if the hash of its content did not change, else parses the content.
+	 *
+	 * @param lines the lines of the content, or null to split them only if needed
+	 */
+	private Library update(File file, long lastModified, long size, byte[] bytes, List<String> lines)
+	{
+		String hash = hash(bytes);
+		Library library = libraries.get(file);
+		if(library != null && library.hash.equals(hash))
+		{
+			if(library.modified != lastModified || library.size != size)
+			{
+				// touched, but not changed
+				library.modified = lastModified;
+				library.size = size;
+				modified = true;
+			}
+			return library;
+		}
+
+		library = parse(file, lastModified, size, hash, lines != null ? lines : lines(bytes));
+		libraries.put(file, library);
+		modified = true;
+		return library;
+	}
+
+	private static Library parse(File file, long lastModified, long size, String hash, List<String> lines)
+	{
+		List<Directive> directives = new ArrayList<>();
+		boolean colors = false;
+		boolean comment = false;
+		for(int i = 0; i < lines.size(); i++)
+		{
+			// statements inside a block comment are commented out
+			if(!comment)
+			{
+				String trimmed = lines.get(i).trim();
+				if(trimmed.startsWith("color("))
+					colors = true;
+
+				Directive directive = Directive.parse(i, trimmed);
+				if(directive != null)
+					directives.add(directive);
+			}
+			comment = inComment(lines.get(i), comment);
+		}
+
+		return new Library(file, lastModified, size, hash, colors, directives);
+	}
+
+	/**
+	 * @param comment whether the line starts inside a block comment
+	 * @return whether a block comment is still open at the end of the line
+	 */
+	static boolean inComment(String line, boolean comment)
+	{
+		boolean string = false;
+		for(int i = 0; i < line.length(); i++)
+		{
+			char c = line.charAt(i);
+			char next = i + 1 < line.length() ? line.charAt(i + 1) : 0;
+			if(comment)
+			{
+				if(c == '*' && next == '/')
+				{
+					comment = false;
+					i++;
+				}
+			}
+			else if(string)
+			{
+				if(c == '\\')
+					i++;
+				else if(c == '"')
+					string = false;
+			}
+			else if(c == '"')
+			{
+				string = true;
+			}
+			else if(c == '/' && next == '/')
+			{
+				break;
+			}
+			else if(c == '/' && next == '*')
+			{
+				comment = true;
+				i++;
+			}
+		}
+		return comment;
+	}
+
+	// the same line breaks and charset as reading the input with a Scanner
+	private static List<String> lines(byte[] bytes)
+	{
+		List<String> lines = new ArrayList<>();
+		Scanner scanner = new Scanner(new String(bytes, Charset.defaultCharset()));
+		while(scanner.hasNextLine())
+			lines.add(scanner.nextLine());
+		scanner.close();
+		return lines;
+	}
+
+	private static String hash(byte[] bytes)
+	{
+		try
+		{
+			StringBuilder hash = new StringBuilder();
+			for(byte b : MessageDigest.getInstance("SHA-256").digest(bytes))
+				hash.append(String.format("%02x", b));
+			return hash.toString();
+		}
+		catch(NoSuchAlgorithmException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public static class Library
+	{
+		private File file;
+		private long modified;
+		private long size;
+		private String hash;
+		private boolean colors;
+		private List<Directive> directives;
+
+		private Library(File file, long modified, long size, String hash, boolean colors,
+		                List<Directive> directives)
+		{
+			this.file = file;
+			this.modified = modified;
+			this.size = size;
+			this.hash = hash;
+			this.colors = colors;
+			this.directives = directives;
+		}
+
+		public File getFile()
+		{
+			return file;
+		}
+
+		/**
+		 * @return SHA-256 of the content as hex string
+		 */
+		public String getHash()
+		{
+			return hash;
+		}
+
+		/**
+		 * @return whether any line starts a color() block
+		 */
+		public boolean hasColors()
+		{
+			return colors;
+		}
+
+		public List<Directive> getDirectives()
+		{
+			return Collections.unmodifiableList(directives);
+		}
+	}
+
+	/**
+	 * An include&lt;&gt; or use&lt;&gt; statement at the start of a line that is not inside a block comment.
+	 */
+	public static class Directive
+	{
+		private int line;
+		private boolean include;
+		private String target;
+
+		private Directive(int line, boolean include, String target)
+		{
+			this.line = line;
+			this.include = include;
+			this.target = target;
+		}
+
+		static Directive parse(int line, String trimmed)
+		{
+			boolean include = trimmed.startsWith("include");
+			if(!include && !trimmed.startsWith("use"))
+				return null;
+
+			String rest = trimmed.substring(include ? 7 : 3).trim();
+			int end = rest.indexOf('>');
+			if(!rest.startsWith("<") || end < 0)
+				return null;
+			return new Directive(line, include, rest.substring(1, end).trim());
+		}
+
+		/**
+		 * @return number of the line the statement is on
+		 */
+		public int getLine()
+		{
+			return line;
+		}
+
+		/**
+		 * @return true for include&lt;&gt;, false for use&lt;&gt;
+		 */
+		public boolean isInclude()
+		{
+			return include;
+		}
+
+		/**
+		 * @return the path as written in the statement
+		 */
+		public String getTarget()
+		{
+			return target;
+		}
+	}
+}
@@ -0,0 +1,172 @@
+package de.jcm.openscad.colorhelper;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+
+/**
+ * Triangle soup as read from an STL file. Triangles are packed into fixed size chunks of twelve floats or doubles
+ * each (normal first, then the three vertices), so growing the mesh never copies what has already been read and a
+ * mesh costs 48 or 96 bytes per triangle no matter how large it gets. Chunks can live outside the heap.
+ */
+public class Mesh
+{
+	private static final int CHUNK_SHIFT = 14;
+	// triangles per chunk
+	private static final int CHUNK = 1 << CHUNK_SHIFT;
+	private static final int CHUNK_MASK = CHUNK - 1;
+	private static final int VALUES = 12;
+
+	private String name;
+
+	private boolean singlePrecision;
+	private boolean offHeap;
+	// bytes per triangle
+	private int stride;
+
+	private ArrayList<ByteBuffer> chunks = new ArrayList<>();
+	// triangles the last chunk has room for, it only grows up to CHUNK
+	private int lastCapacity;
+	private int size;
+
+	public Mesh(String name)
+	{
+		this(name, 16);
+	}
+
+	public Mesh(String name, int capacity)
+	{
+		this(name, capacity, false, false);
+	}
+
+	/**
+	 * @param capacity        expected number of triangles
+	 * @param singlePrecision store coordinates as float, which is lossless for binary STL
+	 * @param offHeap         keep the chunks in direct buffers, outside the Java heap
+	 */
+	public Mesh(String name, int capacity, boolean singlePrecision, boolean offHeap)
+	{
+		this.name = name;
+		this.singlePrecision = singlePrecision;
+		this.offHeap = offHeap;
+		this.stride = VALUES * (singlePrecision ? Float.BYTES : Double.BYTES);
+		this.lastCapacity = Math.min(Math.max(capacity, 1), CHUNK);
+	}
+
+	private ByteBuffer allocate(int triangles)
+	{
+		int bytes = triangles * stride;
+		ByteBuffer chunk = offHeap ? ByteBuffer.allocateDirect(bytes) : ByteBuffer.allocate(bytes);
+		return chunk.order(ByteOrder.nativeOrder());
+	}
+
+	public String getName()
+	{
+		return name;
+	}
+
+	public void setName(String name)
+	{
+		this.name = name;
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	public boolean isSinglePrecision()
+	{
+		return singlePrecision;
+	}
+
+	/**
+	 * @return bytes held by the chunks, including unused room in the last one
+	 */
+	public long getMemory()
+	{
+		if(chunks.isEmpty())
+			return 0;
+		return ((long) (chunks.size() - 1) * CHUNK + lastCapacity) * stride;
+	}
+
+	public void addTriangle(double nx, double ny, double nz,
+	                        double x0, double y0, double z0,
+	                        double x1, double y1, double z1,
+	                        double x2, double y2, double z2)
+	{
+		int index = size & CHUNK_MASK;
+		if(index == 0)
+		{
+			// the first chunk is sized by the capacity hint, all following ones are full size
+			if(!chunks.isEmpty())
+				lastCapacity = CHUNK;
+			chunks.add(allocate(lastCapacity));
+		}
+		else if(index == lastCapacity)
+		{
+			// only the first chunk can be short, double it until it is full size
+			lastCapacity = Math.min(lastCapacity * 2, CHUNK);
+			ByteBuffer grown = allocate(lastCapacity);
+			ByteBuffer old = chunks.get(chunks.size() - 1);
+			old.clear();
+			grown.put(old);
+			grown.clear();
+			chunks.set(chunks.size() - 1, grown);
+		}
+
+		ByteBuffer chunk = chunks.get(chunks.size() - 1);
+		int offset = index * stride;
+		if(singlePrecision)
+		{
+			chunk.putFloat(offset, (float) nx);
+			chunk.putFloat(offset + 4, (float) ny);
+			chunk.putFloat(offset + 8, (float) nz);
+			chunk.putFloat(offset + 12, (float) x0);
+			chunk.putFloat(offset + 16, (float) y0);
+			chunk.putFloat(offset + 20, (float) z0);
+			chunk.putFloat(offset + 24, (float) x1);
+			chunk.putFloat(offset + 28, (float) y1);
+			chunk.putFloat(offset + 32, (float) z1);
+			chunk.putFloat(offset + 36, (float) x2);
+			chunk.putFloat(offset + 40, (float) y2);
+			chunk.putFloat(offset + 44, (float) z2);
+		}
+		else
+		{
+			chunk.putDouble(offset, nx);
+			chunk.putDouble(offset + 8, ny);
+			chunk.putDouble(offset + 16, nz);
+			chunk.putDouble(offset + 24, x0);
+			chunk.putDouble(offset + 32, y0);
+			chunk.putDouble(offset + 40, z0);
+			chunk.putDouble(offset + 48, x1);
+			chunk.putDouble(offset + 56, y1);
+			chunk.putDouble(offset + 64, z1);
+			chunk.putDouble(offset + 72, x2);
+			chunk.putDouble(offset + 80, y2);
+			chunk.putDouble(offset + 88, z2);
+		}
+
+		size++;
+	}
+
+	private double get(int triangle, int value)
+	{
+		ByteBuffer chunk = chunks.get(triangle >>> CHUNK_SHIFT);
+		int index = triangle & CHUNK_MASK;
+		if(singlePrecision)
+			return chunk.getFloat(index * stride + value * Float.BYTES);
+		return chunk.getDouble(index * stride + value * Double.BYTES);
+	}
+
+	public double getVertex(int triangle, int vertex, int axis)
+	{
+		return get(triangle, 3 + vertex * 3 + axis);
+	}
+
+	public double getNormal(int triangle, int axis)
+	{
+		return get(triangle, axis);
+	}
+}
@@ -0,0 +1,274 @@
+package de.jcm.openscad.colorhelper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Merges the per-color OBJ files of a group into one OBJ file. Vertex and normal lines are copied as they are,
+ * only the indices in face lines are shifted by the running vertex and normal counts. Every file is processed in
+ * ranges of whole lines that are encoded in parallel and written in order, so only a few ranges per core are held
+ * in memory at any time.
+ */
+public class OBJMerger
+{
+	private static final byte[] VERTEX = "v ".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] NORMAL = "vn ".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] FACE = "f ".getBytes(StandardCharsets.US_ASCII);
+
+	// bytes of a file handled by one parallel task, extended to the end of the line
+	private static final int RANGE_SIZE = 1 << 20;
+
+	private LinkedList<File> files = new LinkedList<>();
+	private LinkedList<String> materials = new LinkedList<>();
+
+	public void add(File obj, String material)
+	{
+		files.add(obj);
+		materials.add(material);
+	}
+
+	public void merge(OBJWriter writer) throws IOException
+	{
+		int[] vertices = new int[files.size()];
+		int[] normals = new int[files.size()];
+
+		int i = 0;
+		for(File file : files)
+			vertices[i++] = process(writer, file, VERTEX, 0, 0);
+		i = 0;
+		for(File file : files)
+			normals[i++] = process(writer, file, NORMAL, 0, 0);
+
+		int vertex = 0;
+		int normal = 0;
+		i = 0;
+		for(File file : files)
+		{
+			writer.line("usemtl " + materials.get(i));
+			process(writer, file, FACE, vertex, normal);
+
+			vertex += vertices[i];
+			normal += normals[i];
+			i++;
+		}
+	}
+
+	/**
+	 * Writes all lines of a file that start with the prefix, shifting the indices of face lines.
+	 *
+	 * @return number of lines written
+	 */
+	private int process(OBJWriter writer, File file, byte[] prefix, int vertexOffset, int normalOffset)
+			throws IOException
+	{
+		try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+		{
+			long[] ranges = ranges(channel);
+			int[] count = new int[1];
+			OrderedTasks.run(ranges.length - 1, task -> {
+				// positional reads can run in parallel, and unlike a mapping leave the file free to be replaced
+				ByteBuffer range = ByteBuffer.allocate((int) (ranges[task + 1] - ranges[task]));
+				while(range.hasRemaining())
+				{
+					if(channel.read(range, ranges[task] + range.position()) < 0)
+						break;
+				}
+				range.flip();
+				return new Range(prefix, vertexOffset, normalOffset).process(range);
+			}, range -> {
+				writer.write(range.bytes, 0, range.bytes.length);
+				count[0] += range.lines;
+			});
+			return count[0];
+		}
+	}
+
+	/**
+	 * Splits a file into ranges of about {@link #RANGE_SIZE} bytes that end after a line break (or at the end).
+	 *
+	 * @return the offsets the ranges start at, followed by the size of the file
+	 */
+	private static long[] ranges(FileChannel channel) throws IOException
+	{
+		long size = channel.size();
+		List<Long> starts = new ArrayList<>();
+		starts.add(0L);
+
+		ByteBuffer buffer = ByteBuffer.allocate(256);
+		long position = RANGE_SIZE;
+		while(position < size)
+		{
+			// find the end of the line the nominal boundary falls into
+			long end = -1;
+			while(end < 0 && position < size)
+			{
+				buffer.clear();
+				int read = channel.read(buffer, position);
+				if(read <= 0)
+					break;
+				for(int i = 0; i < read; i++)
+				{
+					if(buffer.get(i) == '\n')
+					{
+						end = position + i + 1;
+						break;
+					}
+				}
+				if(end < 0)
+					position += read;
+			}
+			if(end < 0 || end >= size)
+				break;
+
+			starts.add(end);
+			position = end + RANGE_SIZE;
+		}
+
+		long[] ranges = new long[starts.size() + 1];
+		for(int i = 0; i < starts.size(); i++)
+			ranges[i] = starts.get(i);
+		ranges[starts.size()] = size;
+		return ranges;
+	}
+
+	/**
+	 * Encodes the matching lines of one range of a file.
+	 */
+	private static class Range
+	{
+		private byte[] prefix;
+		private int vertexOffset;
+		private int normalOffset;
+
+		private byte[] line = new byte[256];
+		private int length;
+
+		private byte[] bytes;
+		private int lines;
+
+		private Range(byte[] prefix, int vertexOffset, int normalOffset)
+		{
+			this.prefix = prefix;
+			this.vertexOffset = vertexOffset;
+			this.normalOffset = normalOffset;
+		}
+
+		private Range process(ByteBuffer range) throws IOException
+		{
+			ByteArrayOutputStream out = new ByteArrayOutputStream(range.remaining() + 64);
+			OBJWriter writer = new OBJWriter(Channels.newChannel(out), OBJWriter.SHORTEST);
+			while(next(range))
+			{
+				if(!startsWith(prefix))
+					continue;
+
+				if(prefix == FACE)
+					face(writer);
+				else
+					writer.write(line, 0, length);
+				writer.write('\n');
+				lines++;
+			}
+			writer.close();
+
+			bytes = out.toByteArray();
+			return this;
+		}
+
+		private boolean next(ByteBuffer range)
+		{
+			length = 0;
+			if(!range.hasRemaining())
+				return false;
+
+			while(range.hasRemaining())
+			{
+				byte b = range.get();
+				if(b == '\n')
+					break;
+				if(b != '\r')
+				{
+					if(length == line.length)
+						line = Arrays.copyOf(line, line.length * 2);
+					line[length++] = b;
+				}
+			}
+			return true;
+		}
+
+		private boolean startsWith(byte[] prefix)
+		{
+			if(length < prefix.length)
+				return false;
+			for(int i = 0; i < prefix.length; i++)
+			{
+				if(line[i] != prefix[i])
+					return false;
+			}
+			return true;
+		}
+
+		private void face(OBJWriter writer) throws IOException
+		{
+			writer.write('f');
+			int i = 1;
+			while(i < length)
+			{
+				while(i < length && line[i] == ' ')
+					i++;
+				if(i == length)
+					break;
+
+				// v, v/t, v//n or v/t/n
+				writer.write(' ');
+				int slot = 0;
+				while(i < length && line[i] != ' ')
+				{
+					if(line[i] == '/')
+					{
+						writer.write('/');
+						slot++;
+						i++;
+					}
+					else if(line[i] == '-')
+					{
+						// relative indices stay valid as they are
+						do
+						{
+							writer.write((char) line[i]);
+							i++;
+						}
+						while(i < length && line[i] >= '0' && line[i] <= '9');
+					}
+					else if(line[i] >= '0' && line[i] <= '9')
+					{
+						long index = 0;
+						for(; i < length && line[i] >= '0' && line[i] <= '9'; i++)
+							index = index * 10 + (line[i] - '0');
+
+						if(slot == 0)
+							index += vertexOffset;
+						else if(slot == 2)
+							index += normalOffset;
+						writer.write(index);
+					}
+					else
+					{
+						writer.write((char) line[i]);
+						i++;
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,353 @@
+package de.jcm.openscad.colorhelper;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes Wavefront OBJ and MTL files. Numbers are encoded straight into a reusable byte buffer instead of going
+ * through {@link java.text.DecimalFormat} and intermediate strings.
+ */
+public class OBJWriter implements Closeable
+{
+	public static final int SHORTEST = -1;
+
+	private static final int BUFFER_SIZE = 1 << 16;
+	// longest number we can produce: sign, 19 digits, point and 17 fraction digits, with some headroom
+	private static final int MAX_NUMBER = 48;
+	private static final long EXACT = 1L << 53;
+	// vertices, normals or faces encoded by one parallel task
+	private static final int ELEMENTS_PER_TASK = 1 << 14;
+
+	private static final double[] POWERS_OF_TEN = new double[23];
+
+	static
+	{
+		POWERS_OF_TEN[0] = 1;
+		for(int i = 1; i < POWERS_OF_TEN.length; i++)
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+	}
+
+	private WritableByteChannel channel;
+	private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+	private byte[] digits = new byte[20];
+
+	private int precision;
+	private long written;
+
+	/**
+	 * @param precision number of decimal places, rounded half to even like {@link java.text.DecimalFormat}, or
+	 *                  {@link #SHORTEST} for the shortest representation that reads back as the same double
+	 */
+	public OBJWriter(File file, int precision) throws IOException
+	{
+		this(FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+		                      StandardOpenOption.TRUNCATE_EXISTING), precision);
+	}
+
+	/**
+	 * Writes to any channel, e.g. an entry of a zip file. {@link #close()} closes the channel.
+	 */
+	public OBJWriter(WritableByteChannel channel, int precision)
+	{
+		this.channel = channel;
+		this.precision = Math.min(precision, POWERS_OF_TEN.length - 1);
+	}
+
+	public void line(String line) throws IOException
+	{
+		write(line);
+		write('\n');
+	}
+
+	public void vertex(double x, double y, double z) throws IOException
+	{
+		triple("v ", x, y, z);
+	}
+
+	public void normal(double x, double y, double z) throws IOException
+	{
+		triple("vn ", x, y, z);
+	}
+
+	public void color(double r, double g, double b) throws IOException
+	{
+		triple("Kd ", r, g, b);
+	}
+
+	private void triple(String keyword, double x, double y, double z) throws IOException
+	{
+		write(keyword);
+		write(x);
+		write(' ');
+		write(y);
+		write(' ');
+		write(z);
+		write('\n');
+	}
+
+	public void face(int a, int b, int c, int normal) throws IOException
+	{
+		write('f');
+		corner(a, normal);
+		corner(b, normal);
+		corner(c, normal);
+		write('\n');
+	}
+
+	/**
+	 * Writes the vertices, normals and faces of a mesh, with indices relative to the start of the file. Large
+	 * meshes are encoded in parallel ranges, which are written in order, so the output is the same either way.
+	 */
+	public void mesh(IndexedMesh mesh) throws IOException
+	{
+		long elements = (long) mesh.getVertexCount() + mesh.getNormalCount() + mesh.getFaceCount();
+		int tasks = (int) ((elements + ELEMENTS_PER_TASK - 1) / ELEMENTS_PER_TASK);
+		if(tasks <= 1)
+		{
+			elements(mesh, 0, elements);
+			return;
+		}
+
+		OrderedTasks.run(tasks, task -> {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(BUFFER_SIZE);
+			OBJWriter writer = new OBJWriter(Channels.newChannel(bytes), precision);
+			long start = (long) task * ELEMENTS_PER_TASK;
+			writer.elements(mesh, start, Math.min(start + ELEMENTS_PER_TASK, elements));
+			writer.close();
+			return bytes.toByteArray();
+		}, bytes -> write(bytes, 0, bytes.length));
+	}
+
+	/**
+	 * Writes a range of the vertices, normals and faces of a mesh, counted one after another.
+	 */
+	private void elements(IndexedMesh mesh, long start, long end) throws IOException
+	{
+		int vertices = mesh.getVertexCount();
+		int normals = mesh.getNormalCount();
+
+		for(long i = start; i < Math.min(end, vertices); i++)
+		{
+			int v = (int) i;
+			vertex(mesh.getVertex(v, 0), mesh.getVertex(v, 1), mesh.getVertex(v, 2));
+		}
+		for(long i = Math.max(start, vertices); i < Math.min(end, vertices + normals); i++)
+		{
+			int n = (int) (i - vertices);
+			normal(mesh.getNormal(n, 0), mesh.getNormal(n, 1), mesh.getNormal(n, 2));
+		}
+		for(long i = Math.max(start, vertices + normals); i < end; i++)
+		{
+			int f = (int) (i - vertices - normals);
+			face(mesh.getFaceVertex(f, 0) + 1, mesh.getFaceVertex(f, 1) + 1, mesh.getFaceVertex(f, 2) + 1,
+			     mesh.getFaceNormal(f) + 1);
+		}
+	}
+
+	private void corner(int vertex, int normal) throws IOException
+	{
+		write(' ');
+		write(vertex);
+		write('/');
+		write('/');
+		write(normal);
+	}
+
+	public void write(String string) throws IOException
+	{
+		byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+		write(bytes, 0, bytes.length);
+	}
+
+	public void write(byte[] bytes, int offset, int length) throws IOException
+	{
+		while(length > 0)
+		{
+			if(!buffer.hasRemaining())
+				flush();
+			int chunk = Math.min(buffer.remaining(), length);
+			buffer.put(bytes, offset, chunk);
+			offset += chunk;
+			length -= chunk;
+		}
+	}
+
+	public void write(char c) throws IOException
+	{
+		if(!buffer.hasRemaining())
+			flush();
+		buffer.put((byte) c);
+	}
+
+	public void write(long value) throws IOException
+	{
+		if(buffer.remaining() < MAX_NUMBER)
+			flush();
+		putLong(value);
+	}
+
+	public void write(double value) throws IOException
+	{
+		if(buffer.remaining() < MAX_NUMBER)
+			flush();
+
+		if(Double.isNaN(value) || Double.isInfinite(value))
+		{
+			write(Double.toString(value));
+			return;
+		}
+		if(value == 0)
+		{
+			// -0 reads back as -0.0
+			if(1 / value < 0)
+				buffer.put((byte) '-');
+			buffer.put((byte) '0');
+			return;
+		}
+
+		if(precision >= 0)
+		{
+			// the product is off by half an ulp at most, so only values that close to a tie need the exact path
+			double scaled = Math.abs(value) * POWERS_OF_TEN[precision];
+			double fraction = scaled - Math.floor(scaled);
+			if(scaled < EXACT && Math.abs(fraction - 0.5) > Math.ulp(scaled))
+			{
+				putFixed(value < 0, (long) Math.rint(scaled), precision);
+				return;
+			}
+		}
+		else
+		{
+			// the fewest decimal places d for which round(v * 10^d) / 10^d gives back v exactly
+			double magnitude = Math.abs(value);
+			for(int d = 0; d < POWERS_OF_TEN.length; d++)
+			{
+				double scaled = magnitude * POWERS_OF_TEN[d];
+				if(scaled >= EXACT)
+					break;
+
+				long mantissa = Math.round(scaled);
+				if(mantissa / POWERS_OF_TEN[d] == magnitude)
+				{
+					putFixed(value < 0, mantissa, d);
+					return;
+				}
+			}
+		}
+
+		// very large or very small values, which OpenSCAD hardly ever produces, and near ties
+		BigDecimal decimal;
+		if(precision >= 0)
+			decimal = new BigDecimal(value).setScale(precision, RoundingMode.HALF_EVEN);
+		else
+			decimal = new BigDecimal(Double.toString(value));
+		if(decimal.signum() == 0)
+		{
+			buffer.put((byte) '0');
+			return;
+		}
+		write(decimal.stripTrailingZeros().toPlainString());
+	}
+
+	private void putFixed(boolean negative, long mantissa, int decimals)
+	{
+		while(decimals > 0 && mantissa % 10 == 0)
+		{
+			mantissa /= 10;
+			decimals--;
+		}
+		if(mantissa == 0)
+		{
+			buffer.put((byte) '0');
+			return;
+		}
+		if(negative)
+			buffer.put((byte) '-');
+
+		int count = 0;
+		do
+		{
+			digits[count++] = (byte) ('0' + mantissa % 10);
+			mantissa /= 10;
+		}
+		while(mantissa > 0);
+
+		if(count <= decimals)
+		{
+			buffer.put((byte) '0');
+			buffer.put((byte) '.');
+			for(int i = count; i < decimals; i++)
+				buffer.put((byte) '0');
+			for(int i = count - 1; i >= 0; i--)
+				buffer.put(digits[i]);
+		}
+		else
+		{
+			for(int i = count - 1; i >= 0; i--)
+			{
+				buffer.put(digits[i]);
+				if(i == decimals && i > 0)
+					buffer.put((byte) '.');
+			}
+		}
+	}
+
+	private void putLong(long value)
+	{
+		if(value < 0)
+		{
+			buffer.put((byte) '-');
+			if(value == Long.MIN_VALUE)
+			{
+				buffer.put("9223372036854775808".getBytes(StandardCharsets.US_ASCII));
+				return;
+			}
+			value = -value;
+		}
+
+		int count = 0;
+		do
+		{
+			digits[count++] = (byte) ('0' + value % 10);
+			value /= 10;
+		}
+		while(value > 0);
+
+		for(int i = count - 1; i >= 0; i--)
+			buffer.put(digits[i]);
+	}
+
+	/**
+	 * @return number of bytes written so far, including those still buffered
+	 */
+	public long size()
+	{
+		return written + buffer.position();
+	}
+
+	public void flush() throws IOException
+	{
+		written += buffer.position();
+		buffer.flip();
+		while(buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		flush();
+		channel.close();
+	}
+}
@@ -0,0 +1,77 @@
+package de.jcm.openscad.colorhelper;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Runs numbered tasks on the common fork/join pool and hands their results on in the order of their numbers, so
+ * output produced in parallel comes out exactly as if it had been produced one task after another. Only a few
+ * tasks per core are in flight at any time, which bounds the memory their results take.
+ */
+public class OrderedTasks
+{
+	private static final int TASKS_PER_THREAD = 2;
+
+	private OrderedTasks()
+	{
+	}
+
+	public interface Task<T>
+	{
+		T run(int index) throws IOException;
+	}
+
+	public interface Consumer<T>
+	{
+		void accept(T result) throws IOException;
+	}
+
+	public static <T> void run(int count, Task<T> task, Consumer<T> consumer) throws IOException
+	{
+		ForkJoinPool pool = ForkJoinPool.commonPool();
+		int window = Math.max(1, pool.getParallelism() * TASKS_PER_THREAD);
+
+		ArrayDeque<ForkJoinTask<T>> running = new ArrayDeque<>();
+		int next = 0;
+		try
+		{
+			while(next < count || !running.isEmpty())
+			{
+				while(next < count && running.size() < window)
+				{
+					int index = next++;
+					running.add(pool.submit(() -> {
+						try
+						{
+							return task.run(index);
+						}
+						catch(IOException e)
+						{
+							throw new UncheckedIOException(e);
+						}
+					}));
+				}
+
+				ForkJoinTask<T> first = running.poll();
+				T result;
+				try
+				{
+					result = first.join();
+				}
+				catch(UncheckedIOException e)
+				{
+					throw e.getCause();
+				}
+				consumer.accept(result);
+			}
+		}
+		finally
+		{
+			for(ForkJoinTask<T> remaining : running)
+				remaining.cancel(false);
+		}
+	}
+}
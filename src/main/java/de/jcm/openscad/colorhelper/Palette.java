@@ -0,0 +1,288 @@
+package de.jcm.openscad.colorhelper;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Maps rgb() colors onto fewer colors, so near-identical shades share one render and one material. Distances
+ * are measured in CIELAB (delta E 1976), where a difference of about 2.3 is just noticeable.
+ */
+public class Palette
+{
+	private ColorMap colorMap;
+	private int count;
+	private double tolerance;
+
+	private Palette(ColorMap colorMap, int count, double tolerance)
+	{
+		this.colorMap = colorMap;
+		this.count = count;
+		this.tolerance = tolerance;
+	}
+
+	/**
+	 * Replaces every rgb() color by the nearest named color of the color map, unless that is further away than
+	 * the tolerance.
+	 */
+	public static Palette named(ColorMap colorMap, double tolerance)
+	{
+		return new Palette(colorMap, 0, tolerance);
+	}
+
+	/**
+	 * Clusters the rgb() colors until at most count remain. Each cluster is represented by the member closest to
+	 * its weighted center, and clusters are only merged if that moves no color further than the tolerance.
+	 */
+	public static Palette clusters(int count, double tolerance)
+	{
+		return new Palette(null, Math.max(1, count), tolerance);
+	}
+
+	/**
+	 * @param colors every rgb() color of an input with the number of blocks using it, in order of appearance
+	 * @return replacement for each color that changes
+	 */
+	public Map<String, String> quantize(Map<String, Integer> colors)
+	{
+		HashMap<String, String> mapping = new HashMap<>();
+
+		ArrayList<String> rgbColors = new ArrayList<>();
+		for(String color : colors.keySet())
+		{
+			if(color.startsWith("rgb("))
+				rgbColors.add(color);
+		}
+
+		if(colorMap != null)
+		{
+			for(String color : rgbColors)
+			{
+				double[] lab = lab(ColorMap.parseRGB(color));
+				String nearest = null;
+				double distance = Double.MAX_VALUE;
+				for(String name : colorMap.getNames())
+				{
+					double d = distance(lab, lab(colorMap.rgb(name)));
+					if(d < distance)
+					{
+						nearest = name;
+						distance = d;
+					}
+				}
+				if(nearest != null && distance <= tolerance)
+					map(mapping, color, nearest, distance);
+			}
+			return mapping;
+		}
+
+		// agglomerative clustering over a queue of all pairs, O(n^2 log n) for n distinct colors
+		ArrayList<Cluster> clusters = new ArrayList<>();
+		for(String color : rgbColors)
+			clusters.add(new Cluster(color, colors.get(color)));
+
+		PriorityQueue<Pair> pairs = new PriorityQueue<>();
+		for(int i = 0; i < clusters.size(); i++)
+		{
+			for(int j = i + 1; j < clusters.size(); j++)
+				pairs.add(new Pair(i, j, distance(clusters.get(i).center, clusters.get(j).center)));
+		}
+
+		// merged clusters are set to null and their union is appended
+		int live = clusters.size();
+		while(live > count && !pairs.isEmpty())
+		{
+			// closest centers first, but only merges that keep every member within the tolerance of the
+			// representative (complete linkage), else colors could move further than the tolerance
+			Pair pair = pairs.poll();
+			Cluster a = clusters.get(pair.a);
+			Cluster b = clusters.get(pair.b);
+			if(a == null || b == null)
+				continue;
+
+			// the same two clusters never fit later either, so a rejected pair is dropped for good
+			Cluster merged = a.merge(b);
+			if(merged.spread() > tolerance)
+				continue;
+
+			clusters.set(pair.a, null);
+			clusters.set(pair.b, null);
+			for(int i = 0; i < clusters.size(); i++)
+			{
+				if(clusters.get(i) != null)
+					pairs.add(new Pair(i, clusters.size(), distance(clusters.get(i).center, merged.center)));
+			}
+			clusters.add(merged);
+			live--;
+		}
+		if(live > count)
+		{
+			System.out.println("Kept " + live + " instead of " + count + " rgb() colors, merging the "
+					                   + "rest would move colors further than the tolerance of " + tolerance);
+		}
+
+		for(Cluster cluster : clusters)
+		{
+			if(cluster == null)
+				continue;
+
+			String representative = cluster.representative();
+			for(int i = 0; i < cluster.members.size(); i++)
+			{
+				String member = cluster.members.get(i);
+				if(!member.equals(representative))
+				{
+					double distance = distance(cluster.labs.get(i), lab(ColorMap.parseRGB(representative)));
+					map(mapping, member, representative, distance);
+				}
+			}
+		}
+		return mapping;
+	}
+
+	private static void map(Map<String, String> mapping, String color, String replacement, double distance)
+	{
+		mapping.put(color, replacement);
+		System.out.println("Mapped color [" + color + "] to [" + replacement + "], delta E "
+				                   + String.format(Locale.ROOT, "%.2f", distance));
+	}
+
+	private static double distance(double[] a, double[] b)
+	{
+		double l = a[0] - b[0];
+		double x = a[1] - b[1];
+		double y = a[2] - b[2];
+		return Math.sqrt(l * l + x * x + y * y);
+	}
+
+	/**
+	 * sRGB components from 0 to 1 to CIELAB with a D65 white point.
+	 */
+	public static double[] lab(double[] rgb)
+	{
+		double r = linear(rgb[0]);
+		double g = linear(rgb[1]);
+		double b = linear(rgb[2]);
+
+		double x = (0.4124564 * r + 0.3575761 * g + 0.1804375 * b) / 0.95047;
+		double y = 0.2126729 * r + 0.7151522 * g + 0.0721750 * b;
+		double z = (0.0193339 * r + 0.1191920 * g + 0.9503041 * b) / 1.08883;
+
+		double fx = f(x);
+		double fy = f(y);
+		double fz = f(z);
+		return new double[]{116 * fy - 16, 500 * (fx - fy), 200 * (fy - fz)};
+	}
+
+	private static double linear(double c)
+	{
+		c = Math.max(0, Math.min(1, c));
+		if(c <= 0.04045)
+			return c / 12.92;
+		return Math.pow((c + 0.055) / 1.055, 2.4);
+	}
+
+	private static double f(double t)
+	{
+		if(t > 216.0 / 24389)
+			return Math.cbrt(t);
+		return (24389.0 / 27 * t + 16) / 116;
+	}
+
+	private static class Pair implements Comparable<Pair>
+	{
+		private int a;
+		private int b;
+		private double distance;
+
+		private Pair(int a, int b, double distance)
+		{
+			this.a = a;
+			this.b = b;
+			this.distance = distance;
+		}
+
+		@Override
+		public int compareTo(Pair other)
+		{
+			// the first pair in order of appearance among equally close ones
+			int compare = Double.compare(distance, other.distance);
+			if(compare == 0)
+				compare = Integer.compare(a, other.a);
+			if(compare == 0)
+				compare = Integer.compare(b, other.b);
+			return compare;
+		}
+	}
+
+	private static class Cluster
+	{
+		private List<String> members = new ArrayList<>();
+		private List<double[]> labs = new ArrayList<>();
+
+		private double[] center;
+		private int weight;
+
+		private Cluster(String color, int weight)
+		{
+			double[] lab = lab(ColorMap.parseRGB(color));
+			members.add(color);
+			labs.add(lab);
+			this.center = lab.clone();
+			this.weight = weight;
+		}
+
+		private Cluster()
+		{
+		}
+
+		/**
+		 * @return a new cluster with the members of both
+		 */
+		private Cluster merge(Cluster other)
+		{
+			Cluster merged = new Cluster();
+			merged.weight = weight + other.weight;
+			merged.center = new double[3];
+			for(int i = 0; i < 3; i++)
+				merged.center[i] = (center[i] * weight + other.center[i] * other.weight) / merged.weight;
+
+			merged.members.addAll(members);
+			merged.members.addAll(other.members);
+			merged.labs.addAll(labs);
+			merged.labs.addAll(other.labs);
+			return merged;
+		}
+
+		/**
+		 * @return largest distance of a member to the representative
+		 */
+		private double spread()
+		{
+			double[] representative = labs.get(nearest());
+			double spread = 0;
+			for(double[] lab : labs)
+				spread = Math.max(spread, distance(lab, representative));
+			return spread;
+		}
+
+		private String representative()
+		{
+			return members.get(nearest());
+		}
+
+		private int nearest()
+		{
+			int best = 0;
+			for(int i = 1; i < members.size(); i++)
+			{
+				if(distance(labs.get(i), center) < distance(labs.get(best), center))
+					best = i;
+			}
+			return best;
+		}
+	}
+}
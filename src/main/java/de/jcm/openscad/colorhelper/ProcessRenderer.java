@@ -0,0 +1,257 @@
+package de.jcm.openscad.colorhelper;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs the OpenSCAD executable. Its stdout and stderr are read by background threads, so a chatty render can
+ * never block on a full pipe, and renders that exceed the timeout are killed together with their children.
+ */
+public class ProcessRenderer implements Renderer
+{
+	// lines of stderr kept to explain a failed render
+	private static final int MESSAGE_LINES = 20;
+	private static final long KILL_GRACE = 2000;
+
+	private static final Set<Process> running = ConcurrentHashMap.newKeySet();
+
+	private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread thread = new Thread(r, "OpenSCAD timeout");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	static
+	{
+		// don't leave OpenSCAD processes behind when ColorHelper is stopped with Ctrl+C
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> running.forEach(ProcessRenderer::kill)));
+	}
+
+	private File executable;
+	private long timeout;
+
+	/**
+	 * @param timeout maximum time for one render in milliseconds, 0 for none
+	 */
+	public ProcessRenderer(File executable, long timeout)
+	{
+		this.executable = executable;
+		this.timeout = timeout;
+	}
+
+	@Override
+	public String getIdentity()
+	{
+		return executable.getAbsolutePath() + " " + executable.lastModified();
+	}
+
+	@Override
+	public int render(File scad, File stl, boolean binarySTL, List<String> messages) throws IOException,
+			InterruptedException
+	{
+		List<String> command = new ArrayList<>();
+		command.add(executable.getAbsolutePath());
+		if(binarySTL)
+		{
+			command.add("--export-format");
+			command.add("binstl");
+		}
+		command.add("-o");
+		command.add(stl.getAbsolutePath());
+		command.add(scad.getAbsolutePath());
+
+		return run(command, null, messages);
+	}
+
+	@Override
+	public int render(File scad, boolean binarySTL, Sink sink, List<String> messages) throws IOException,
+			InterruptedException
+	{
+		List<String> command = new ArrayList<>();
+		command.add(executable.getAbsolutePath());
+		// without a file name OpenSCAD cannot guess the format
+		command.add("--export-format");
+		command.add(binarySTL ? "binstl" : "asciistl");
+		command.add("-o");
+		command.add("-");
+		command.add(scad.getAbsolutePath());
+
+		return run(command, sink, messages);
+	}
+
+	private int run(List<String> command, Sink sink, List<String> messages) throws IOException,
+			InterruptedException
+	{
+		Process process = new ProcessBuilder(command).start();
+		running.add(process);
+		try
+		{
+			process.getOutputStream().close();
+
+			Drain stderr = new Drain(process.getErrorStream(), MESSAGE_LINES);
+			Drain stdout = sink == null ? new Drain(process.getInputStream(), 0) : null;
+
+			// the sink blocks this thread while OpenSCAD is running, so the timeout is enforced by another one
+			ScheduledFuture<?> watchdog = null;
+			AtomicBoolean killed = new AtomicBoolean();
+			if(timeout > 0)
+			{
+				watchdog = WATCHDOG.schedule(() -> {
+					if(process.isAlive())
+					{
+						killed.set(true);
+						terminate(process);
+					}
+				}, timeout, TimeUnit.MILLISECONDS);
+			}
+
+			IOException failure = null;
+			if(sink != null)
+			{
+				// closing stdout early makes OpenSCAD fail instead of blocking if the sink gives up
+				try(ReadableByteChannel channel = Channels.newChannel(process.getInputStream()))
+				{
+					sink.read(channel);
+				}
+				catch(IOException e)
+				{
+					failure = e;
+				}
+			}
+
+			int exit = process.waitFor();
+			if(watchdog != null)
+				watchdog.cancel(false);
+			// a render that exited cleanly just as the watchdog fired did not time out
+			if(killed.get() && exit != 0)
+			{
+				messages.add("Killed after " + timeout / 1000.0 + " s");
+				exit = RenderResult.TIMED_OUT;
+			}
+
+			stderr.join(KILL_GRACE);
+			if(stdout != null)
+				stdout.join(KILL_GRACE);
+
+			if(exit != 0)
+			{
+				messages.addAll(0, stderr.getLines());
+				if(failure != null)
+					messages.add(failure.toString());
+			}
+			else if(failure != null)
+			{
+				throw failure;
+			}
+			return exit;
+		}
+		catch(InterruptedException e)
+		{
+			kill(process);
+			throw e;
+		}
+		finally
+		{
+			running.remove(process);
+		}
+	}
+
+	/**
+	 * Stops a process and its children without waiting for them, forcibly if it is still running after
+	 * {@link #KILL_GRACE}. The watchdog must not block, else renders that time out together are stopped one after
+	 * another.
+	 */
+	private static void terminate(Process process)
+	{
+		process.descendants().forEach(ProcessHandle::destroyForcibly);
+		process.destroy();
+		WATCHDOG.schedule(() -> {
+			if(process.isAlive())
+				process.destroyForcibly();
+		}, KILL_GRACE, TimeUnit.MILLISECONDS);
+	}
+
+	private static void kill(Process process)
+	{
+		// OpenSCAD may have started helpers of its own
+		process.descendants().forEach(ProcessHandle::destroyForcibly);
+		process.destroy();
+		try
+		{
+			if(!process.waitFor(KILL_GRACE, TimeUnit.MILLISECONDS))
+				process.destroyForcibly();
+		}
+		catch(InterruptedException e)
+		{
+			process.destroyForcibly();
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Reads a stream of the process until it ends, keeping only its last lines.
+	 */
+	private static class Drain extends Thread
+	{
+		private InputStream stream;
+		private int keep;
+		private ArrayDeque<String> lines = new ArrayDeque<>();
+
+		private Drain(InputStream stream, int keep)
+		{
+			super("OpenSCAD output");
+			this.stream = stream;
+			this.keep = keep;
+			setDaemon(true);
+			start();
+		}
+
+		@Override
+		public void run()
+		{
+			try(BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8)))
+			{
+				String line;
+				while((line = reader.readLine()) != null)
+				{
+					if(keep == 0)
+						continue;
+					synchronized(lines)
+					{
+						if(lines.size() == keep)
+							lines.removeFirst();
+						lines.addLast(line);
+					}
+				}
+			}
+			catch(IOException ignored)
+			{
+				// the process was killed
+			}
+		}
+
+		private List<String> getLines()
+		{
+			synchronized(lines)
+			{
+				return new ArrayList<>(lines);
+			}
+		}
+	}
+}
@@ -0,0 +1,449 @@
+package de.jcm.openscad.colorhelper;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends renders to {@link RenderWorker} processes, on this machine or others. Every render opens a connection to
+ * the worker with the fewest renders in flight, sends the SCAD code and receives the STL data while the worker
+ * produces it. Workers that cannot be reached are skipped, and a render is sent to another worker if its worker
+ * fails before any STL data was handed on. Only the connection failing counts as a failure of the worker, not
+ * writing the STL file.
+ * <p>
+ * Protocol, numbers are big endian and strings int length and UTF-8 bytes, at most {@link #MAX_STRING} of them:
+ * <ul>
+ * <li>request: int {@link #MAGIC}, byte {@link #IDENTITY} or {@link #RENDER}; a render request continues with
+ * boolean binarySTL, int length and the SCAD code</li>
+ * <li>identity response: the identity string of the worker's renderer</li>
+ * <li>render response: the STL data in chunks of int length and bytes, ended by an empty chunk, then int exit code,
+ * int message count and the messages</li>
+ * </ul>
+ */
+public class RemoteRenderer implements Renderer
+{
+	// "CHR" and the protocol version
+	static final int MAGIC = 0x43485232;
+	static final byte IDENTITY = 'I';
+	static final byte RENDER = 'R';
+	static final int CHUNK = 1 << 16;
+	// far longer than any message, longer ones are cut off by the worker
+	static final int MAX_STRING = 1 << 20;
+
+	private static final int CONNECT_TIMEOUT = 5000;
+
+	private List<InetSocketAddress> workers;
+	private AtomicInteger[] inFlight;
+	private String identity;
+
+	public RemoteRenderer(List<InetSocketAddress> workers)
+	{
+		if(workers.isEmpty())
+			throw new IllegalArgumentException("No render workers given");
+
+		this.workers = workers;
+		this.inFlight = new AtomicInteger[workers.size()];
+		for(int i = 0; i < inFlight.length; i++)
+			inFlight[i] = new AtomicInteger();
+	}
+
+	/**
+	 * @param addresses comma separated host:port pairs
+	 */
+	public static RemoteRenderer parse(String addresses)
+	{
+		List<InetSocketAddress> workers = new ArrayList<>();
+		for(String address : addresses.split(","))
+		{
+			int colon = address.lastIndexOf(':');
+			if(colon < 0)
+				throw new IllegalArgumentException("Render worker without port: " + address);
+			workers.add(InetSocketAddress.createUnresolved(address.substring(0, colon),
+			                                               Integer.parseInt(address.substring(colon + 1))));
+		}
+		return new RemoteRenderer(workers);
+	}
+
+	/**
+	 * Asks every worker for the identity of its renderer once, so renders of workers with another OpenSCAD version
+	 * end up under other cache keys. Asks again next time if no worker answered.
+	 */
+	@Override
+	public synchronized String getIdentity()
+	{
+		if(identity == null)
+		{
+			TreeSet<String> identities = new TreeSet<>();
+			for(int i = 0; i < workers.size(); i++)
+			{
+				try(Connection connection = open(i))
+				{
+					connection.out.writeInt(MAGIC);
+					connection.out.writeByte(IDENTITY);
+					connection.out.flush();
+					identities.add(readString(connection.in));
+				}
+				catch(IOException e)
+				{
+					System.out.println("Render worker " + name(i) + " is not reachable: " + e.getMessage());
+				}
+			}
+			if(identities.isEmpty())
+				return "remote unreachable";
+			identity = "remote " + String.join(" | ", identities);
+		}
+		return identity;
+	}
+
+	@Override
+	public int render(File scad, File stl, boolean binarySTL, List<String> messages) throws IOException
+	{
+		byte[] source = read(scad);
+		Set<Integer> failed = new HashSet<>();
+		IOException failure = null;
+		try(FileChannel out = FileChannel.open(stl.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+		                                       StandardOpenOption.TRUNCATE_EXISTING))
+		{
+			ByteBuffer buffer = ByteBuffer.allocate(CHUNK);
+			while(true)
+			{
+				Connection connection = connect(failed, failure);
+				IOException fileFailure = null;
+				try(Connection c = connection)
+				{
+					c.send(source, binarySTL);
+
+					ChunkChannel channel = new ChunkChannel(c.in);
+					try
+					{
+						// the file is written from the start again, so any failure of the worker can be retried
+						out.truncate(0);
+						out.position(0);
+						while(channel.read(buffer) >= 0)
+						{
+							buffer.flip();
+							while(buffer.hasRemaining())
+								out.write(buffer);
+							buffer.clear();
+						}
+					}
+					catch(IOException e)
+					{
+						if(channel.error == null)
+							fileFailure = e;
+						throw e;
+					}
+					return c.finish(messages);
+				}
+				catch(IOException e)
+				{
+					// another worker would not write the file any better
+					if(e == fileFailure)
+						throw e;
+					buffer.clear();
+					failure = failed(failed, connection, e);
+				}
+			}
+		}
+	}
+
+	@Override
+	public int render(File scad, boolean binarySTL, Sink sink, List<String> messages) throws IOException
+	{
+		byte[] source = read(scad);
+		Set<Integer> failed = new HashSet<>();
+		IOException failure = null;
+		while(true)
+		{
+			Connection connection = connect(failed, failure);
+			ChunkChannel channel = new ChunkChannel(connection.in);
+			IOException sinkFailure = null;
+			try(Connection c = connection)
+			{
+				c.send(source, binarySTL);
+
+				try
+				{
+					sink.read(channel);
+				}
+				catch(IOException e)
+				{
+					if(channel.error != null)
+						throw channel.error;
+					sinkFailure = e;
+				}
+				// the exit code follows whatever the sink did not read
+				channel.skip();
+
+				int exit = c.finish(messages);
+				if(exit != 0)
+				{
+					if(sinkFailure != null)
+						messages.add(sinkFailure.toString());
+				}
+				else if(sinkFailure != null)
+				{
+					throw sinkFailure;
+				}
+				return exit;
+			}
+			catch(IOException e)
+			{
+				// the sink cannot take back what it already got, so only retry if it got nothing
+				if(e == sinkFailure || channel.received > 0)
+					throw e;
+				failure = failed(failed, connection, e);
+			}
+		}
+	}
+
+	private static byte[] read(File scad) throws IOException
+	{
+		byte[] source = Files.readAllBytes(scad.toPath());
+		if(source.length > RenderWorker.MAX_SOURCE)
+			throw new IOException("SCAD file is too large for render workers: " + source.length + " bytes");
+		return source;
+	}
+
+	static void writeString(DataOutputStream out, String string) throws IOException
+	{
+		byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+		int length = Math.min(bytes.length, MAX_STRING);
+		out.writeInt(length);
+		out.write(bytes, 0, length);
+	}
+
+	static String readString(DataInputStream in) throws IOException
+	{
+		int length = in.readInt();
+		if(length < 0 || length > MAX_STRING)
+			throw new IOException("Render worker sent a string of " + length + " bytes");
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private IOException failed(Set<Integer> failed, Connection connection, IOException e)
+	{
+		failed.add(connection.worker);
+		System.out.println("Render worker " + name(connection.worker) + " failed, trying another one: " + e);
+		return e;
+	}
+
+	/**
+	 * Connects to the least busy worker that can be reached and did not fail this render yet.
+	 *
+	 * @param failed  workers to skip, receives those that cannot be reached
+	 * @param failure why the last worker failed, if any
+	 */
+	private Connection connect(Set<Integer> failed, IOException failure) throws IOException
+	{
+		Integer[] order = new Integer[workers.size()];
+		for(int i = 0; i < order.length; i++)
+			order[i] = i;
+		Arrays.sort(order, (a, b) -> Integer.compare(inFlight[a].get(), inFlight[b].get()));
+
+		for(int i : order)
+		{
+			if(failed.contains(i))
+				continue;
+			try
+			{
+				return open(i);
+			}
+			catch(IOException e)
+			{
+				failed.add(i);
+				failure = e;
+			}
+		}
+		throw new IOException("No render worker is reachable", failure);
+	}
+
+	private String name(int worker)
+	{
+		return workers.get(worker).getHostString() + ":" + workers.get(worker).getPort();
+	}
+
+	private Connection open(int worker) throws IOException
+	{
+		// count the render before connecting, so renders starting at the same time spread over the workers
+		inFlight[worker].incrementAndGet();
+		try
+		{
+			return new Connection(worker);
+		}
+		catch(IOException e)
+		{
+			inFlight[worker].decrementAndGet();
+			throw e;
+		}
+	}
+
+	private class Connection implements Closeable
+	{
+		private int worker;
+		private Socket socket;
+		private DataInputStream in;
+		private DataOutputStream out;
+
+		private Connection(int worker) throws IOException
+		{
+			InetSocketAddress address = workers.get(worker);
+			this.socket = new Socket();
+			try
+			{
+				socket.connect(new InetSocketAddress(address.getHostString(), address.getPort()), CONNECT_TIMEOUT);
+			}
+			catch(IOException e)
+			{
+				socket.close();
+				throw e;
+			}
+			this.worker = worker;
+			this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), CHUNK));
+			this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), CHUNK));
+		}
+
+		private void send(byte[] source, boolean binarySTL) throws IOException
+		{
+			out.writeInt(MAGIC);
+			out.writeByte(RENDER);
+			out.writeBoolean(binarySTL);
+			out.writeInt(source.length);
+			out.write(source);
+			out.flush();
+		}
+
+		private int finish(List<String> messages) throws IOException
+		{
+			int exit = in.readInt();
+			int count = in.readInt();
+			for(int i = 0; i < count; i++)
+				messages.add(readString(in));
+			if(exit != 0)
+				messages.add("Rendered by " + name(worker));
+			return exit;
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			inFlight[worker].decrementAndGet();
+			socket.close();
+		}
+	}
+
+	/**
+	 * Reads the chunked STL data of a render response as one stream. Remembers how much was read and whether the
+	 * connection failed, as opposed to the sink.
+	 */
+	private static class ChunkChannel implements ReadableByteChannel
+	{
+		private DataInputStream in;
+		private int remaining;
+		private boolean end;
+		private long received;
+		private IOException error;
+
+		private ChunkChannel(DataInputStream in)
+		{
+			this.in = in;
+		}
+
+		@Override
+		public int read(ByteBuffer buffer) throws IOException
+		{
+			try
+			{
+				int read = receive(buffer);
+				if(read > 0)
+					received += read;
+				return read;
+			}
+			catch(IOException e)
+			{
+				error = e;
+				throw e;
+			}
+		}
+
+		private int receive(ByteBuffer buffer) throws IOException
+		{
+			while(remaining == 0)
+			{
+				if(end)
+					return -1;
+				remaining = in.readInt();
+				if(remaining == 0)
+					end = true;
+			}
+
+			int length = Math.min(remaining, buffer.remaining());
+			if(buffer.hasArray())
+			{
+				in.readFully(buffer.array(), buffer.arrayOffset() + buffer.position(), length);
+				buffer.position(buffer.position() + length);
+			}
+			else
+			{
+				byte[] bytes = new byte[length];
+				in.readFully(bytes);
+				buffer.put(bytes);
+			}
+			remaining -= length;
+			return length;
+		}
+
+		private void skip() throws IOException
+		{
+			while(!end)
+			{
+				if(remaining == 0)
+				{
+					remaining = in.readInt();
+					if(remaining == 0)
+						end = true;
+				}
+				else
+				{
+					int skipped = in.skipBytes(remaining);
+					if(skipped <= 0)
+						throw new EOFException("Render worker closed the connection");
+					remaining -= skipped;
+				}
+			}
+		}
+
+		@Override
+		public boolean isOpen()
+		{
+			return !end;
+		}
+
+		@Override
+		public void close()
+		{
+		}
+	}
+}
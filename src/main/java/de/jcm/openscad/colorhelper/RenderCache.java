@@ -0,0 +1,274 @@
+package de.jcm.openscad.colorhelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Scanner;
+
+public class RenderCache
+{
+	private static final String INDEX = "index";
+
+	private File directory;
+	private long maxSize;
+	private long size;
+
+	// access ordered, so iteration starts with the least recently used entry
+	private LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+	public RenderCache(File directory, long maxSize) throws IOException
+	{
+		this.directory = directory;
+		this.maxSize = maxSize;
+
+		directory.mkdirs();
+		load();
+	}
+
+	private void load() throws IOException
+	{
+		File index = new File(directory, INDEX);
+		if(!index.exists())
+			return;
+
+		ArrayList<Entry> loaded = new ArrayList<>();
+		Scanner scanner = new Scanner(index);
+		while(scanner.hasNextLine())
+		{
+			String[] parts = scanner.nextLine().split(" ");
+			if(parts.length != 3)
+				continue;
+
+			Entry entry = new Entry(parts[0], Long.parseLong(parts[1]), Long.parseLong(parts[2]));
+			if(file(entry.key).length() == entry.size)
+				loaded.add(entry);
+		}
+		scanner.close();
+
+		loaded.sort((a, b) -> Long.compare(a.lastUsed, b.lastUsed));
+		for(Entry entry : loaded)
+		{
+			entries.put(entry.key, entry);
+			size += entry.size;
+		}
+	}
+
+	private File file(String key)
+	{
+		return new File(directory, key + ".stl");
+	}
+
+	public String key(byte[] source, Renderer renderer, String... arguments) throws IOException
+	{
+		try
+		{
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(source);
+			digest.update((byte) 0);
+			digest.update(renderer.getIdentity().getBytes(StandardCharsets.UTF_8));
+			for(String argument : arguments)
+			{
+				digest.update((byte) 0);
+				digest.update(argument.getBytes(StandardCharsets.UTF_8));
+			}
+
+			StringBuilder key = new StringBuilder();
+			for(byte b : digest.digest())
+				key.append(String.format("%02x", b));
+			return key.toString();
+		}
+		catch(NoSuchAlgorithmException e)
+		{
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Copies the cached STL file for this key. The entry is pinned while it is copied, so other renders can use
+	 * the cache in the meantime.
+	 *
+	 * @return whether there was one
+	 */
+	public boolean restore(String key, File stl) throws IOException
+	{
+		File cached = lookup(key);
+		if(cached == null)
+			return false;
+
+		try
+		{
+			Files.copy(cached.toPath(), stl.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		finally
+		{
+			release(key);
+		}
+		return true;
+	}
+
+	/**
+	 * Pins the entry for this key, so it is not evicted while it is read in place. Every successful lookup must be
+	 * followed by {@link #release(String)}.
+	 *
+	 * @return the cached STL file for this key, to be read in place, or null
+	 */
+	public synchronized File lookup(String key)
+	{
+		Entry entry = entries.get(key);
+		if(entry == null)
+			return null;
+
+		File cached = file(key);
+		if(!cached.exists())
+		{
+			entries.remove(key);
+			size -= entry.size;
+			return null;
+		}
+
+		entry.lastUsed = System.currentTimeMillis();
+		entry.readers++;
+		return cached;
+	}
+
+	/**
+	 * Unpins an entry returned by {@link #lookup(String)}, and evicts entries that could not be evicted while it
+	 * was pinned.
+	 */
+	public synchronized void release(String key)
+	{
+		Entry entry = entries.get(key);
+		if(entry != null && entry.readers > 0)
+			entry.readers--;
+		evict();
+	}
+
+	/**
+	 * @return a new empty file in the cache directory, to be passed to {@link #store(String, File, boolean)}
+	 */
+	public File temporary() throws IOException
+	{
+		return File.createTempFile("render", ".tmp", directory);
+	}
+
+	public void store(String key, File stl) throws IOException
+	{
+		store(key, stl, false);
+	}
+
+	/**
+	 * @param move move the file into the cache instead of copying it, it must be in the cache directory, e.g. from
+	 *             {@link #temporary()}
+	 */
+	public void store(String key, File stl, boolean move) throws IOException
+	{
+		long length = stl.length();
+		if(length > maxSize)
+		{
+			if(move)
+				stl.delete();
+			return;
+		}
+
+		if(!move)
+		{
+			// copied without holding the lock, only renaming the copy into place does
+			File copy = temporary();
+			try
+			{
+				Files.copy(stl.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			catch(IOException e)
+			{
+				copy.delete();
+				throw e;
+			}
+			stl = copy;
+		}
+		add(key, stl, length);
+	}
+
+	private synchronized void add(String key, File stl, long length) throws IOException
+	{
+		Entry old = entries.get(key);
+		if(old != null && old.readers > 0)
+		{
+			// the same content is being read from the cache right now, replacing it would break that read
+			stl.delete();
+			return;
+		}
+
+		Files.move(stl.toPath(), file(key).toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+		old = entries.put(key, new Entry(key, length, System.currentTimeMillis()));
+		if(old != null)
+			size -= old.size;
+		size += length;
+
+		evict();
+	}
+
+	private void evict()
+	{
+		Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+		while(size > maxSize && iterator.hasNext())
+		{
+			Entry entry = iterator.next().getValue();
+			// pinned entries are being read in place
+			if(entry.readers > 0)
+				continue;
+			iterator.remove();
+			size -= entry.size;
+			file(entry.key).delete();
+		}
+	}
+
+	/**
+	 * Writes the index to a new file that then replaces the old one, so a crash while writing leaves the old index.
+	 */
+	public synchronized void save() throws IOException
+	{
+		File temporary = File.createTempFile(INDEX, ".tmp", directory);
+		try
+		{
+			PrintStream print = new PrintStream(temporary);
+			for(Entry entry : entries.values())
+				print.println(entry.key + " " + entry.size + " " + entry.lastUsed);
+			print.close();
+			if(print.checkError())
+				throw new IOException("Could not write " + temporary);
+
+			Files.move(temporary.toPath(), new File(directory, INDEX).toPath(), StandardCopyOption.REPLACE_EXISTING,
+			           StandardCopyOption.ATOMIC_MOVE);
+		}
+		finally
+		{
+			temporary.delete();
+		}
+	}
+
+	private static class Entry
+	{
+		private String key;
+		private long size;
+		private long lastUsed;
+		// lookups that have not been released yet
+		private int readers;
+
+		private Entry(String key, long size, long lastUsed)
+		{
+			this.key = key;
+			this.size = size;
+			this.lastUsed = lastUsed;
+		}
+	}
+}
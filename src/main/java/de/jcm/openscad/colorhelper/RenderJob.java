@@ -0,0 +1,317 @@
+package de.jcm.openscad.colorhelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+public class RenderJob implements Callable<RenderResult>
+{
+	private String prefix;
+	private String group;
+	private String color;
+	private String material;
+
+	private File scad;
+	private File stl;
+	private File obj;
+	private File mtlOutput;
+	private Renderer renderer;
+	private RenderCache cache;
+	private RunReport report;
+
+	private boolean binarySTL;
+	private double weldTolerance;
+	private Decimator decimator;
+	private int precision;
+	private boolean streamSTL;
+	private boolean keepIntermediate;
+	private boolean singlePrecision;
+	private boolean offHeap;
+	private boolean retainMesh;
+
+	private byte[] digest;
+	private Mesh triangles;
+
+	/**
+	 * @param prefix printed in front of every progress line
+	 * @param cache  render cache, or null
+	 */
+	public RenderJob(Configuration configuration, String prefix, String group, String color, String material,
+	                 File scad, File stl, File obj, File mtlOutput, Renderer renderer, RenderCache cache,
+	                 RunReport report)
+	{
+		this.prefix = prefix;
+		this.group = group;
+		this.color = color;
+		this.material = material;
+		this.scad = scad;
+		this.stl = stl;
+		this.obj = obj;
+		this.mtlOutput = mtlOutput;
+		this.renderer = renderer;
+		this.cache = cache;
+		this.report = report;
+
+		this.binarySTL = configuration.isBinarySTL();
+		this.weldTolerance = configuration.getWeldTolerance();
+		if(configuration.isDecimate())
+		{
+			// an error limit alone decimates as far as it allows
+			double ratio = configuration.getDecimateRatio() < 1 ? configuration.getDecimateRatio() : 0;
+			this.decimator = new Decimator(ratio, configuration.getDecimateError());
+		}
+		this.precision = configuration.getPrecision();
+		this.streamSTL = configuration.isStreamSTL();
+		this.keepIntermediate = configuration.isKeepIntermediate();
+		this.singlePrecision = configuration.isSinglePrecision();
+		this.offHeap = configuration.isOffHeap();
+		this.retainMesh = retainsMesh(configuration);
+	}
+
+	/**
+	 * GLB and 3MF are written from the mesh, OBJ from the per-color files unless internal faces are removed.
+	 * Decimation needs the meshes of all colors of a group.
+	 */
+	static boolean retainsMesh(Configuration configuration)
+	{
+		return configuration.getGlbPattern() != null || configuration.getThreeMFPattern() != null
+				|| configuration.isRemoveInternal() || configuration.isDecimate();
+	}
+
+	@Override
+	public RenderResult call() throws Exception
+	{
+		String format = binarySTL ? "binstl" : "asciistl";
+		String key = cache == null || digest == null ? null : cache.key(digest, renderer, format);
+
+		ArrayList<String> messages = new ArrayList<>();
+		int exit;
+		try
+		{
+			exit = streamSTL ? stream(key, messages) : render(key, messages);
+		}
+		finally
+		{
+			if(streamSTL && !keepIntermediate)
+				scad.delete();
+		}
+
+		if(exit == 0)
+		{
+			System.out.println(prefix + " Generating OBJ  file... => " + obj.getAbsolutePath());
+
+			RunReport.Measurement weld = report.start(group, color, Stage.WELD);
+			IndexedMesh mesh = IndexedMesh.weld(triangles, weldTolerance);
+			triangles = null;
+			weld.end(0, mesh.getFaceCount());
+
+			if(decimator != null)
+			{
+				// the seams to the other colors of the group are only known once they are rendered as well
+				RenderResult result = new RenderResult(exit, obj, mesh.getVertexCount(), mesh.getNormalCount(),
+				                                       mesh.getFaceCount());
+				result.setMesh(mesh);
+				return result;
+			}
+			return write(mesh);
+		}
+		else
+		{
+			if(exit == RenderResult.TIMED_OUT)
+				System.out.println(prefix + " OpenSCAD timed out");
+			else
+				System.out.println(prefix + " OpenSCAD returned exit code " + exit);
+			for(String message : messages)
+				System.out.println(prefix + " | " + message);
+
+			writeEmpty();
+			return new RenderResult(exit, obj, 0, 0, 0);
+		}
+	}
+
+	/**
+	 * Decimates the mesh returned by {@link #call()} if decimation is enabled, and writes the OBJ file.
+	 *
+	 * @param seam vertices the mesh shares with other colors of its group, which are not moved
+	 */
+	public RenderResult decimate(IndexedMesh mesh, boolean[] seam) throws IOException
+	{
+		RunReport.Measurement decimate = report.start(group, color, Stage.DECIMATE);
+		int faces = mesh.getFaceCount();
+		mesh = decimator.decimate(mesh, seam);
+		decimate.end(0, mesh.getFaceCount());
+		System.out.println(prefix + " Decimated " + faces + " to " + mesh.getFaceCount() + " faces");
+		return write(mesh);
+	}
+
+	private RenderResult write(IndexedMesh mesh) throws IOException
+	{
+		RunReport.Measurement write = report.start(group, color, Stage.WRITE_OBJ);
+		OBJWriter writer = new OBJWriter(obj, precision);
+
+		writer.line("mtllib " + mtlOutput.getAbsolutePath());
+		writer.line("usemtl " + material);
+
+		writer.line("o " + mesh.getName());
+
+		writer.mesh(mesh);
+
+		writer.close();
+		write.end(obj.length(), mesh.getFaceCount());
+
+		RenderResult result = new RenderResult(0, obj, mesh.getVertexCount(), mesh.getNormalCount(),
+		                                       mesh.getFaceCount());
+		if(retainMesh)
+			result.setMesh(mesh);
+		return result;
+	}
+
+	/**
+	 * Renders into the STL file (or restores it from the cache) and reads it back.
+	 */
+	private int render(String key, List<String> messages) throws IOException, InterruptedException
+	{
+		int exit;
+		boolean restored = false;
+		if(key != null)
+		{
+			// a miss is measured too, with nothing restored, else its event would never be committed
+			RunReport.Measurement restore = report.start(group, color, Stage.CACHE_RESTORE);
+			restored = cache.restore(key, stl);
+			restore.end(restored ? stl.length() : 0, 0);
+		}
+
+		if(restored)
+		{
+			System.out.println(prefix + " Reusing cached STL... => " + stl.getAbsolutePath());
+			exit = 0;
+		}
+		else
+		{
+			System.out.println(prefix + " Generating STL  file... => " + stl.getAbsolutePath());
+			RunReport.Measurement render = report.start(group, color, Stage.OPENSCAD);
+			exit = renderer.render(scad, stl, binarySTL, messages);
+			render.end(stl.length(), 0);
+
+			if(exit == 0 && key != null)
+				cache.store(key, stl);
+		}
+
+		if(exit == 0)
+		{
+			RunReport.Measurement read = report.start(group, color, Stage.READ_STL);
+			triangles = reader().read(stl);
+			read.end(stl.length(), triangles.size());
+		}
+		return exit;
+	}
+
+	/**
+	 * Parses the STL while the renderer produces it. The STL only touches the disk if it is copied into the
+	 * cache or the intermediate files are kept.
+	 */
+	private int stream(String key, List<String> messages) throws IOException, InterruptedException
+	{
+		File cached = key == null ? null : cache.lookup(key);
+		if(cached != null)
+		{
+			try
+			{
+				System.out.println(prefix + " Reading cached STL... <= " + cached.getAbsolutePath());
+				RunReport.Measurement restore = report.start(group, color, Stage.CACHE_RESTORE);
+				triangles = reader().read(cached);
+				restore.end(cached.length(), triangles.size());
+				return 0;
+			}
+			finally
+			{
+				cache.release(key);
+			}
+		}
+
+		System.out.println(prefix + " Streaming STL from OpenSCAD...");
+		File temporary = key == null ? null : cache.temporary();
+		ArrayList<WritableByteChannel> copies = new ArrayList<>();
+		long[] size = new long[1];
+
+		RunReport.Measurement render = report.start(group, color, Stage.OPENSCAD);
+		int exit;
+		try
+		{
+			if(keepIntermediate)
+				copies.add(FileChannel.open(stl.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+				                            StandardOpenOption.TRUNCATE_EXISTING));
+			if(temporary != null)
+				copies.add(FileChannel.open(temporary.toPath(), StandardOpenOption.WRITE));
+
+			exit = renderer.render(scad, binarySTL, channel -> {
+				TeeChannel tee = new TeeChannel(channel, copies);
+				triangles = reader().read(tee);
+				size[0] = tee.getSize();
+			}, messages);
+		}
+		finally
+		{
+			for(WritableByteChannel copy : copies)
+				copy.close();
+		}
+		render.end(size[0], exit == 0 ? triangles.size() : 0);
+
+		if(temporary != null)
+		{
+			if(exit == 0)
+				cache.store(key, temporary, true);
+			else
+				temporary.delete();
+		}
+		return exit;
+	}
+
+	private STLReader reader()
+	{
+		return binarySTL ? new BinarySTLReader(offHeap) : new ASCIISTLReader(singlePrecision, offHeap);
+	}
+
+	/**
+	 * @param digest hash of the SCAD content that affects the render, used as render cache key
+	 */
+	public void setDigest(byte[] digest)
+	{
+		this.digest = digest;
+	}
+
+	public RenderResult skip() throws IOException
+	{
+		System.out.println(prefix + " No color() block in this group, skipping OpenSCAD");
+		writeEmpty();
+		return new RenderResult(RenderResult.SKIPPED, obj, 0, 0, 0);
+	}
+
+	private void writeEmpty() throws IOException
+	{
+		if(!streamSTL || keepIntermediate)
+		{
+			System.out.println(prefix + " Creating   STL  file... => " + stl.getAbsolutePath());
+			PrintStream print = new PrintStream(stl);
+
+			print.println("solid " + "empty");
+			print.println("endsolid " + "empty");
+
+			print.close();
+		}
+
+		System.out.println(prefix + " Creating   OBJ  file... => " + obj.getAbsolutePath());
+		OBJWriter writer = new OBJWriter(obj, precision);
+		writer.line("mtllib " + mtlOutput.getAbsolutePath());
+		writer.line("usemtl " + material);
+
+		writer.line("o " + "empty");
+		writer.close();
+	}
+}
@@ -0,0 +1,73 @@
+package de.jcm.openscad.colorhelper;
+
+import java.io.File;
+
+public class RenderResult
+{
+	// exit code for combinations that were never passed to OpenSCAD since they contain no color() block
+	public static final int SKIPPED = -1;
+	// exit code for renders that were killed because they took longer than the timeout
+	public static final int TIMED_OUT = -2;
+
+	private int exitCode;
+	private File obj;
+	private int vertexCount;
+	private int normalCount;
+	private int faceCount;
+	private IndexedMesh mesh;
+
+	public RenderResult(int exitCode, File obj, int vertexCount, int normalCount, int faceCount)
+	{
+		this.exitCode = exitCode;
+		this.obj = obj;
+		this.vertexCount = vertexCount;
+		this.normalCount = normalCount;
+		this.faceCount = faceCount;
+	}
+
+	public int getExitCode()
+	{
+		return exitCode;
+	}
+
+	public File getObj()
+	{
+		return obj;
+	}
+
+	public int getVertexCount()
+	{
+		return vertexCount;
+	}
+
+	public int getNormalCount()
+	{
+		return normalCount;
+	}
+
+	public int getFaceCount()
+	{
+		return faceCount;
+	}
+
+	/**
+	 * @return the rendered mesh if the job was asked to retain it, null otherwise and once the outputs are written
+	 */
+	public IndexedMesh getMesh()
+	{
+		return mesh;
+	}
+
+	public void setMesh(IndexedMesh mesh)
+	{
+		this.mesh = mesh;
+	}
+
+	/**
+	 * @return a copy without the mesh, to be kept after the outputs are written
+	 */
+	RenderResult withoutMesh()
+	{
+		return new RenderResult(exitCode, obj, vertexCount, normalCount, faceCount);
+	}
+}
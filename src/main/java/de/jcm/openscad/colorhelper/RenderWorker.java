@@ -0,0 +1,198 @@
+package de.jcm.openscad.colorhelper;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders SCAD code sent by a {@link RemoteRenderer} with a local renderer and streams the STL data back. A few
+ * more connections than the worker has jobs are served at the same time and some more wait for them, others are
+ * closed right away. Only as many renders as the worker has jobs run at the same time.
+ * <p>
+ * There is no authentication and the SCAD code can include any file the worker can read, so the worker should
+ * only listen on addresses of trusted networks.
+ */
+public class RenderWorker implements Closeable
+{
+	// far more than the SCAD file of any one color, but keeps peers from allocating arbitrary amounts of memory
+	static final int MAX_SOURCE = 64 << 20;
+
+	// for reading the request, a peer that connects and sends nothing must not hold a connection forever
+	private static final int REQUEST_TIMEOUT = 30000;
+
+	private Renderer renderer;
+	private ServerSocket server;
+	private ThreadPoolExecutor connections;
+	private Semaphore slots;
+	private File scratch;
+
+	/**
+	 * @param bindAddress address to listen on, e.g. {@link InetAddress#getLoopbackAddress()} for this machine only
+	 */
+	public RenderWorker(Renderer renderer, InetAddress bindAddress, int port, int jobs) throws IOException
+	{
+		jobs = Math.max(1, jobs);
+		this.renderer = renderer;
+		this.server = new ServerSocket(port, 50, bindAddress);
+		this.slots = new Semaphore(jobs, true);
+		// identity requests do not need a render slot, so they get a few threads of their own
+		this.connections = new ThreadPoolExecutor(jobs + 4, jobs + 4, 0, TimeUnit.MILLISECONDS,
+		                                          new ArrayBlockingQueue<>(jobs * 4), runnable -> {
+			Thread thread = new Thread(runnable, "Render worker");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.scratch = Files.createTempDirectory("colorhelper-worker").toFile();
+		scratch.deleteOnExit();
+	}
+
+	public int getPort()
+	{
+		return server.getLocalPort();
+	}
+
+	/**
+	 * Serves connections until the worker is closed.
+	 */
+	public void run() throws IOException
+	{
+		while(!server.isClosed())
+		{
+			Socket socket;
+			try
+			{
+				socket = server.accept();
+			}
+			catch(IOException e)
+			{
+				if(server.isClosed())
+					return;
+				throw e;
+			}
+
+			try
+			{
+				connections.execute(() -> serve(socket));
+			}
+			catch(RejectedExecutionException e)
+			{
+				System.out.println("Too many connections, closed the one from " + socket.getRemoteSocketAddress());
+				socket.close();
+			}
+		}
+	}
+
+	private void serve(Socket socket)
+	{
+		String client = socket.getRemoteSocketAddress().toString();
+		try(Socket s = socket)
+		{
+			s.setSoTimeout(REQUEST_TIMEOUT);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream(),
+			                                                                 RemoteRenderer.CHUNK));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream(),
+			                                                                     RemoteRenderer.CHUNK));
+			if(in.readInt() != RemoteRenderer.MAGIC)
+				return;
+
+			byte type = in.readByte();
+			if(type == RemoteRenderer.IDENTITY)
+			{
+				RemoteRenderer.writeString(out, renderer.getIdentity());
+				out.flush();
+			}
+			else if(type == RemoteRenderer.RENDER)
+			{
+				boolean binarySTL = in.readBoolean();
+				int length = in.readInt();
+				if(length < 0 || length > MAX_SOURCE)
+				{
+					System.out.println("Refused to render " + length + " bytes of SCAD code for " + client);
+					return;
+				}
+				byte[] source = new byte[length];
+				in.readFully(source);
+				// the client waits for the render as long as it takes
+				s.setSoTimeout(0);
+				render(client, source, binarySTL, out);
+			}
+		}
+		catch(IOException e)
+		{
+			System.out.println("Connection to " + client + " failed: " + e);
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void render(String client, byte[] source, boolean binarySTL, DataOutputStream out) throws IOException,
+			InterruptedException
+	{
+		File scad = File.createTempFile("render", ".scad", scratch);
+		try
+		{
+			Files.write(scad.toPath(), source);
+
+			slots.acquire();
+			int exit;
+			List<String> messages = new ArrayList<>();
+			try
+			{
+				System.out.println("Rendering " + source.length + " bytes of SCAD code for " + client + "...");
+				exit = renderer.render(scad, binarySTL, channel -> {
+					ByteBuffer buffer = ByteBuffer.allocate(RemoteRenderer.CHUNK);
+					while(channel.read(buffer) >= 0)
+					{
+						if(buffer.position() == 0)
+							continue;
+						out.writeInt(buffer.position());
+						out.write(buffer.array(), 0, buffer.position());
+						buffer.clear();
+					}
+				}, messages);
+			}
+			finally
+			{
+				slots.release();
+			}
+			System.out.println("Render for " + client + " finished with exit code " + exit);
+
+			out.writeInt(0);
+			out.writeInt(exit);
+			out.writeInt(messages.size());
+			for(String message : messages)
+				RemoteRenderer.writeString(out, message);
+			out.flush();
+		}
+		finally
+		{
+			scad.delete();
+		}
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		server.close();
+		connections.shutdownNow();
+		scratch.delete();
+	}
+}
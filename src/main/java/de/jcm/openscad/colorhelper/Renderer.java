@@ -0,0 +1,38 @@
+package de.jcm.openscad.colorhelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.util.List;
+
+/**
+ * Turns a SCAD file into an STL file.
+ */
+public interface Renderer
+{
+	/**
+	 * Identifies the renderer and its version for the render cache, so output of a different renderer is never
+	 * reused.
+	 */
+	String getIdentity();
+
+	/**
+	 * @param messages receives diagnostic output of the renderer, e.g. the end of OpenSCAD's stderr
+	 * @return 0 on success, the exit code of the renderer on failure or {@link RenderResult#TIMED_OUT}
+	 */
+	int render(File scad, File stl, boolean binarySTL, List<String> messages) throws IOException,
+			InterruptedException;
+
+	/**
+	 * Like {@link #render(File, File, boolean, List)}, but hands the STL data to the sink while it is produced
+	 * instead of writing a file. If the render fails, its exit code is returned even if the sink failed because
+	 * of that.
+	 */
+	int render(File scad, boolean binarySTL, Sink sink, List<String> messages) throws IOException,
+			InterruptedException;
+
+	interface Sink
+	{
+		void read(ReadableByteChannel stl) throws IOException;
+	}
+}
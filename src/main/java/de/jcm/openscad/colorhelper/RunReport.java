@@ -0,0 +1,202 @@
+package de.jcm.openscad.colorhelper;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Wall time, bytes written and triangle counts of every stage of a run, per group and color. Every measurement
+ * is also committed as a {@link StageEvent}. Safe to use from the render threads.
+ */
+public class RunReport
+{
+	private File input;
+	private long start = System.nanoTime();
+	private long end;
+
+	private List<Measurement> measurements = new ArrayList<>();
+
+	public RunReport(File input)
+	{
+		this.input = input;
+	}
+
+	/**
+	 * @param group group name, or null for stages that are not specific to one group
+	 * @param color color name, or null for stages that are not specific to one color
+	 */
+	public Measurement start(String group, String color, Stage stage)
+	{
+		return new Measurement(group, color, stage);
+	}
+
+	private synchronized void add(Measurement measurement)
+	{
+		measurements.add(measurement);
+	}
+
+	public void finish()
+	{
+		end = System.nanoTime();
+	}
+
+	/**
+	 * Writes CSV if the file name ends with ".csv", JSON otherwise.
+	 */
+	public synchronized void write(File file) throws IOException
+	{
+		if(end == 0)
+			finish();
+
+		ArrayList<Measurement> sorted = new ArrayList<>(measurements);
+		sorted.sort(Comparator.comparingLong(m -> m.start));
+
+		Writer writer = new BufferedWriter(new FileWriter(file));
+		if(file.getName().toLowerCase().endsWith(".csv"))
+			writeCSV(writer, sorted);
+		else
+			writeJSON(writer, sorted);
+		writer.close();
+	}
+
+	private void writeCSV(Writer writer, List<Measurement> sorted) throws IOException
+	{
+		writer.write("group,color,stage,start_ms,time_ms,bytes,triangles\n");
+		for(Measurement m : sorted)
+		{
+			writer.write(csv(m.group) + "," + csv(m.color) + "," + m.stage.getName() + ","
+					             + millis(m.start - start) + "," + millis(m.nanos) + "," + m.bytes + ","
+					             + m.triangles + "\n");
+		}
+	}
+
+	private void writeJSON(Writer writer, List<Measurement> sorted) throws IOException
+	{
+		writer.write("{\n");
+		writer.write("  \"input\": " + json(input.getAbsolutePath()) + ",\n");
+		writer.write("  \"timeMs\": " + millis(end - start) + ",\n");
+
+		writer.write("  \"totals\": [");
+		boolean first = true;
+		for(Stage stage : Stage.values())
+		{
+			long nanos = 0, bytes = 0, triangles = 0;
+			int count = 0;
+			for(Measurement m : sorted)
+			{
+				if(m.stage != stage)
+					continue;
+				nanos += m.nanos;
+				bytes += m.bytes;
+				triangles += m.triangles;
+				count++;
+			}
+			if(count == 0)
+				continue;
+
+			writer.write(first ? "\n" : ",\n");
+			first = false;
+			writer.write("    {\"stage\": " + json(stage.getName()) + ", \"count\": " + count
+					             + ", \"timeMs\": " + millis(nanos) + ", \"bytes\": " + bytes + ", \"triangles\": "
+					             + triangles + "}");
+		}
+		writer.write("\n  ],\n");
+
+		writer.write("  \"stages\": [");
+		first = true;
+		for(Measurement m : sorted)
+		{
+			writer.write(first ? "\n" : ",\n");
+			first = false;
+			writer.write("    {\"group\": " + json(m.group) + ", \"color\": " + json(m.color) + ", \"stage\": "
+					             + json(m.stage.getName()) + ", \"startMs\": " + millis(m.start - start)
+					             + ", \"timeMs\": " + millis(m.nanos) + ", \"bytes\": " + m.bytes
+					             + ", \"triangles\": " + m.triangles + "}");
+		}
+		writer.write("\n  ]\n");
+		writer.write("}\n");
+	}
+
+	private static String millis(long nanos)
+	{
+		return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+	}
+
+	private static String csv(String value)
+	{
+		if(value == null)
+			return "";
+		if(value.indexOf(',') < 0 && value.indexOf('"') < 0)
+			return value;
+		return "\"" + value.replace("\"", "\"\"") + "\"";
+	}
+
+	private static String json(String value)
+	{
+		if(value == null)
+			return "null";
+
+		StringBuilder builder = new StringBuilder("\"");
+		for(int i = 0; i < value.length(); i++)
+		{
+			char c = value.charAt(i);
+			if(c == '"' || c == '\\')
+				builder.append('\\').append(c);
+			else if(c < 0x20)
+				builder.append(String.format("\\u%04x", (int) c));
+			else
+				builder.append(c);
+		}
+		return builder.append('"').toString();
+	}
+
+	public class Measurement
+	{
+		private String group;
+		private String color;
+		private Stage stage;
+
+		private long start;
+		private long nanos;
+		private long bytes;
+		private long triangles;
+
+		private StageEvent event = new StageEvent();
+
+		private Measurement(String group, String color, Stage stage)
+		{
+			this.group = group;
+			this.color = color;
+			this.stage = stage;
+
+			event.begin();
+			this.start = System.nanoTime();
+		}
+
+		public void end(long bytes, long triangles)
+		{
+			this.nanos = System.nanoTime() - start;
+			this.bytes = bytes;
+			this.triangles = triangles;
+
+			event.end();
+			if(event.shouldCommit())
+			{
+				event.group = group;
+				event.color = color;
+				event.stage = stage.getName();
+				event.bytes = bytes;
+				event.triangles = triangles;
+				event.commit();
+			}
+
+			add(this);
+		}
+	}
+}
@@ -0,0 +1,506 @@
+package de.jcm.openscad.colorhelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * An input file, parsed once: its lines (with extern properties already replaced), the groups and colors it
+ * defines and every color() block with the line its braces end on. Included files are inlined, so their blocks and
+ * properties are found as well and the written SCAD files do not depend on where they are. Used files cannot be
+ * inlined without changing what they see, their paths are made absolute instead and their content becomes part of
+ * the digests.
+ */
+public class SCADSource
+{
+	private String[] lines;
+	// the property an /*extern*/ line declares, null for all other lines
+	private String[] externs;
+
+	private List<Group> groups;
+	private List<String> colors;
+	private List<Block> blocks;
+
+	// index into blocks for every line a color() block starts on, -1 for all others
+	private int[] blockAt;
+
+	// [group][color]: whether the SCAD file written for that combination keeps any color() block
+	private boolean[][] geometry;
+
+	// paths and hashes of all used files, empty if there are none
+	private byte[] libraries;
+	// the input and every file it includes or uses
+	private List<File> files;
+
+	private SCADSource()
+	{
+	}
+
+	public static SCADSource parse(File input, Map<String, String> properties) throws IOException
+	{
+		return parse(input, properties, null);
+	}
+
+	/**
+	 * @param palette maps the rgb() colors of the input onto fewer colors, or null to keep them all
+	 */
+	public static SCADSource parse(File input, Map<String, String> properties, Palette palette) throws IOException
+	{
+		return parse(input, properties, palette, new LibraryCache(null, LibraryCache.defaultSearchPath(null)));
+	}
+
+	/**
+	 * @param libraries reads the input and the files it includes or uses
+	 */
+	public static SCADSource parse(File input, Map<String, String> properties, Palette palette,
+	                               LibraryCache libraries) throws IOException
+	{
+		ArrayList<String> inputLines = new ArrayList<>();
+		TreeMap<String, String> used = new TreeMap<>();
+		LinkedHashSet<File> files = new LinkedHashSet<>();
+		inline(libraries, input, inputLines, new LinkedList<>(), used, files);
+
+		ArrayList<String> allLines = new ArrayList<>();
+		ArrayList<String> externs = new ArrayList<>();
+		LinkedList<Group> groups = new LinkedList<>();
+
+		int lineNumber = 0;
+		for(String line : inputLines)
+		{
+			String lower = line.toLowerCase();
+			if(lower.startsWith("/*start_group(\""))
+			{
+				int start = line.indexOf('"') + 1;
+				int end = line.indexOf('"', start);
+				String name = line.substring(start, end).toLowerCase();
+
+				groups.add(new Group(name, lineNumber, -1));
+
+				System.out.println("Found new group: [" + name + "]");
+			}
+			else if(lower.startsWith("/*end_group(\""))
+			{
+				int start = line.indexOf('"') + 1;
+				int end = line.indexOf('"', start);
+				String name = line.substring(start, end).toLowerCase();
+
+				for(Group group : groups)
+				{
+					if(group.getName().equals(name))
+						group.setLineEnd(lineNumber);
+				}
+			}
+			if(lower.startsWith("/*extern*/"))
+			{
+				String def = line.substring(10);
+				String[] parts = def.split("=");
+
+				String key = parts[0].trim();
+				externs.add(key);
+
+				if(properties.containsKey(key))
+				{
+					String value = properties.get(key);
+
+					allLines.add("/* prop */" + key + " = \"" + value + "\";");
+					System.out.println("Set value for property " + key + " to " + value);
+				}
+				else
+				{
+					allLines.add(line);
+					System.out.println("Ignored property " + key);
+				}
+			}
+			else
+			{
+				allLines.add(line);
+				externs.add(null);
+			}
+			lineNumber++;
+		}
+
+		groups.addFirst(new Group("main", 0, lineNumber - 1));
+
+		SCADSource source = new SCADSource();
+		source.lines = allLines.toArray(new String[0]);
+		source.externs = externs.toArray(new String[0]);
+		source.groups = new ArrayList<>(groups);
+		source.libraries = digest(used);
+		source.files = new ArrayList<>(files);
+		source.index(palette);
+		return source;
+	}
+
+	/**
+	 * Adds the lines of a file to the output, replacing include statements with the lines of the included file
+	 * and making the paths of use statements absolute.
+	 *
+	 * @param including the files whose includes are being inlined, to detect recursion
+	 * @param used      hashes of the used files by path
+	 * @param files     receives every file read
+	 */
+	private static void inline(LibraryCache libraries, File file, List<String> output, LinkedList<File> including,
+	                           Map<String, String> used, Set<File> files) throws IOException
+	{
+		List<String> lines = new ArrayList<>();
+		LibraryCache.Library library = libraries.read(file, lines);
+		files.add(library.getFile());
+		including.push(library.getFile());
+
+		int next = 0;
+		for(LibraryCache.Directive directive : library.getDirectives())
+		{
+			output.addAll(lines.subList(next, directive.getLine()));
+			next = directive.getLine() + 1;
+
+			String line = lines.get(directive.getLine());
+			String rest = line.substring(line.indexOf('>') + 1);
+			File target = libraries.resolve(library.getFile(), directive.getTarget());
+			if(target == null)
+			{
+				System.out.println("Could not find " + directive.getTarget() + " in " + library.getFile());
+				output.add(line);
+			}
+			else if(directive.isInclude())
+			{
+				if(including.contains(target))
+					throw new IOException("Recursive include of " + target + " in " + library.getFile());
+
+				System.out.println("Including " + target + "...");
+				output.add("// include <" + directive.getTarget() + ">");
+				inline(libraries, target, output, including, used, files);
+				if(!rest.trim().isEmpty())
+					output.add(rest);
+			}
+			else
+			{
+				output.add("use <" + target.getPath().replace(File.separatorChar, '/') + ">" + rest);
+				use(libraries, target, used, files);
+			}
+		}
+		output.addAll(lines.subList(next, lines.size()));
+
+		including.pop();
+	}
+
+	/**
+	 * Collects the hashes of a used file and of everything it includes or uses in turn.
+	 */
+	private static void use(LibraryCache libraries, File file, Map<String, String> used, Set<File> files)
+			throws IOException
+	{
+		LibraryCache.Library library = libraries.get(file);
+		String path = library.getFile().getPath();
+		if(used.containsKey(path))
+			return;
+
+		files.add(library.getFile());
+		used.put(path, library.getHash());
+		if(library.hasColors())
+			System.out.println("Colors in " + path + " are not separated, include it instead of using it");
+
+		for(LibraryCache.Directive directive : library.getDirectives())
+		{
+			File target = libraries.resolve(library.getFile(), directive.getTarget());
+			if(target != null)
+				use(libraries, target, used, files);
+		}
+	}
+
+	private static byte[] digest(Map<String, String> used)
+	{
+		StringBuilder digest = new StringBuilder();
+		for(Map.Entry<String, String> entry : used.entrySet())
+			digest.append(entry.getKey()).append('\0').append(entry.getValue()).append('\n');
+		return digest.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Returns a copy with other values for some properties, written as they are instead of as strings, so they can
+	 * be numbers like $fn. Properties the input declares extern are replaced in place, all others are
+	 * appended as top level assignments, which take precedence over earlier ones in OpenSCAD. Groups, colors and
+	 * blocks stay the same.
+	 */
+	public SCADSource override(Map<String, String> overrides)
+	{
+		SCADSource source = new SCADSource();
+		source.groups = groups;
+		source.colors = colors;
+		source.blocks = blocks;
+		source.geometry = geometry;
+		source.libraries = libraries;
+		source.files = files;
+
+		ArrayList<String> allLines = new ArrayList<>(Arrays.asList(lines));
+		ArrayList<String> allExterns = new ArrayList<>(Arrays.asList(externs));
+		HashSet<String> replaced = new HashSet<>();
+		for(int i = 0; i < lines.length; i++)
+		{
+			String key = externs[i];
+			if(key != null && overrides.containsKey(key))
+			{
+				allLines.set(i, "/* override */" + key + " = " + overrides.get(key) + ";");
+				replaced.add(key);
+			}
+		}
+		for(Map.Entry<String, String> override : overrides.entrySet())
+		{
+			if(!replaced.contains(override.getKey()))
+			{
+				allLines.add("/* override */" + override.getKey() + " = " + override.getValue() + ";");
+				allExterns.add(null);
+			}
+			System.out.println("Set override for property " + override.getKey() + " to " + override.getValue());
+		}
+
+		source.lines = allLines.toArray(new String[0]);
+		source.externs = allExterns.toArray(new String[0]);
+		source.blockAt = Arrays.copyOf(blockAt, source.lines.length);
+		Arrays.fill(source.blockAt, lines.length, source.lines.length, -1);
+		return source;
+	}
+
+	private void index(Palette palette)
+	{
+		int[] groupMap = new int[lines.length];
+		for(int i = 0; i < groups.size(); i++)
+		{
+			Group group = groups.get(i);
+			Arrays.fill(groupMap, group.getLineStart(), group.getLineEnd() + 1, i);
+		}
+
+		colors = new ArrayList<>();
+		blocks = new ArrayList<>();
+		blockAt = new int[lines.length];
+		Arrays.fill(blockAt, -1);
+
+		String[] lineColors = new String[lines.length];
+		LinkedHashMap<String, Integer> usage = new LinkedHashMap<>();
+		for(int i = 0; i < lines.length; i++)
+		{
+			lineColors[i] = color(lines[i].trim(), lines[i]);
+			if(lineColors[i] != null)
+				usage.merge(lineColors[i], 1, Integer::sum);
+		}
+		Map<String, String> mapping = palette == null ? new HashMap<>() : palette.quantize(usage);
+
+		HashMap<String, Integer> colorIds = new HashMap<>();
+		for(int i = 0; i < lines.length; i++)
+		{
+			String color = lineColors[i];
+			if(color == null)
+				continue;
+			color = mapping.getOrDefault(color, color);
+
+			Integer id = colorIds.get(color);
+			if(id == null)
+			{
+				id = colors.size();
+				colorIds.put(color, id);
+				colors.add(color);
+				System.out.println("Found new color: [" + color + "]");
+			}
+
+			blockAt[i] = blocks.size();
+			blocks.add(new Block(i, end(i), id, groupMap[i]));
+		}
+
+		plan();
+	}
+
+	/**
+	 * A block only survives in the output for its own group and color, and only if every block it is nested in
+	 * has that same group and color, since write() comments out enclosing blocks as a whole.
+	 */
+	private void plan()
+	{
+		geometry = new boolean[groups.size()][colors.size()];
+
+		LinkedList<Block> enclosing = new LinkedList<>();
+		for(Block block : blocks)
+		{
+			while(!enclosing.isEmpty() && enclosing.peek().end < block.start)
+				enclosing.pop();
+
+			Block parent = enclosing.peek();
+			block.reachable = parent == null
+					|| (parent.reachable && parent.group == block.group && parent.color == block.color);
+			if(block.reachable)
+				geometry[block.group][block.color] = true;
+
+			enclosing.push(block);
+		}
+	}
+
+	private static String color(String trimmed, String line)
+	{
+		if(trimmed.startsWith("color(\""))
+		{
+			int start = line.indexOf('"') + 1;
+			int end = line.indexOf('"', start);
+			return line.substring(start, end).toLowerCase();
+		}
+		else if(trimmed.startsWith("color([") || trimmed.startsWith("color( ["))
+		{
+			int start = line.indexOf('[') + 1;
+			int end = line.indexOf(']', start);
+			String c = line.substring(start, end);
+
+			String[] parts = c.split(",");
+
+			double r = Double.parseDouble(parts[0].trim());
+			double g = Double.parseDouble(parts[1].trim());
+			double b = Double.parseDouble(parts[2].trim());
+
+			return "rgb(" + r + "," + g + "," + b + ")";
+		}
+		return null;
+	}
+
+	/**
+	 * A block ends on the line its braces close, or on its first statement if it does not open any braces.
+	 */
+	private int end(int start)
+	{
+		int open = 0;
+		boolean braces = false;
+		for(int i = start; i < lines.length; i++)
+		{
+			String line = lines[i];
+			for(int j = 0; j < line.length(); j++)
+			{
+				char c = line.charAt(j);
+				if(c == '{')
+				{
+					open++;
+					braces = true;
+				}
+				else if(c == '}')
+					open--;
+			}
+			if(open <= 0 && (braces || line.indexOf(';') >= 0))
+				return i;
+		}
+		return lines.length - 1;
+	}
+
+	public List<Group> getGroups()
+	{
+		return groups;
+	}
+
+	/**
+	 * @return canonical paths of the input and of every file it includes or uses, directly or not
+	 */
+	public List<File> getFiles()
+	{
+		return Collections.unmodifiableList(files);
+	}
+
+	public List<String> getColors()
+	{
+		return colors;
+	}
+
+	public boolean hasGeometry(int group, int color)
+	{
+		return geometry[group][color];
+	}
+
+	/**
+	 * Writes the source with every color() block commented out that does not belong to the given group and color.
+	 */
+	public void write(Writer writer, int group, int color) throws IOException
+	{
+		for(int i = 0; i < lines.length; i++)
+		{
+			int b = blockAt[i];
+			if(b >= 0)
+			{
+				Block block = blocks.get(b);
+				if(block.group != group || block.color != color)
+				{
+					for(; i <= block.end; i++)
+					{
+						writer.write("//");
+						writer.write(lines[i]);
+						writer.write('\n');
+					}
+					i--;
+					continue;
+				}
+			}
+			writer.write(lines[i]);
+			writer.write('\n');
+		}
+	}
+
+	/**
+	 * Hashes only the lines write() keeps for the given group and color. Commented out blocks cannot change what
+	 * OpenSCAD renders, so editing one color does not invalidate the renders of all other colors. Used files are
+	 * hashed as well, since their paths stay the same when they change.
+	 */
+	public byte[] digest(int group, int color)
+	{
+		MessageDigest digest;
+		try
+		{
+			digest = MessageDigest.getInstance("SHA-256");
+		}
+		catch(NoSuchAlgorithmException e)
+		{
+			throw new IllegalStateException(e);
+		}
+
+		// inputs that use nothing keep their earlier digests
+		digest.update(libraries);
+		for(int i = 0; i < lines.length; i++)
+		{
+			int b = blockAt[i];
+			if(b >= 0)
+			{
+				Block block = blocks.get(b);
+				if(block.group != group || block.color != color)
+				{
+					i = block.end;
+					continue;
+				}
+			}
+			digest.update(lines[i].getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) '\n');
+		}
+		return digest.digest();
+	}
+
+	private static class Block
+	{
+		private int start;
+		private int end;
+		private int color;
+		private int group;
+		private boolean reachable;
+
+		private Block(int start, int end, int color, int group)
+		{
+			this.start = start;
+			this.end = end;
+			this.color = color;
+			this.group = group;
+		}
+	}
+}
@@ -0,0 +1,15 @@
+package de.jcm.openscad.colorhelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+
+public interface STLReader
+{
+	Mesh read(File file) throws IOException;
+
+	/**
+	 * Reads an STL stream, e.g. OpenSCAD's stdout, up to its end.
+	 */
+	Mesh read(ReadableByteChannel channel) throws IOException;
+}
@@ -0,0 +1,26 @@
+package de.jcm.openscad.colorhelper;
+
+/**
+ * The steps of a conversion run that {@link RunReport} measures.
+ */
+public enum Stage
+{
+	PARSE_SOURCE,
+	GENERATE_SCAD,
+	CACHE_RESTORE,
+	OPENSCAD,
+	READ_STL,
+	WELD,
+	DECIMATE,
+	WRITE_OBJ,
+	WRITE_MTL,
+	CULL,
+	MERGE,
+	WRITE_GLB,
+	WRITE_3MF;
+
+	public String getName()
+	{
+		return name().toLowerCase();
+	}
+}
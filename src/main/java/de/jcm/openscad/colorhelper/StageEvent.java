@@ -0,0 +1,35 @@
+package de.jcm.openscad.colorhelper;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event for one measured stage, so runs can be analysed together with GC and I/O events.
+ * Costs next to nothing unless a recording with this event enabled is running.
+ */
+@Name("de.jcm.openscad.colorhelper.Stage")
+@Label("ColorHelper Stage")
+@Category("ColorHelper")
+@Description("One stage of converting a group/color combination")
+public class StageEvent extends Event
+{
+	@Label("Group")
+	String group;
+
+	@Label("Color")
+	String color;
+
+	@Label("Stage")
+	String stage;
+
+	@Label("Bytes")
+	@DataAmount
+	long bytes;
+
+	@Label("Triangles")
+	long triangles;
+}
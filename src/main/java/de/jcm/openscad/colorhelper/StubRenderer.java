@@ -0,0 +1,209 @@
+package de.jcm.openscad.colorhelper;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Stands in for OpenSCAD where it is not installed, e.g. to test or benchmark the rest of the pipeline. Renders
+ * a cube for every color() block that is not commented out, placed by its line number, so the output only
+ * depends on the SCAD file. Each cube face is split into a grid of resolution x resolution squares. Like
+ * OpenSCAD, it fails if there is nothing to render.
+ */
+public class StubRenderer implements Renderer
+{
+	private static final double[][] FACES = {
+			// normal, origin, u, v
+			{-1, 0, 0, 0, 0, 0, 0, 0, 1, 0, 1, 0},
+			{1, 0, 0, 1, 0, 0, 0, 1, 0, 0, 0, 1},
+			{0, -1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1},
+			{0, 1, 0, 0, 1, 0, 0, 0, 1, 1, 0, 0},
+			{0, 0, -1, 0, 0, 0, 0, 1, 0, 1, 0, 0},
+			{0, 0, 1, 0, 0, 1, 1, 0, 0, 0, 1, 0}
+	};
+
+	private int resolution;
+
+	public StubRenderer(int resolution)
+	{
+		this.resolution = Math.max(1, resolution);
+	}
+
+	@Override
+	public String getIdentity()
+	{
+		return "stub " + resolution;
+	}
+
+	@Override
+	public int render(File scad, File stl, boolean binarySTL, List<String> messages) throws IOException
+	{
+		int[] cubes = cubes(scad);
+		if(cubes.length == 0)
+		{
+			messages.add("Current top level object is empty.");
+			return 1;
+		}
+
+		try(OutputStream out = new BufferedOutputStream(new FileOutputStream(stl)))
+		{
+			write(cubes, out, binarySTL);
+		}
+		return 0;
+	}
+
+	@Override
+	public int render(File scad, boolean binarySTL, Sink sink, List<String> messages) throws IOException
+	{
+		int[] cubes = cubes(scad);
+		if(cubes.length == 0)
+		{
+			messages.add("Current top level object is empty.");
+			return 1;
+		}
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		write(cubes, out, binarySTL);
+		sink.read(Channels.newChannel(new ByteArrayInputStream(out.toByteArray())));
+		return 0;
+	}
+
+	/**
+	 * @return the line numbers of all color() blocks that are not commented out
+	 */
+	private static int[] cubes(File scad) throws IOException
+	{
+		int count = 0;
+		int[] lines = new int[16];
+		try(BufferedReader reader = new BufferedReader(new FileReader(scad)))
+		{
+			String line;
+			for(int number = 0; (line = reader.readLine()) != null; number++)
+			{
+				if(!line.trim().startsWith("color("))
+					continue;
+				if(count == lines.length)
+					lines = Arrays.copyOf(lines, count * 2);
+				lines[count++] = number;
+			}
+		}
+		return Arrays.copyOf(lines, count);
+	}
+
+	private void write(int[] cubes, OutputStream out, boolean binarySTL) throws IOException
+	{
+		int facets = cubes.length * FACES.length * resolution * resolution * 2;
+		Facets writer = binarySTL ? new Binary(out, facets) : new ASCII(out);
+		double step = 1.0 / resolution;
+		for(int line : cubes)
+		{
+			double offset = line * 2.0;
+			for(double[] f : FACES)
+			{
+				for(int i = 0; i < resolution; i++)
+				{
+					for(int j = 0; j < resolution; j++)
+					{
+						double[] p = new double[12];
+						for(int k = 0; k < 4; k++)
+						{
+							double u = (i + (k == 1 || k == 2 ? 1 : 0)) * step;
+							double v = (j + (k >= 2 ? 1 : 0)) * step;
+							for(int axis = 0; axis < 3; axis++)
+								p[k * 3 + axis] = f[3 + axis] + u * f[6 + axis] + v * f[9 + axis];
+							p[k * 3] += offset;
+						}
+						writer.facet(f, p, 0, 3, 6);
+						writer.facet(f, p, 0, 6, 9);
+					}
+				}
+			}
+		}
+		writer.finish();
+	}
+
+	private interface Facets
+	{
+		void facet(double[] normal, double[] points, int a, int b, int c) throws IOException;
+
+		void finish() throws IOException;
+	}
+
+	private static class ASCII implements Facets
+	{
+		private PrintStream print;
+
+		private ASCII(OutputStream out)
+		{
+			this.print = new PrintStream(out);
+			print.println("solid OpenSCAD_Model");
+		}
+
+		@Override
+		public void facet(double[] normal, double[] points, int a, int b, int c)
+		{
+			print.println("  facet normal " + normal[0] + " " + normal[1] + " " + normal[2]);
+			print.println("    outer loop");
+			for(int p : new int[]{a, b, c})
+				print.println("      vertex " + points[p] + " " + points[p + 1] + " " + points[p + 2]);
+			print.println("    endloop");
+			print.println("  endfacet");
+		}
+
+		@Override
+		public void finish()
+		{
+			print.println("endsolid OpenSCAD_Model");
+			print.flush();
+		}
+	}
+
+	private static class Binary implements Facets
+	{
+		private OutputStream out;
+		private ByteBuffer record = ByteBuffer.allocate(50).order(ByteOrder.LITTLE_ENDIAN);
+
+		private Binary(OutputStream out, int facets) throws IOException
+		{
+			this.out = out;
+
+			ByteBuffer header = ByteBuffer.allocate(84).order(ByteOrder.LITTLE_ENDIAN);
+			header.put("OpenSCAD Model".getBytes());
+			header.position(80);
+			header.putInt(facets);
+			out.write(header.array());
+		}
+
+		@Override
+		public void facet(double[] normal, double[] points, int a, int b, int c) throws IOException
+		{
+			record.clear();
+			for(int i = 0; i < 3; i++)
+				record.putFloat((float) normal[i]);
+			for(int p : new int[]{a, b, c})
+			{
+				for(int i = 0; i < 3; i++)
+					record.putFloat((float) points[p + i]);
+			}
+			record.putShort((short) 0);
+			out.write(record.array());
+		}
+
+		@Override
+		public void finish()
+		{
+		}
+	}
+}
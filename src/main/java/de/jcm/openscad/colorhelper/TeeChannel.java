@@ -0,0 +1,64 @@
+package de.jcm.openscad.colorhelper;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+
+/**
+ * Passes everything read from a channel on to other channels as well, e.g. to keep a copy of a stream that is
+ * parsed on the fly.
+ */
+public class TeeChannel implements ReadableByteChannel
+{
+	private ReadableByteChannel source;
+	private List<? extends WritableByteChannel> copies;
+	private long size;
+
+	public TeeChannel(ReadableByteChannel source, List<? extends WritableByteChannel> copies)
+	{
+		this.source = source;
+		this.copies = copies;
+	}
+
+	@Override
+	public int read(ByteBuffer buffer) throws IOException
+	{
+		int start = buffer.position();
+		int read = source.read(buffer);
+		if(read > 0)
+		{
+			size += read;
+			for(WritableByteChannel copy : copies)
+			{
+				ByteBuffer data = buffer.duplicate();
+				data.limit(start + read);
+				data.position(start);
+				while(data.hasRemaining())
+					copy.write(data);
+			}
+		}
+		return read;
+	}
+
+	/**
+	 * @return number of bytes read so far
+	 */
+	public long getSize()
+	{
+		return size;
+	}
+
+	@Override
+	public boolean isOpen()
+	{
+		return source.isOpen();
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		source.close();
+	}
+}
@@ -0,0 +1,166 @@
+package de.jcm.openscad.colorhelper;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes a group as a 3MF package with one object per color, each referring to its entry in a base material
+ * group. The model is streamed into the zip file object by object, so it never exists as a whole in memory.
+ */
+public class ThreeMFWriter implements Closeable
+{
+	private static final String CONTENT_TYPES = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+			+ "<Types xmlns=\"http://schemas.openxmlformats.org/package/2006/content-types\">\n"
+			+ " <Default Extension=\"rels\" ContentType=\"application/vnd.openxmlformats-package.relationships+xml\"/>\n"
+			+ " <Default Extension=\"model\" ContentType=\"application/vnd.ms-package.3dmanufacturing-3dmodel+xml\"/>\n"
+			+ "</Types>\n";
+	private static final String RELATIONSHIPS = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+			+ "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">\n"
+			+ " <Relationship Target=\"/3D/3dmodel.model\" Id=\"rel0\" "
+			+ "Type=\"http://schemas.microsoft.com/3dmanufacturing/2013/01/3dmodel\"/>\n"
+			+ "</Relationships>\n";
+
+	private static final int MATERIALS = 1;
+
+	private ZipOutputStream zip;
+	private OBJWriter writer;
+
+	private boolean materials;
+	private int nextId = MATERIALS + 1;
+	private List<Integer> objects = new ArrayList<>();
+
+	public ThreeMFWriter(File file, int precision) throws IOException
+	{
+		zip = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		writer = new OBJWriter(Channels.newChannel(zip), precision);
+
+		entry("[Content_Types].xml");
+		writer.write(CONTENT_TYPES);
+		entry("_rels/.rels");
+		writer.write(RELATIONSHIPS);
+
+		entry("3D/3dmodel.model");
+		writer.line("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+		writer.line("<model unit=\"millimeter\" xml:lang=\"en-US\" "
+				            + "xmlns=\"http://schemas.microsoft.com/3dmanufacturing/core/2015/02\">");
+		writer.line(" <resources>");
+	}
+
+	private void entry(String name) throws IOException
+	{
+		writer.flush();
+		zip.putNextEntry(new ZipEntry(name));
+	}
+
+	/**
+	 * Writes the base material group. Must be called once before the first object.
+	 *
+	 * @param colors sRGB components from 0 to 1 for each material
+	 */
+	public void materials(List<String> names, List<double[]> colors) throws IOException
+	{
+		materials = true;
+		// the schema requires at least one base material in a group
+		if(names.isEmpty())
+			return;
+
+		writer.line("  <basematerials id=\"" + MATERIALS + "\">");
+		for(int i = 0; i < names.size(); i++)
+		{
+			double[] rgb = colors.get(i);
+			writer.line("   <base name=\"" + escape(names.get(i)) + "\" displaycolor=\"" + hex(rgb) + "\"/>");
+		}
+		writer.line("  </basematerials>");
+	}
+
+	/**
+	 * @param material index of the object's material in the list passed to {@link #materials(List, List)}
+	 */
+	public void add(String name, int material, IndexedMesh mesh) throws IOException
+	{
+		if(!materials)
+			throw new IllegalStateException("materials() must be written before the first object");
+		if(mesh.getFaceCount() == 0)
+			return;
+
+		int id = nextId++;
+		objects.add(id);
+
+		writer.line("  <object id=\"" + id + "\" type=\"model\" name=\"" + escape(name) + "\" pid=\"" + MATERIALS
+				            + "\" pindex=\"" + material + "\">");
+		writer.line("   <mesh>");
+		writer.line("    <vertices>");
+		for(int i = 0; i < mesh.getVertexCount(); i++)
+		{
+			writer.write("     <vertex x=\"");
+			writer.write(mesh.getVertex(i, 0));
+			writer.write("\" y=\"");
+			writer.write(mesh.getVertex(i, 1));
+			writer.write("\" z=\"");
+			writer.write(mesh.getVertex(i, 2));
+			writer.write("\"/>\n");
+		}
+		writer.line("    </vertices>");
+		writer.line("    <triangles>");
+		for(int i = 0; i < mesh.getFaceCount(); i++)
+		{
+			writer.write("     <triangle v1=\"");
+			writer.write((long) mesh.getFaceVertex(i, 0));
+			writer.write("\" v2=\"");
+			writer.write((long) mesh.getFaceVertex(i, 1));
+			writer.write("\" v3=\"");
+			writer.write((long) mesh.getFaceVertex(i, 2));
+			writer.write("\"/>\n");
+		}
+		writer.line("    </triangles>");
+		writer.line("   </mesh>");
+		writer.line("  </object>");
+	}
+
+	/**
+	 * @return number of uncompressed bytes written so far
+	 */
+	public long size()
+	{
+		return writer.size();
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		writer.line(" </resources>");
+		writer.line(" <build>");
+		for(int id : objects)
+			writer.line("  <item objectid=\"" + id + "\"/>");
+		writer.line(" </build>");
+		writer.line("</model>");
+		writer.flush();
+
+		zip.closeEntry();
+		zip.close();
+	}
+
+	private static String hex(double[] rgb)
+	{
+		StringBuilder hex = new StringBuilder("#");
+		for(double component : rgb)
+		{
+			int value = (int) Math.round(Math.max(0, Math.min(1, component)) * 255);
+			hex.append(String.format("%02X", value));
+		}
+		return hex.toString();
+	}
+
+	private static String escape(String value)
+	{
+		return value.replace("&", "&amp;").replace("\"", "&quot;").replace("<", "&lt;").replace(">", "&gt;");
+	}
+}
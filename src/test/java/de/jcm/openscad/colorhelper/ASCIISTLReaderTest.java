@@ -0,0 +1,195 @@
+package de.jcm.openscad.colorhelper;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class ASCIISTLReaderTest
+{
+	private static final String[] NUMBERS = {
+			"0", "-0", "+0", "-0.0", "0e0", "-0e-5", "1", "-1", "+1.5", "1.", ".5", "-.5", "0.1", "0.3",
+			"0.30000000000000004", "1e22", "1e23", "-1e-22", "1e-23", "1E5", "1e+5", "2.5E-3", "-7.0e-10",
+			"1.7976931348623157e308", "1e400", "4.9e-324", "1e-400", "2.2250738585072014E-308",
+			"2.2250738585072011e-308", "9007199254740992", "9007199254740993", "-90071992547409931",
+			"123456789012345678901234567890", "0.000000000000000000000000000001",
+			"3.141592653589793238462643383279", "100000000000000000000000", "-1.0000000000000002",
+			"4503599627370497.5", "0.1000000000000000055511151231257827"
+	};
+
+	private static String facet(String[] values)
+	{
+		return "  facet normal " + values[0] + " " + values[1] + " " + values[2] + "\n"
+				+ "    outer loop\n"
+				+ "      vertex " + values[3] + " " + values[4] + " " + values[5] + "\n"
+				+ "      vertex " + values[6] + " " + values[7] + " " + values[8] + "\n"
+				+ "      vertex " + values[9] + " " + values[10] + " " + values[11] + "\n"
+				+ "    endloop\n"
+				+ "  endfacet\n";
+	}
+
+	/**
+	 * Writes the numbers twelve per facet, the last facet filled up with zeros.
+	 */
+	private static String stl(List<String> numbers)
+	{
+		StringBuilder stl = new StringBuilder("solid OpenSCAD_Model\n");
+		for(int i = 0; i < numbers.size(); i += 12)
+		{
+			String[] values = new String[12];
+			for(int j = 0; j < 12; j++)
+				values[j] = i + j < numbers.size() ? numbers.get(i + j) : "0";
+			stl.append(facet(values));
+		}
+		return stl.append("endsolid OpenSCAD_Model\n").toString();
+	}
+
+	private static Mesh read(STLReader reader, String stl) throws IOException
+	{
+		byte[] bytes = stl.getBytes(StandardCharsets.US_ASCII);
+		return reader.read(Channels.newChannel(new ByteArrayInputStream(bytes)));
+	}
+
+	private static double value(Mesh mesh, int index)
+	{
+		int triangle = index / 12;
+		int value = index % 12;
+		return value < 3 ? mesh.getNormal(triangle, value) : mesh.getVertex(triangle, (value - 3) / 3, value % 3);
+	}
+
+	private static void assertParsed(List<String> numbers, Mesh mesh)
+	{
+		assertEquals((numbers.size() + 11) / 12, mesh.size());
+		for(int i = 0; i < numbers.size(); i++)
+		{
+			long expected = Double.doubleToRawLongBits(Double.parseDouble(numbers.get(i)));
+			long actual = Double.doubleToRawLongBits(value(mesh, i));
+			assertEquals(numbers.get(i) + " read as " + Double.longBitsToDouble(actual), expected, actual);
+		}
+	}
+
+	private static void assertSameTriangles(Mesh expected, Mesh actual)
+	{
+		assertEquals(expected.getName(), actual.getName());
+		assertEquals(expected.size(), actual.size());
+		for(int i = 0; i < expected.size() * 12; i++)
+		{
+			assertEquals("value " + i, Double.doubleToRawLongBits(value(expected, i)),
+			             Double.doubleToRawLongBits(value(actual, i)));
+		}
+	}
+
+	private static List<String> randomNumbers(Random random, int count)
+	{
+		List<String> numbers = new ArrayList<>();
+		for(int i = 0; i < count; i++)
+		{
+			switch(random.nextInt(5))
+			{
+				case 0:
+					numbers.add(Double.toString(Double.longBitsToDouble(random.nextLong())));
+					break;
+				case 1:
+					numbers.add(Double.toString((random.nextDouble() - 0.5) * 200));
+					break;
+				case 2:
+					numbers.add(String.format(Locale.ROOT, "%g", (random.nextDouble() - 0.5) * 1000));
+					break;
+				case 3:
+					numbers.add(Integer.toString(random.nextInt(2001) - 1000));
+					break;
+				default:
+					// long mantissas and exponents around the limits of the fast path
+					StringBuilder number = new StringBuilder(random.nextBoolean() ? "-" : "");
+					int digits = 1 + random.nextInt(25);
+					int point = random.nextInt(digits + 1);
+					for(int d = 0; d < digits; d++)
+					{
+						if(d == point)
+							number.append('.');
+						number.append((char) ('0' + random.nextInt(10)));
+					}
+					if(random.nextBoolean())
+						number.append('e').append(random.nextInt(61) - 30);
+					numbers.add(number.toString());
+			}
+		}
+		return numbers;
+	}
+
+	@Test
+	public void numbersAreBitExact() throws IOException
+	{
+		List<String> numbers = new ArrayList<>();
+		for(String number : NUMBERS)
+			numbers.add(number);
+		numbers.addAll(randomNumbers(new Random(7), 20000));
+		assertParsed(numbers, read(new ASCIISTLReader(), stl(numbers)));
+	}
+
+	@Test
+	public void whitespaceDoesNotMatter() throws IOException
+	{
+		String stl = "solid \t mixed \r\n"
+				+ "facet\tnormal  -0\t\t0 +1e0\r\n"
+				+ "\touter   loop\r\n"
+				+ "\t\tvertex 1.5\t-2.5e-1   3E2\n"
+				+ "  vertex\t\t0.1 0.2 0.3\f\n"
+				+ "vertex -1e-3 +4 5.\r\n"
+				+ "endloop\n"
+				+ "\t endfacet\t\n"
+				+ "endsolid mixed";
+		Mesh mesh = read(new ASCIISTLReader(), stl);
+		assertEquals("mixed", mesh.getName());
+
+		List<String> numbers = new ArrayList<>();
+		for(String number : "-0 0 +1e0 1.5 -2.5e-1 3E2 0.1 0.2 0.3 -1e-3 +4 5.".split(" "))
+			numbers.add(number);
+		assertParsed(numbers, mesh);
+	}
+
+	@Test
+	public void sameTrianglesAsScannerReader() throws IOException
+	{
+		List<String> numbers = new ArrayList<>();
+		for(String number : NUMBERS)
+			numbers.add(number);
+		numbers.addAll(randomNumbers(new Random(11), 12000));
+		String stl = stl(numbers);
+
+		assertSameTriangles(read(new ScannerSTLReader(), stl), read(new ASCIISTLReader(), stl));
+
+		// files go through their own path, larger than one buffer fill
+		File file = File.createTempFile("ascii", ".stl");
+		try
+		{
+			Files.write(file.toPath(), stl.getBytes(StandardCharsets.US_ASCII));
+			assertSameTriangles(new ScannerSTLReader().read(file), new ASCIISTLReader().read(file));
+			assertSameTriangles(new ScannerSTLReader().read(file), new ASCIISTLReader(false, true).read(file));
+		}
+		finally
+		{
+			file.delete();
+		}
+	}
+
+	@Test
+	public void readerCanBeReused() throws IOException
+	{
+		List<String> first = randomNumbers(new Random(1), 1200);
+		List<String> second = randomNumbers(new Random(2), 36);
+		ASCIISTLReader reader = new ASCIISTLReader();
+		assertParsed(first, read(reader, stl(first)));
+		assertParsed(second, read(reader, stl(second)));
+	}
+}
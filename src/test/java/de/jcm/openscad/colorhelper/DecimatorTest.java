@@ -0,0 +1,232 @@
+package de.jcm.openscad.colorhelper;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DecimatorTest
+{
+	private static void triangle(Mesh mesh, double[] a, double[] b, double[] c)
+	{
+		double ux = b[0] - a[0], uy = b[1] - a[1], uz = b[2] - a[2];
+		double vx = c[0] - a[0], vy = c[1] - a[1], vz = c[2] - a[2];
+		double nx = uy * vz - uz * vy, ny = uz * vx - ux * vz, nz = ux * vy - uy * vx;
+		double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+		mesh.addTriangle(nx / length, ny / length, nz / length,
+		                 a[0], a[1], a[2], b[0], b[1], b[2], c[0], c[1], c[2]);
+	}
+
+	/**
+	 * @return the cube from -1 to 1 with every side split into n by n squares, or with sphere set the same points
+	 * pushed out onto the unit sphere
+	 */
+	private static IndexedMesh cube(int n, boolean sphere)
+	{
+		Mesh mesh = new Mesh(sphere ? "sphere" : "cube");
+		for(int axis = 0; axis < 3; axis++)
+		{
+			for(int sign = -1; sign <= 1; sign += 2)
+			{
+				for(int i = 0; i < n; i++)
+				{
+					for(int j = 0; j < n; j++)
+					{
+						double[] p00 = side(axis, sign, i, j, n, sphere);
+						double[] p10 = side(axis, sign, i + 1, j, n, sphere);
+						double[] p11 = side(axis, sign, i + 1, j + 1, n, sphere);
+						double[] p01 = side(axis, sign, i, j + 1, n, sphere);
+						if(sign > 0)
+						{
+							triangle(mesh, p00, p10, p11);
+							triangle(mesh, p00, p11, p01);
+						}
+						else
+						{
+							triangle(mesh, p00, p11, p10);
+							triangle(mesh, p00, p01, p11);
+						}
+					}
+				}
+			}
+		}
+		return IndexedMesh.weld(mesh, 0);
+	}
+
+	private static double[] side(int axis, int sign, int i, int j, int n, boolean sphere)
+	{
+		double[] p = new double[3];
+		p[axis] = sign;
+		p[(axis + 1) % 3] = -1 + 2.0 * i / n;
+		p[(axis + 2) % 3] = -1 + 2.0 * j / n;
+		if(sphere)
+		{
+			double length = Math.sqrt(p[0] * p[0] + p[1] * p[1] + p[2] * p[2]);
+			for(int k = 0; k < 3; k++)
+				p[k] /= length;
+		}
+		return p;
+	}
+
+	/**
+	 * @return an open fan of triangles from an apex above the origin to a ring of points in the z = 0 plane
+	 */
+	private static IndexedMesh fan(double[][] ring, double height)
+	{
+		Mesh mesh = new Mesh("fan");
+		double[] apex = {0, 0, height};
+		for(int i = 0; i < ring.length; i++)
+			triangle(mesh, apex, ring[i], ring[(i + 1) % ring.length]);
+		return IndexedMesh.weld(mesh, 0);
+	}
+
+	private static double[][] circle(int points)
+	{
+		double[][] ring = new double[points][];
+		for(int i = 0; i < points; i++)
+		{
+			double angle = 2 * Math.PI * i / points;
+			ring[i] = new double[]{Math.cos(angle), Math.sin(angle), 0};
+		}
+		return ring;
+	}
+
+	private static List<double[]> vertices(IndexedMesh mesh)
+	{
+		List<double[]> vertices = new ArrayList<>();
+		for(int v = 0; v < mesh.getVertexCount(); v++)
+			vertices.add(new double[]{mesh.getVertex(v, 0), mesh.getVertex(v, 1), mesh.getVertex(v, 2)});
+		return vertices;
+	}
+
+	private static boolean contains(IndexedMesh mesh, double[] point)
+	{
+		for(double[] vertex : vertices(mesh))
+		{
+			if(vertex[0] == point[0] && vertex[1] == point[1] && vertex[2] == point[2])
+				return true;
+		}
+		return false;
+	}
+
+	@Test
+	public void flatSidesCollapseDownToTheRatio()
+	{
+		IndexedMesh cube = cube(4, false);
+		assertEquals(192, cube.getFaceCount());
+
+		IndexedMesh decimated = new Decimator(0.25, 0).decimate(cube);
+		assertEquals(48, decimated.getFaceCount());
+		// collapses on flat sides cost nothing and must not move the surface
+		for(double[] vertex : vertices(decimated))
+		{
+			double max = Math.max(Math.abs(vertex[0]), Math.max(Math.abs(vertex[1]), Math.abs(vertex[2])));
+			assertEquals(1, max, 1e-9);
+		}
+
+		// an error limit does not stop collapses that cost nothing
+		assertEquals(48, new Decimator(0.25, 1e-9).decimate(cube).getFaceCount());
+	}
+
+	@Test
+	public void errorLimitStopsBeforeTheRatio()
+	{
+		IndexedMesh sphere = cube(6, true);
+		int faces = sphere.getFaceCount();
+
+		// every collapse on a sphere moves the surface
+		assertEquals(faces, new Decimator(0, 1e-4).decimate(sphere).getFaceCount());
+
+		int loose = new Decimator(0, 0.02).decimate(sphere).getFaceCount();
+		int looser = new Decimator(0, 0.1).decimate(sphere).getFaceCount();
+		assertTrue(loose < faces);
+		assertTrue(looser < loose);
+		assertTrue(looser > 0);
+	}
+
+	@Test
+	public void errorLimitIsADistance()
+	{
+		// moving the apex of a low cone onto its rim moves it about 0.22 away from the planes of its faces, no
+		// matter how many faces the cone has
+		IndexedMesh coarse = fan(circle(6), 0.2);
+		IndexedMesh fine = fan(circle(48), 0.2);
+
+		assertEquals(6, new Decimator(0, 0.2).decimate(coarse).getFaceCount());
+		assertEquals(4, new Decimator(0, 0.25).decimate(coarse).getFaceCount());
+		assertEquals(48, new Decimator(0, 0.2).decimate(fine).getFaceCount());
+		assertEquals(46, new Decimator(0, 0.25).decimate(fine).getFaceCount());
+	}
+
+	@Test
+	public void openBoundariesStayPut()
+	{
+		int n = 6;
+		Mesh mesh = new Mesh("grid");
+		for(int i = 0; i < n; i++)
+		{
+			for(int j = 0; j < n; j++)
+			{
+				double[] p00 = {i, j, 0}, p10 = {i + 1, j, 0}, p11 = {i + 1, j + 1, 0}, p01 = {i, j + 1, 0};
+				triangle(mesh, p00, p10, p11);
+				triangle(mesh, p00, p11, p01);
+			}
+		}
+		IndexedMesh grid = IndexedMesh.weld(mesh, 0);
+
+		IndexedMesh decimated = new Decimator(0, 0).decimate(grid);
+		assertTrue(decimated.getFaceCount() < grid.getFaceCount());
+		for(double[] vertex : vertices(grid))
+		{
+			boolean boundary = vertex[0] == 0 || vertex[0] == n || vertex[1] == 0 || vertex[1] == n;
+			if(boundary)
+				assertTrue(vertex[0] + " " + vertex[1] + " moved", contains(decimated, vertex));
+		}
+		for(double[] vertex : vertices(decimated))
+			assertEquals(0, vertex[2], 0);
+	}
+
+	@Test
+	public void seamsStayPut()
+	{
+		IndexedMesh sphere = cube(6, true);
+		boolean[] seam = new boolean[sphere.getVertexCount()];
+		List<double[]> seamVertices = new ArrayList<>();
+		for(int v = 0; v < seam.length; v++)
+		{
+			// a ring around the equator, as if the lower half had another color
+			seam[v] = Math.abs(sphere.getVertex(v, 2)) < 0.3;
+			if(seam[v])
+				seamVertices.add(new double[]{sphere.getVertex(v, 0), sphere.getVertex(v, 1), sphere.getVertex(v, 2)});
+		}
+		assertTrue(seamVertices.size() > 0);
+
+		IndexedMesh decimated = new Decimator(0.1, 0).decimate(sphere, seam);
+		assertTrue(decimated.getFaceCount() < sphere.getFaceCount());
+		for(double[] vertex : seamVertices)
+			assertTrue(contains(decimated, vertex));
+	}
+
+	@Test
+	public void collapsesDoNotTurnFacesOver()
+	{
+		// a low star: moving the apex onto any of its points turns some faces upside down
+		double[][] star = new double[10][];
+		for(int i = 0; i < star.length; i++)
+		{
+			double angle = 2 * Math.PI * i / star.length;
+			double radius = i % 2 == 0 ? 1 : 0.2;
+			star[i] = new double[]{radius * Math.cos(angle), radius * Math.sin(angle), 0};
+		}
+		IndexedMesh decimated = new Decimator(0, 0).decimate(fan(star, 0.05));
+		assertEquals(10, decimated.getFaceCount());
+
+		// a steep cone would fold flat onto its base
+		assertEquals(8, new Decimator(0, 0).decimate(fan(circle(8), 10)).getFaceCount());
+		// a low one may
+		assertEquals(6, new Decimator(0, 0).decimate(fan(circle(8), 0.2)).getFaceCount());
+	}
+}
@@ -0,0 +1,120 @@
+package de.jcm.openscad.colorhelper;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class IndexedMeshTest
+{
+	private static void triangle(Mesh mesh, double[] normal, double[] a, double[] b, double[] c)
+	{
+		mesh.addTriangle(normal[0], normal[1], normal[2], a[0], a[1], a[2], b[0], b[1], b[2], c[0], c[1], c[2]);
+	}
+
+	private static double[] point(double x, double y, double z)
+	{
+		return new double[]{x, y, z};
+	}
+
+	private static final double[] UP = point(0, 0, 1);
+
+	@Test
+	public void identicalVerticesAreShared()
+	{
+		Mesh mesh = new Mesh("square");
+		triangle(mesh, UP, point(0, 0, 0), point(1, 0, 0), point(1, 1, 0));
+		// -0.0 is the same point as 0.0
+		triangle(mesh, UP, point(-0.0, 0, 0), point(1, 1, 0), point(0, 1, -0.0));
+
+		IndexedMesh indexed = IndexedMesh.weld(mesh, 0);
+		assertEquals(4, indexed.getVertexCount());
+		assertEquals(2, indexed.getFaceCount());
+		assertEquals(indexed.getFaceVertex(0, 0), indexed.getFaceVertex(1, 0));
+		assertEquals(indexed.getFaceVertex(0, 2), indexed.getFaceVertex(1, 1));
+	}
+
+	@Test
+	public void withoutToleranceNearbyVerticesStaySeparate()
+	{
+		Mesh mesh = new Mesh("near");
+		triangle(mesh, UP, point(0, 0, 0), point(1, 0, 0), point(0, 1, 0));
+		triangle(mesh, UP, point(1e-12, 0, 0), point(1, 1e-12, 0), point(0, 1, 1e-12));
+
+		assertEquals(6, IndexedMesh.weld(mesh, 0).getVertexCount());
+	}
+
+	@Test
+	public void verticesMergeAcrossCellBoundaries()
+	{
+		Mesh mesh = new Mesh("boundary");
+		// 0.01 is a cell boundary for a tolerance of 0.01, the points are 2e-11 apart on either side of it
+		triangle(mesh, UP, point(0.00999999999, 0, 0), point(1, 0, 0), point(0, 1, 0));
+		triangle(mesh, UP, point(0.01000000001, 0, 0), point(0, 1, 0), point(-1, 0, 0));
+
+		IndexedMesh indexed = IndexedMesh.weld(mesh, 0.01);
+		assertEquals(4, indexed.getVertexCount());
+		assertEquals(indexed.getFaceVertex(0, 0), indexed.getFaceVertex(1, 0));
+		// the first point seen keeps its coordinates
+		assertEquals(0.00999999999, indexed.getVertex(indexed.getFaceVertex(1, 0), 0), 0);
+	}
+
+	@Test
+	public void verticesInOneCellFurtherApartThanToleranceStaySeparate()
+	{
+		Mesh mesh = new Mesh("cell");
+		// both in cell (0, 0, 0) of a 0.01 grid, but 0.0168 apart
+		triangle(mesh, UP, point(0.0001, 0.0001, 0.0001), point(1, 0, 0), point(0, 1, 0));
+		triangle(mesh, UP, point(0.0098, 0.0098, 0.0098), point(0, 1, 0), point(-1, 0, 0));
+
+		IndexedMesh indexed = IndexedMesh.weld(mesh, 0.01);
+		assertEquals(5, indexed.getVertexCount());
+		assertTrue("points further apart than the tolerance were merged",
+		           indexed.getFaceVertex(0, 0) != indexed.getFaceVertex(1, 0));
+	}
+
+	@Test
+	public void pointsJoinTheNearestVertex()
+	{
+		Mesh mesh = new Mesh("nearest");
+		triangle(mesh, UP, point(0, 0, 0), point(0.015, 0, 0), point(5, 5, 5));
+		// within the tolerance of both, but closer to the second
+		triangle(mesh, UP, point(0.009, 0, 0), point(7, 7, 7), point(9, 9, 9));
+
+		IndexedMesh indexed = IndexedMesh.weld(mesh, 0.01);
+		assertEquals(indexed.getFaceVertex(0, 1), indexed.getFaceVertex(1, 0));
+	}
+
+	@Test
+	public void collapsedTrianglesAreDropped()
+	{
+		Mesh mesh = new Mesh("sliver");
+		triangle(mesh, UP, point(0, 0, 0), point(1, 0, 0), point(0, 1, 0));
+		// two corners closer than the tolerance
+		triangle(mesh, UP, point(1, 0, 0), point(1.0005, 0, 0), point(0, 1, 0));
+		// all corners identical
+		triangle(mesh, UP, point(3, 3, 3), point(3, 3, 3), point(3, 3, 3));
+
+		IndexedMesh indexed = IndexedMesh.weld(mesh, 0.001);
+		assertEquals(1, indexed.getFaceCount());
+		for(int corner = 0; corner < 3; corner++)
+			assertTrue(indexed.getFaceVertex(0, corner) < indexed.getVertexCount());
+
+		assertEquals(2, IndexedMesh.weld(mesh, 0).getFaceCount());
+	}
+
+	@Test
+	public void identicalNormalsAreShared()
+	{
+		Mesh mesh = new Mesh("normals");
+		triangle(mesh, UP, point(0, 0, 0), point(1, 0, 0), point(0, 1, 0));
+		triangle(mesh, point(-0.0, 0, 1), point(1, 0, 0), point(1, 1, 0), point(0, 1, 0));
+		triangle(mesh, point(0, 0.001, 0.9999995), point(0, 0, 1), point(1, 0, 1), point(0, 1, 1));
+
+		// normals are never merged by the vertex tolerance
+		IndexedMesh indexed = IndexedMesh.weld(mesh, 0.01);
+		assertEquals(2, indexed.getNormalCount());
+		assertEquals(indexed.getFaceNormal(0), indexed.getFaceNormal(1));
+		assertTrue(indexed.getFaceNormal(0) != indexed.getFaceNormal(2));
+	}
+}
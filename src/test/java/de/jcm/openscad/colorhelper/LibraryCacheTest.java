@@ -0,0 +1,167 @@
+package de.jcm.openscad.colorhelper;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LibraryCacheTest
+{
+	private static File directory() throws IOException
+	{
+		return Files.createTempDirectory("libraries").toFile();
+	}
+
+	private static void delete(File directory)
+	{
+		File[] files = directory.listFiles();
+		if(files != null)
+		{
+			for(File file : files)
+			{
+				if(file.isDirectory())
+					delete(file);
+				else
+					file.delete();
+			}
+		}
+		directory.delete();
+	}
+
+	private static File write(File directory, String name, String... lines) throws IOException
+	{
+		File file = new File(directory, name);
+		Files.write(file.toPath(), Arrays.asList(lines), StandardCharsets.UTF_8);
+		return file;
+	}
+
+	private static List<String> targets(LibraryCache.Library library)
+	{
+		List<String> targets = new ArrayList<>();
+		for(LibraryCache.Directive directive : library.getDirectives())
+			targets.add(directive.getLine() + (directive.isInclude() ? " include " : " use ") + directive.getTarget());
+		return targets;
+	}
+
+	@Test
+	public void statementsInBlockCommentsAreSkipped() throws IOException
+	{
+		File directory = directory();
+		try
+		{
+			File file = write(directory, "main.scad",
+			                  "include <a.scad>",
+			                  "/* old version:",
+			                  "include <b.scad>",
+			                  "use <c.scad>",
+			                  "color(\"red\") cube(1);",
+			                  "*/ use <d.scad>",
+			                  "/*start_group(\"top\")*/",
+			                  "use <e.scad> /* trailing",
+			                  "include <f.scad> */",
+			                  "// include <g.scad>",
+			                  "echo(\"/*\"); // /*",
+			                  "include <h.scad>");
+
+			LibraryCache cache = new LibraryCache(null, Collections.emptyList());
+			LibraryCache.Library library = cache.get(file);
+			assertEquals(Arrays.asList("0 include a.scad", "7 use e.scad", "11 include h.scad"), targets(library));
+			assertFalse(library.hasColors());
+		}
+		finally
+		{
+			delete(directory);
+		}
+	}
+
+	@Test
+	public void commentedIncludesAreNotInlined() throws IOException
+	{
+		File directory = directory();
+		try
+		{
+			write(directory, "part.scad", "cube(1);");
+			write(directory, "old.scad", "sphere(1);");
+			File input = write(directory, "main.scad",
+			                   "include <part.scad>",
+			                   "/*",
+			                   "include <old.scad>",
+			                   "*/");
+
+			LibraryCache cache = new LibraryCache(null, Collections.emptyList());
+			SCADSource source = SCADSource.parse(input, Collections.emptyMap(), null, cache);
+			List<File> files = source.getFiles();
+			assertEquals(2, files.size());
+			assertTrue(files.contains(new File(directory, "part.scad").getCanonicalFile()));
+		}
+		finally
+		{
+			delete(directory);
+		}
+	}
+
+	@Test
+	public void readHandsOutTheCurrentLines() throws IOException
+	{
+		File directory = directory();
+		try
+		{
+			File file = write(directory, "part.scad", "cube(1);", "include <a.scad>");
+
+			LibraryCache cache = new LibraryCache(null, Collections.emptyList());
+			List<String> lines = new ArrayList<>();
+			LibraryCache.Library first = cache.read(file, lines);
+			assertEquals(Arrays.asList("cube(1);", "include <a.scad>"), lines);
+
+			// same size and possibly the same modification time, only the hash tells them apart
+			write(directory, "part.scad", "cube(2);", "include <b.scad>");
+			lines = new ArrayList<>();
+			LibraryCache.Library second = cache.read(file, lines);
+			assertEquals(Arrays.asList("cube(2);", "include <b.scad>"), lines);
+			assertEquals(Collections.singletonList("1 include b.scad"), targets(second));
+			assertFalse(first.getHash().equals(second.getHash()));
+		}
+		finally
+		{
+			delete(directory);
+		}
+	}
+
+	@Test
+	public void indexSurvivesReopening() throws IOException
+	{
+		File directory = directory();
+		File index = new File(directory, "index");
+		try
+		{
+			File file = write(directory, "part.scad", "use <a.scad>", "/*", "use <b.scad>", "*/", "color(\"red\") x();");
+
+			LibraryCache cache = new LibraryCache(index, Collections.emptyList());
+			String hash = cache.get(file).getHash();
+			cache.save();
+
+			LibraryCache reopened = new LibraryCache(index, Collections.emptyList());
+			LibraryCache.Library library = reopened.get(file);
+			assertEquals(hash, library.getHash());
+			assertEquals(Collections.singletonList("0 use a.scad"), targets(library));
+			assertTrue(library.hasColors());
+
+			File[] left = index.listFiles();
+			assertEquals(1, left.length);
+		}
+		finally
+		{
+			delete(directory);
+		}
+	}
+}
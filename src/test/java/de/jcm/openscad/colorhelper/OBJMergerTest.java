@@ -0,0 +1,107 @@
+package de.jcm.openscad.colorhelper;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class OBJMergerTest
+{
+	private static IndexedMesh square(double z, double[] normal)
+	{
+		Mesh mesh = new Mesh("square");
+		mesh.addTriangle(normal[0], normal[1], normal[2], 0, 0, z, 1, 0, z, 1, 1, z);
+		mesh.addTriangle(normal[0], normal[1], normal[2], 0, 0, z, 1, 1, z, 0, 1, z);
+		return IndexedMesh.weld(mesh, 0);
+	}
+
+	private static File write(IndexedMesh mesh) throws IOException
+	{
+		File file = File.createTempFile("merge", ".obj");
+		OBJWriter writer = new OBJWriter(file, OBJWriter.SHORTEST);
+		writer.mesh(mesh);
+		writer.close();
+		return file;
+	}
+
+	@Test
+	public void facesKeepTheirMaterialAndCorners() throws IOException
+	{
+		IndexedMesh red = square(0, new double[]{0, 0, 1});
+		IndexedMesh blue = square(2, new double[]{0, 0, -1});
+		File redFile = write(red);
+		File blueFile = write(blue);
+		File merged = File.createTempFile("merged", ".obj");
+		try
+		{
+			OBJMerger merger = new OBJMerger();
+			merger.add(redFile, "red");
+			merger.add(blueFile, "blue");
+			OBJWriter writer = new OBJWriter(merged, OBJWriter.SHORTEST);
+			merger.merge(writer);
+			writer.close();
+
+			List<double[]> vertices = new ArrayList<>();
+			List<double[]> normals = new ArrayList<>();
+			List<String> materials = new ArrayList<>();
+			List<IndexedMesh> expected = new ArrayList<>();
+			int face = 0;
+			for(String line : Files.readAllLines(merged.toPath(), StandardCharsets.US_ASCII))
+			{
+				String[] parts = line.split(" ");
+				if(parts[0].equals("v"))
+				{
+					vertices.add(new double[]{Double.parseDouble(parts[1]), Double.parseDouble(parts[2]),
+					                          Double.parseDouble(parts[3])});
+				}
+				else if(parts[0].equals("vn"))
+				{
+					normals.add(new double[]{Double.parseDouble(parts[1]), Double.parseDouble(parts[2]),
+					                         Double.parseDouble(parts[3])});
+				}
+				else if(parts[0].equals("usemtl"))
+				{
+					materials.add(parts[1]);
+					expected.add(parts[1].equals("red") ? red : blue);
+					face = 0;
+				}
+				else if(parts[0].equals("f"))
+				{
+					// every corner of a face refers to the vertex and normal it had in its own file
+					IndexedMesh mesh = expected.get(expected.size() - 1);
+					for(int corner = 0; corner < 3; corner++)
+					{
+						String[] indices = parts[corner + 1].split("/");
+						double[] vertex = vertices.get(Integer.parseInt(indices[0]) - 1);
+						double[] normal = normals.get(Integer.parseInt(indices[2]) - 1);
+						int v = mesh.getFaceVertex(face, corner);
+						int n = mesh.getFaceNormal(face);
+						for(int axis = 0; axis < 3; axis++)
+						{
+							assertEquals(mesh.getVertex(v, axis), vertex[axis], 0);
+							assertEquals(mesh.getNormal(n, axis), normal[axis], 0);
+						}
+					}
+					face++;
+				}
+			}
+
+			assertEquals(Arrays.asList("red", "blue"), materials);
+			assertEquals(red.getVertexCount() + blue.getVertexCount(), vertices.size());
+			assertEquals(2, normals.size());
+		}
+		finally
+		{
+			redFile.delete();
+			blueFile.delete();
+			merged.delete();
+		}
+	}
+}
@@ -0,0 +1,167 @@
+package de.jcm.openscad.colorhelper;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class OBJWriterTest
+{
+	private static final double[] SPECIAL = {
+			0.0, -0.0, 1, -1, 0.1, -0.1, 0.5, 1.0 / 3, 0.30000000000000004, 123.456, -987654.321,
+			Double.MIN_VALUE, -Double.MIN_VALUE, Double.MIN_NORMAL, 2.2250738585072009E-308, 1e-300, -1e-30,
+			1e-7, 1e15, 1e16, 9007199254740991.0, 9007199254740993.0, 1e22, 1e23, -1e100, 1e300,
+			Double.MAX_VALUE, -Double.MAX_VALUE, Math.PI, -Math.E, 4.35, 2.675, 1.005
+	};
+
+	private static List<String> write(double[] values, int precision) throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		OBJWriter writer = new OBJWriter(Channels.newChannel(bytes), precision);
+		for(double value : values)
+		{
+			writer.write(value);
+			writer.write('\n');
+		}
+		writer.close();
+
+		List<String> lines = new ArrayList<>();
+		for(String line : new String(bytes.toByteArray(), StandardCharsets.US_ASCII).split("\n"))
+			lines.add(line);
+		return lines;
+	}
+
+	private static void assertRoundTrip(double[] values) throws IOException
+	{
+		List<String> lines = write(values, OBJWriter.SHORTEST);
+		assertEquals(values.length, lines.size());
+		for(int i = 0; i < values.length; i++)
+		{
+			String line = lines.get(i);
+			assertFalse(line, line.contains("E") || line.contains("e"));
+			assertEquals(values[i] + " written as " + line, Double.doubleToRawLongBits(values[i]),
+			             Double.doubleToRawLongBits(Double.parseDouble(line)));
+		}
+	}
+
+	@Test
+	public void shortestReadsBackExactly() throws IOException
+	{
+		assertRoundTrip(SPECIAL);
+
+		Random random = new Random(5);
+		double[] values = new double[20000];
+		for(int i = 0; i < values.length; i++)
+		{
+			switch(i % 4)
+			{
+				case 0:
+					values[i] = Double.longBitsToDouble(random.nextLong());
+					if(Double.isNaN(values[i]) || Double.isInfinite(values[i]))
+						values[i] = random.nextDouble();
+					break;
+				case 1:
+					values[i] = (random.nextDouble() - 0.5) * 200;
+					break;
+				case 2:
+					// coordinates as OpenSCAD writes them
+					String coordinate = String.format(Locale.ROOT, "%.6g", (random.nextDouble() - 0.5) * 1000);
+					values[i] = Double.parseDouble(coordinate);
+					break;
+				default:
+					// subnormals
+					values[i] = Double.longBitsToDouble(random.nextLong() & 0x800FFFFFFFFFFFFFL);
+			}
+		}
+		assertRoundTrip(values);
+	}
+
+	@Test
+	public void shortestIsShort() throws IOException
+	{
+		double[] values = {0.0, -0.0, 1, -2.5, 0.1, 100, 1e22, 0.30000000000000004};
+		List<String> lines = write(values, OBJWriter.SHORTEST);
+		assertEquals("0", lines.get(0));
+		assertEquals("-0", lines.get(1));
+		assertEquals("1", lines.get(2));
+		assertEquals("-2.5", lines.get(3));
+		assertEquals("0.1", lines.get(4));
+		assertEquals("100", lines.get(5));
+		assertEquals("10000000000000000000000", lines.get(6));
+		assertEquals("0.30000000000000004", lines.get(7));
+	}
+
+	@Test
+	public void shortestMatchesDecimalFormat() throws IOException
+	{
+		// the OBJ files used to be written with this format
+		DecimalFormat format = new DecimalFormat("0", DecimalFormatSymbols.getInstance(Locale.ENGLISH));
+		format.setMaximumFractionDigits(340);
+
+		Random random = new Random(9);
+		double[] values = new double[5000];
+		for(int i = 0; i < values.length; i++)
+		{
+			if(i < SPECIAL.length)
+				values[i] = SPECIAL[i];
+			else
+				values[i] = (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(12) - 4);
+		}
+
+		List<String> lines = write(values, OBJWriter.SHORTEST);
+		for(int i = 0; i < values.length; i++)
+			assertEquals(String.valueOf(values[i]), format.format(values[i]), lines.get(i));
+	}
+
+	@Test
+	public void precisionRoundsHalfToEven() throws IOException
+	{
+		Random random = new Random(3);
+		double[] values = new double[20000];
+		for(int i = 0; i < values.length; i++)
+		{
+			if(i < SPECIAL.length)
+				values[i] = SPECIAL[i];
+			else if(i % 2 == 0)
+				values[i] = (random.nextDouble() - 0.5) * 2000;
+			else
+				// ties and near ties in binary, like 0.125 and 2.675
+				values[i] = (random.nextInt(200000) - 100000) / 1000.0 + (random.nextInt(3) - 1) * 5e-4;
+		}
+
+		for(int precision : new int[]{0, 2, 3, 6})
+		{
+			List<String> lines = write(values, precision);
+			for(int i = 0; i < values.length; i++)
+			{
+				BigDecimal expected = new BigDecimal(values[i]).setScale(precision, RoundingMode.HALF_EVEN);
+				String message = values[i] + " to " + precision + " places";
+				String text = expected.signum() == 0 ? "0" : expected.stripTrailingZeros().toPlainString();
+				// only -0 itself keeps its sign
+				if(Double.doubleToRawLongBits(values[i]) == Double.doubleToRawLongBits(-0.0))
+					text = "-0";
+				assertEquals(message, text, lines.get(i));
+			}
+		}
+
+		List<String> lines = write(new double[]{0.125, 0.375, -0.125, 2.5, 0.0004}, 2);
+		assertEquals("0.12", lines.get(0));
+		assertEquals("0.38", lines.get(1));
+		assertEquals("-0.12", lines.get(2));
+		assertEquals("2.5", lines.get(3));
+		assertEquals("0", lines.get(4));
+	}
+}
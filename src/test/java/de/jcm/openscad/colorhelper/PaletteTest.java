@@ -0,0 +1,156 @@
+package de.jcm.openscad.colorhelper;
+
+import org.junit.Test;
+
+import java.awt.Color;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PaletteTest
+{
+	private static String gray(double level)
+	{
+		return "rgb(" + level + "," + level + "," + level + ")";
+	}
+
+	private static String randomColor(Random random)
+	{
+		return "rgb(" + random.nextInt(1000) / 1000.0 + "," + random.nextInt(1000) / 1000.0 + ","
+				+ random.nextInt(1000) / 1000.0 + ")";
+	}
+
+	private static ColorMap colorMap()
+	{
+		ColorMap colorMap = new ColorMap();
+		colorMap.define("red", new Color(255, 0, 0));
+		colorMap.define("darkred", new Color(139, 0, 0));
+		colorMap.define("white", new Color(255, 255, 255));
+		return colorMap;
+	}
+
+	private static void assertWithinTolerance(Map<String, Integer> colors, double tolerance)
+	{
+		assertWithinTolerance(colors, Palette.clusters(1, tolerance).quantize(colors), tolerance);
+	}
+
+	private static void assertWithinTolerance(Map<String, Integer> colors, Map<String, String> mapping,
+	                                          double tolerance)
+	{
+		assertTrue(colors.keySet().containsAll(mapping.keySet()));
+		for(Map.Entry<String, String> entry : mapping.entrySet())
+		{
+			double distance = distance(Palette.lab(ColorMap.parseRGB(entry.getKey())),
+			                           Palette.lab(ColorMap.parseRGB(entry.getValue())));
+			assertTrue(entry.getKey() + " moved to " + entry.getValue() + " by delta E " + distance,
+			           distance <= tolerance);
+		}
+	}
+
+	private static double distance(double[] a, double[] b)
+	{
+		double l = a[0] - b[0];
+		double x = a[1] - b[1];
+		double y = a[2] - b[2];
+		return Math.sqrt(l * l + x * x + y * y);
+	}
+
+	@Test
+	public void clustersDoNotChainBeyondTolerance()
+	{
+		// merging by centers alone mapped the light gray onto the darkest one, delta E 16.6
+		Map<String, Integer> colors = new LinkedHashMap<>();
+		colors.put(gray(0.641), 2);
+		colors.put(gray(0.438), 29);
+		colors.put(gray(0.461), 35);
+		colors.put(gray(0.547), 47);
+		colors.put(gray(0.472), 20);
+		assertWithinTolerance(colors, 10);
+	}
+
+	@Test
+	public void noColorMovesFurtherThanTolerance()
+	{
+		Random random = new Random(42);
+		for(int run = 0; run < 50; run++)
+		{
+			Map<String, Integer> colors = new LinkedHashMap<>();
+			for(int i = 0; i < 30; i++)
+				colors.put(randomColor(random), 1 + random.nextInt(50));
+			assertWithinTolerance(colors, 5 + random.nextInt(30));
+		}
+	}
+
+	@Test(timeout = 10000)
+	public void manyColorsAreClusteredQuickly()
+	{
+		Random random = new Random(7);
+		Map<String, Integer> colors = new LinkedHashMap<>();
+		while(colors.size() < 1000)
+			colors.put(randomColor(random), 1 + random.nextInt(50));
+
+		Map<String, String> mapping = Palette.clusters(50, 15).quantize(colors);
+		assertWithinTolerance(colors, mapping, 15);
+
+		Set<String> remaining = new HashSet<>(colors.keySet());
+		remaining.removeAll(mapping.keySet());
+		assertTrue(remaining.size() < colors.size());
+		// representatives are colors of the input and are not mapped themselves
+		assertTrue(remaining.containsAll(mapping.values()));
+	}
+
+	@Test
+	public void namedColorsAreTheNearestInCIELAB()
+	{
+		Map<String, Integer> colors = new LinkedHashMap<>();
+		colors.put("rgb(0.95,0.02,0.02)", 1);
+		colors.put("rgb(0.5,0.01,0.02)", 1);
+		colors.put("rgb(0.98,0.99,0.97)", 1);
+
+		Map<String, String> mapping = Palette.named(colorMap(), 10).quantize(colors);
+		assertEquals(3, mapping.size());
+		assertEquals("red", mapping.get("rgb(0.95,0.02,0.02)"));
+		assertEquals("darkred", mapping.get("rgb(0.5,0.01,0.02)"));
+		assertEquals("white", mapping.get("rgb(0.98,0.99,0.97)"));
+	}
+
+	@Test
+	public void namedColorsFurtherThanTheToleranceAreKept()
+	{
+		ColorMap colorMap = colorMap();
+		Map<String, Integer> colors = new LinkedHashMap<>();
+		// delta E of about 5.7 to red
+		colors.put("rgb(0.95,0.02,0.02)", 1);
+		colors.put("rgb(0.5,0.5,0.5)", 1);
+
+		Map<String, String> strict = Palette.named(colorMap, 5).quantize(colors);
+		assertTrue(strict.isEmpty());
+
+		Map<String, String> loose = Palette.named(colorMap, 7).quantize(colors);
+		assertEquals("red", loose.get("rgb(0.95,0.02,0.02)"));
+		assertFalse(loose.containsKey("rgb(0.5,0.5,0.5)"));
+	}
+
+	@Test
+	public void onlyRGBColorsAreMapped()
+	{
+		Map<String, Integer> colors = new LinkedHashMap<>();
+		// a name of the color map, one it does not have and one that is close to red but not rgb()
+		colors.put("red", 1);
+		colors.put("crimson", 1);
+		colors.put("darkred", 1);
+		colors.put("rgb(1,0,0)", 1);
+
+		Map<String, String> named = Palette.named(colorMap(), 10).quantize(colors);
+		assertEquals(1, named.size());
+		assertEquals("red", named.get("rgb(1,0,0)"));
+
+		assertTrue(Palette.clusters(1, 100).quantize(colors).isEmpty());
+	}
+}
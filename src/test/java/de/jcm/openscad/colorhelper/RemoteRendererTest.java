@@ -0,0 +1,252 @@
+package de.jcm.openscad.colorhelper;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RemoteRendererTest
+{
+	private static final String SCAD = "color(\"red\") cube(1);\ncolor(\"blue\") cube(2);\n";
+
+	/**
+	 * A worker on the loopback address, serving until it is closed.
+	 */
+	private static RenderWorker worker(Renderer renderer) throws IOException
+	{
+		RenderWorker worker = new RenderWorker(renderer, InetAddress.getLoopbackAddress(), 0, 2);
+		Thread thread = new Thread(() -> {
+			try
+			{
+				worker.run();
+			}
+			catch(IOException e)
+			{
+				e.printStackTrace();
+			}
+		});
+		thread.setDaemon(true);
+		thread.start();
+		return worker;
+	}
+
+	private static InetSocketAddress address(int port)
+	{
+		return InetSocketAddress.createUnresolved(InetAddress.getLoopbackAddress().getHostAddress(), port);
+	}
+
+	/**
+	 * A peer that accepts connections and closes them right away, as a worker that dies before sending anything.
+	 */
+	private static ServerSocket dying(AtomicInteger accepted) throws IOException
+	{
+		ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+		Thread thread = new Thread(() -> {
+			while(!server.isClosed())
+			{
+				try(Socket socket = server.accept())
+				{
+					accepted.incrementAndGet();
+				}
+				catch(IOException e)
+				{
+					return;
+				}
+			}
+		});
+		thread.setDaemon(true);
+		thread.start();
+		return server;
+	}
+
+	private static File scad(File directory, String code) throws IOException
+	{
+		File scad = new File(directory, "model.scad");
+		Files.write(scad.toPath(), code.getBytes(StandardCharsets.UTF_8));
+		return scad;
+	}
+
+	private static byte[] local(File scad, boolean binarySTL) throws IOException
+	{
+		File stl = File.createTempFile("local", ".stl");
+		try
+		{
+			assertEquals(0, new StubRenderer(20).render(scad, stl, binarySTL, new ArrayList<>()));
+			return Files.readAllBytes(stl.toPath());
+		}
+		finally
+		{
+			stl.delete();
+		}
+	}
+
+	private static byte[] stream(Renderer renderer, File scad, List<String> messages) throws IOException,
+			InterruptedException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		int exit = renderer.render(scad, true, channel -> {
+			ByteBuffer buffer = ByteBuffer.allocate(1000);
+			while(channel.read(buffer) >= 0)
+			{
+				bytes.write(buffer.array(), 0, buffer.position());
+				buffer.clear();
+			}
+		}, messages);
+		assertEquals(0, exit);
+		return bytes.toByteArray();
+	}
+
+	private static void delete(File directory)
+	{
+		File[] files = directory.listFiles();
+		if(files != null)
+		{
+			for(File file : files)
+				file.delete();
+		}
+		directory.delete();
+	}
+
+	@Test
+	public void stlArrivesInChunks() throws Exception
+	{
+		File directory = Files.createTempDirectory("remote").toFile();
+		try(RenderWorker worker = worker(new StubRenderer(20)))
+		{
+			File scad = scad(directory, SCAD);
+			RemoteRenderer remote = new RemoteRenderer(Arrays.asList(address(worker.getPort())));
+			assertEquals("remote stub 20", remote.getIdentity());
+
+			// several chunks of STL data
+			byte[] expected = local(scad, true);
+			assertTrue(expected.length > 3 * RemoteRenderer.CHUNK);
+
+			File stl = new File(directory, "model.stl");
+			List<String> messages = new ArrayList<>();
+			assertEquals(0, remote.render(scad, stl, true, messages));
+			assertArrayEquals(expected, Files.readAllBytes(stl.toPath()));
+			assertTrue(messages.isEmpty());
+
+			assertArrayEquals(expected, stream(remote, scad, messages));
+
+			assertEquals(0, remote.render(scad, stl, false, messages));
+			assertArrayEquals(local(scad, false), Files.readAllBytes(stl.toPath()));
+		}
+		finally
+		{
+			delete(directory);
+		}
+	}
+
+	@Test
+	public void failedRendersReportTheirMessages() throws Exception
+	{
+		// longer than writeUTF can send, and not all ASCII
+		StringBuilder builder = new StringBuilder();
+		while(builder.length() < 100000)
+			builder.append("Fehler in Zeile ").append(builder.length()).append(": \u00fc\u20ac\n");
+		String message = builder.toString();
+
+		Renderer failing = new Renderer()
+		{
+			@Override
+			public String getIdentity()
+			{
+				return "failing";
+			}
+
+			@Override
+			public int render(File scad, File stl, boolean binarySTL, List<String> messages)
+			{
+				messages.add(message);
+				return 1;
+			}
+
+			@Override
+			public int render(File scad, boolean binarySTL, Sink sink, List<String> messages)
+			{
+				messages.add(message);
+				return 1;
+			}
+		};
+
+		File directory = Files.createTempDirectory("remote").toFile();
+		try(RenderWorker worker = worker(failing))
+		{
+			RemoteRenderer remote = new RemoteRenderer(Arrays.asList(address(worker.getPort())));
+			File stl = new File(directory, "model.stl");
+			List<String> messages = new ArrayList<>();
+			assertEquals(1, remote.render(scad(directory, SCAD), stl, true, messages));
+			assertEquals(2, messages.size());
+			assertEquals(message, messages.get(0));
+			assertTrue(messages.get(1).startsWith("Rendered by "));
+		}
+		finally
+		{
+			delete(directory);
+		}
+	}
+
+	@Test
+	public void connectionsWithoutMagicAreClosed() throws Exception
+	{
+		try(RenderWorker worker = worker(new StubRenderer(1));
+		    Socket socket = new Socket(InetAddress.getLoopbackAddress(), worker.getPort()))
+		{
+			DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+			out.writeInt(0x47455420);
+			out.writeByte(RemoteRenderer.IDENTITY);
+			out.flush();
+
+			socket.setSoTimeout(10000);
+			InputStream in = socket.getInputStream();
+			assertEquals(-1, in.read());
+		}
+	}
+
+	@Test
+	public void rendersMoveOnWhenAWorkerFailsBeforeSendingData() throws Exception
+	{
+		File directory = Files.createTempDirectory("remote").toFile();
+		AtomicInteger accepted = new AtomicInteger();
+		try(RenderWorker worker = worker(new StubRenderer(20));
+		    ServerSocket dying = dying(accepted))
+		{
+			File scad = scad(directory, SCAD);
+			byte[] expected = local(scad, true);
+			// both are idle, so the first one listed is tried first
+			RemoteRenderer remote = new RemoteRenderer(Arrays.asList(address(dying.getLocalPort()),
+			                                                         address(worker.getPort())));
+
+			File stl = new File(directory, "model.stl");
+			assertEquals(0, remote.render(scad, stl, true, new ArrayList<>()));
+			assertArrayEquals(expected, Files.readAllBytes(stl.toPath()));
+			assertEquals(1, accepted.get());
+
+			assertArrayEquals(expected, stream(remote, scad, new ArrayList<>()));
+			assertEquals(2, accepted.get());
+		}
+		finally
+		{
+			delete(directory);
+		}
+	}
+}
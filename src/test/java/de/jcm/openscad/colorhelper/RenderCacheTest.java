@@ -0,0 +1,133 @@
+package de.jcm.openscad.colorhelper;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RenderCacheTest
+{
+	private static File directory() throws IOException
+	{
+		return Files.createTempDirectory("cache").toFile();
+	}
+
+	private static void delete(File directory)
+	{
+		File[] files = directory.listFiles();
+		if(files != null)
+		{
+			for(File file : files)
+				file.delete();
+		}
+		directory.delete();
+	}
+
+	private static File stl(File directory, String name, int size) throws IOException
+	{
+		File file = new File(directory, name);
+		byte[] bytes = new byte[size];
+		for(int i = 0; i < size; i++)
+			bytes[i] = (byte) (name.hashCode() + i);
+		Files.write(file.toPath(), bytes);
+		return file;
+	}
+
+	@Test
+	public void storedFilesAreRestored() throws IOException
+	{
+		File directory = directory();
+		File work = directory();
+		try
+		{
+			RenderCache cache = new RenderCache(directory, 1000);
+			File stl = stl(work, "a.stl", 100);
+			cache.store("a", stl);
+			assertTrue(stl.exists());
+
+			File restored = new File(work, "restored.stl");
+			assertTrue(cache.restore("a", restored));
+			assertArrayEquals(Files.readAllBytes(stl.toPath()), Files.readAllBytes(restored.toPath()));
+			assertFalse(cache.restore("b", restored));
+
+			// only the entry itself, no copies left behind
+			assertEquals(1, directory.listFiles().length);
+		}
+		finally
+		{
+			delete(directory);
+			delete(work);
+		}
+	}
+
+	@Test
+	public void pinnedEntriesAreNotEvicted() throws IOException
+	{
+		File directory = directory();
+		File work = directory();
+		try
+		{
+			RenderCache cache = new RenderCache(directory, 250);
+			cache.store("a", stl(work, "a.stl", 100));
+			cache.store("b", stl(work, "b.stl", 100));
+
+			File pinned = cache.lookup("a");
+			assertNotNull(pinned);
+			// "a" is the least recently used entry after this, but is being read
+			assertNotNull(cache.lookup("b"));
+			cache.release("b");
+			cache.store("c", stl(work, "c.stl", 100));
+			assertTrue(pinned.exists());
+			assertNull(cache.lookup("b"));
+			cache.release("a");
+
+			// replacing a pinned entry is skipped rather than breaking the read
+			assertNotNull(cache.lookup("c"));
+			cache.store("c", stl(work, "other.stl", 10));
+			assertEquals(100, new File(directory, "c.stl").length());
+			cache.release("c");
+		}
+		finally
+		{
+			delete(directory);
+			delete(work);
+		}
+	}
+
+	@Test
+	public void indexSurvivesReopening() throws IOException
+	{
+		File directory = directory();
+		File work = directory();
+		try
+		{
+			RenderCache cache = new RenderCache(directory, 1000);
+			cache.store("a", stl(work, "a.stl", 100));
+			File temporary = cache.temporary();
+			Files.write(temporary.toPath(), new byte[50]);
+			cache.store("b", temporary, true);
+			cache.save();
+
+			RenderCache reopened = new RenderCache(directory, 1000);
+			File restored = new File(work, "restored.stl");
+			assertTrue(reopened.restore("a", restored));
+			assertTrue(reopened.restore("b", restored));
+			assertEquals(50, restored.length());
+			// the index and the two entries, nothing temporary
+			assertEquals(3, directory.listFiles().length);
+		}
+		finally
+		{
+			delete(directory);
+			delete(work);
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package de.jcm.openscad.colorhelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Scanner;
+
+/**
+ * The line based parser ColorHelper used before ASCIISTLReader, kept as the reference for ASCIISTLReaderTest and
+ * as a baseline for STLBenchmark.
+ */
+public class ScannerSTLReader implements STLReader
+{
+	@Override
+	public Mesh read(File file) throws IOException
+	{
+		return read(new Scanner(file));
+	}
+
+	@Override
+	public Mesh read(ReadableByteChannel channel)
+	{
+		return read(new Scanner(channel));
+	}
+
+	private Mesh read(Scanner scan)
+	{
+
+		Mesh mesh = new Mesh("");
+		double[] points = new double[9];
+		while(scan.hasNextLine())
+		{
+			String line = scan.nextLine();
+			if(line.startsWith("solid "))
+			{
+				mesh.setName(line.substring(6));
+			}
+			else if(line.startsWith("  facet normal "))
+			{
+				String n = line.substring(15);
+				String[] coords = n.split(" ");
+
+				double nx = Double.parseDouble(coords[0]);
+				double ny = Double.parseDouble(coords[1]);
+				double nz = Double.parseDouble(coords[2]);
+
+				line = scan.nextLine();
+				if(line.equals("    outer loop"))
+				{
+					for(int j = 0; j < 3; j++)
+					{
+						String string = scan.nextLine();
+						if(string.startsWith("      vertex "))
+						{
+							String v = string.substring(13);
+							coords = v.split(" ");
+
+							points[j * 3] = Double.parseDouble(coords[0]);
+							points[j * 3 + 1] = Double.parseDouble(coords[1]);
+							points[j * 3 + 2] = Double.parseDouble(coords[2]);
+						}
+					}
+					mesh.addTriangle(nx, ny, nz,
+					                 points[0], points[1], points[2],
+					                 points[3], points[4], points[5],
+					                 points[6], points[7], points[8]);
+				}
+			}
+		}
+		scan.close();
+
+		return mesh;
+	}
+}